@@ -27,6 +27,7 @@ import java.security.ProtectionDomain;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -103,6 +104,17 @@ class BundleImpl implements Bundle, BundleRevisions
     }
 
     BundleImpl(Felix felix, Bundle installingBundle, BundleArchive archive) throws Exception
+    {
+        this(felix, installingBundle, archive, Collections.<Bundle>emptyList());
+    }
+
+    /**
+     * Creates a bundle of a batch install. The bundles created before it in
+     * the same batch are not installed yet, so they are passed in to be
+     * checked for symbolic name and version collisions as well.
+    **/
+    BundleImpl(Felix felix, Bundle installingBundle, BundleArchive archive,
+        Collection<? extends Bundle> batch) throws Exception
     {
         __m_felix = felix;
         m_archive = archive;
@@ -113,7 +125,7 @@ class BundleImpl implements Bundle, BundleRevisions
         m_context = null;
         m_installingBundle = installingBundle;
 
-        BundleRevisionImpl revision = createRevision(false);
+        BundleRevisionImpl revision = createRevision(false, batch);
         addRevision(revision);
     }
 
@@ -1227,7 +1239,7 @@ class BundleImpl implements Bundle, BundleRevisions
         m_archive.revise(location, is);
         try
         {
-            BundleRevisionImpl revision = createRevision(true);
+            BundleRevisionImpl revision = createRevision(true, Collections.<Bundle>emptyList());
             addRevision(revision);
         }
         catch (Exception ex)
@@ -1275,7 +1287,8 @@ class BundleImpl implements Bundle, BundleRevisions
         getFramework().getResolver().addRevision(revision);
     }
 
-    private BundleRevisionImpl createRevision(boolean isUpdate) throws Exception
+    private BundleRevisionImpl createRevision(
+        boolean isUpdate, Collection<? extends Bundle> batch) throws Exception
     {
         // Get and parse the manifest from the most recent revision and
         // create an associated revision object for it.
@@ -1318,6 +1331,14 @@ class BundleImpl implements Bundle, BundleRevisions
                     }
                 }
             }
+            for (Bundle bundle : batch)
+            {
+                if (symName.equals(bundle.getSymbolicName())
+                    && bundleVersion.equals(bundle.getVersion()))
+                {
+                    collisionCanditates.add(bundle);
+                }
+            }
             if (!collisionCanditates.isEmpty() && allowMultiple.equals(Constants.FRAMEWORK_BSNVERSION_MANAGED))
             {
                 Set<ServiceReference<CollisionHook>> hooks = getFramework().getHookRegistry().getHooks(CollisionHook.class);
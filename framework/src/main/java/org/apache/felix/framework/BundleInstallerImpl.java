@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.felix.framework.ext.BundleInstaller;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+class BundleInstallerImpl implements BundleInstaller
+{
+    private final Felix m_felix;
+    private final Bundle m_origin;
+
+    BundleInstallerImpl(Felix felix, Bundle origin)
+    {
+        m_felix = felix;
+        m_origin = origin;
+    }
+
+    @Override
+    public List<Bundle> installBundles(Map<String, InputStream> bundles)
+        throws BundleException
+    {
+        return m_felix.installBundles(m_origin, bundles);
+    }
+
+    @Override
+    public List<Bundle> updateBundles(Map<Bundle, InputStream> bundles)
+        throws BundleException
+    {
+        List<Bundle> result = new ArrayList<>(bundles.size());
+        try
+        {
+            for (Entry<Bundle, InputStream> entry : bundles.entrySet())
+            {
+                entry.getKey().update(entry.getValue());
+                result.add(entry.getKey());
+            }
+        }
+        finally
+        {
+            if (result.size() < bundles.size())
+            {
+                m_felix.closeInputStreams(bundles.values());
+            }
+        }
+        m_felix.resolveBundles(result);
+        return result;
+    }
+}
@@ -75,6 +75,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BundleWiringImpl implements BundleWiring
 {
@@ -172,6 +173,19 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Default maximum number of entries in each of the local miss caches.
+    private static final int DEFAULT_LOCAL_MISS_CACHE_SIZE = 1024;
+
+    // Names of classes and resources known to be absent from the local
+    // content of this wiring. Since the content of a wiring never changes,
+    // such lookups do not have to search the content path again. The caches
+    // are cleared when they are full or when the wiring changes.
+    private final int m_localMissCacheSize;
+    private volatile Set<String> m_classMisses;
+    private volatile Set<String> m_resourceMisses;
+    private final AtomicLong m_localMissCacheHits = new AtomicLong();
+    private final AtomicLong m_localMissCacheMisses = new AtomicLong();
+
     BundleWiringImpl(
         Logger logger, Map<String,?> configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -469,6 +483,26 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int localMissCacheSize = DEFAULT_LOCAL_MISS_CACHE_SIZE;
+        String s = (String) m_configMap.get(FelixConstants.LOCAL_MISS_CACHE_SIZE_PROP);
+        if (s != null)
+        {
+            try
+            {
+                localMissCacheSize = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and use the default.
+            }
+        }
+        m_localMissCacheSize = localMissCacheSize;
+        if (m_localMissCacheSize > 0)
+        {
+            m_classMisses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            m_resourceMisses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -508,6 +542,8 @@ public class BundleWiringImpl implements BundleWiring
         m_classLoader = null;
         m_isDisposed = true;
         m_accessorLookupCache = null;
+        m_classMisses = null;
+        m_resourceMisses = null;
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -689,6 +725,7 @@ public class BundleWiringImpl implements BundleWiring
         // both values updates at the same time, but it seems unlikely
         // to cause any issues.
         m_wires = Util.newImmutableList(wires);
+        clearLocalMissCaches();
     }
 
     @Override
@@ -1551,8 +1588,15 @@ public class BundleWiringImpl implements BundleWiring
                     }
                     if (cl instanceof BundleClassLoader)
                     {
-                        result = isClass ? ((BundleClassLoader) cl).findClass(name) :
-                            ((BundleClassLoader) cl).findResource(name);
+                        if (!isLocalMiss(name, isClass))
+                        {
+                            result = isClass ? ((BundleClassLoader) cl).findClass(name) :
+                                ((BundleClassLoader) cl).findResource(name);
+                            if (result == null)
+                            {
+                                addLocalMiss(name, isClass);
+                            }
+                        }
                     }
                     else
                     {
@@ -1598,6 +1642,72 @@ public class BundleWiringImpl implements BundleWiring
         return result;
     }
 
+    private boolean isLocalMiss(String name, boolean isClass)
+    {
+        Set<String> misses = (isClass) ? m_classMisses : m_resourceMisses;
+        if (misses == null)
+        {
+            return false;
+        }
+        if (misses.contains(name))
+        {
+            m_localMissCacheHits.incrementAndGet();
+            return true;
+        }
+        m_localMissCacheMisses.incrementAndGet();
+        return false;
+    }
+
+    private void addLocalMiss(String name, boolean isClass)
+    {
+        Set<String> misses = (isClass) ? m_classMisses : m_resourceMisses;
+        if (misses != null)
+        {
+            // Keep the cache bounded; starting over is cheap compared to
+            // tracking the least recently used names.
+            if (misses.size() >= m_localMissCacheSize)
+            {
+                misses.clear();
+            }
+            misses.add(name);
+        }
+    }
+
+    private void clearLocalMissCaches()
+    {
+        Set<String> misses = m_classMisses;
+        if (misses != null)
+        {
+            misses.clear();
+        }
+        misses = m_resourceMisses;
+        if (misses != null)
+        {
+            misses.clear();
+        }
+    }
+
+    /**
+     * Returns the number of class and resource lookups that were answered
+     * by the local miss cache of this wiring without searching its content.
+     * @return the number of local miss cache hits.
+    **/
+    public long getLocalMissCacheHits()
+    {
+        return m_localMissCacheHits.get();
+    }
+
+    /**
+     * Returns the number of class and resource lookups that had to search
+     * the content of this wiring because they were not in its local miss
+     * cache.
+     * @return the number of local miss cache misses.
+    **/
+    public long getLocalMissCacheMisses()
+    {
+        return m_localMissCacheMisses.get();
+    }
+
     private Object searchImports(String pkgName, String name, boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
@@ -31,7 +31,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
@@ -63,6 +75,30 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.emptyMap();
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.emptyMap();
+    // Index of service listeners by the objectClass their filter requires.
+    private ServiceListenerIndex m_svcListenerIndex = ServiceListenerIndex.EMPTY;
+
+    // Service event dispatch counters.
+    private final AtomicLong m_svcEventCount = new AtomicLong();
+    private final AtomicLong m_svcListenersEvaluated = new AtomicLong();
+    private final AtomicLong m_svcListenersMatched = new AtomicLong();
+
+    // Asynchronous listener deliveries that are queued but not yet done.
+    private final AtomicInteger m_queueDepth = new AtomicInteger();
+    // Delivery statistics of asynchronous listeners, only kept if enabled.
+    private final boolean m_statisticsEnabled;
+    private final Map<ListenerInfo, ListenerStatistics> m_listenerStats =
+        new ConcurrentHashMap<>();
+
+    // If the parallelism is greater than one, asynchronous events are
+    // delivered by a dispatcher specific pool, where each listener has its
+    // own lane of events, instead of by the shared dispatch thread.
+    private final int m_parallelism;
+    private volatile ExecutorService m_laneExecutor = null;
+    private final Map<ListenerInfo, Lane> m_lanes = new ConcurrentHashMap<>();
+    // How long stopping waits for the lanes to deliver their queued events
+    // before the remaining deliveries are abandoned.
+    private static final long LANE_SHUTDOWN_TIMEOUT = 30000;
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -70,21 +106,61 @@ public class EventDispatcher
     private static int m_references = 0;
     private static volatile boolean m_stopping = false;
 
-    // List of requests.
-    private static final List<Request> m_requestList = new ArrayList<>();
-    // Pooled requests to avoid memory allocation.
-    private static final List<Request> m_requestPool = new ArrayList<>();
+    // Queue of requests, the dispatch thread waits on it for new requests.
+    private static final Queue<Request> m_requestList = new ConcurrentLinkedQueue<>();
 
     private static final SecureAction m_secureAction = new SecureAction();
 
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 1);
+    }
+
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int parallelism)
+    {
+        this(logger, registry, parallelism, false);
+    }
+
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int parallelism,
+        boolean statisticsEnabled)
     {
         m_logger = logger;
         m_registry = registry;
+        m_parallelism = parallelism;
+        m_statisticsEnabled = statisticsEnabled;
     }
 
     public void startDispatching()
     {
+        if (m_parallelism > 1)
+        {
+            synchronized (m_lanes)
+            {
+                if (m_laneExecutor == null)
+                {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                        m_parallelism, m_parallelism,
+                        60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory()
+                        {
+                            final AtomicInteger counter = new AtomicInteger();
+                            @Override
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread thread = new Thread(r,
+                                    "FelixDispatchQueue-" + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                    executor.allowCoreThreadTimeOut(true);
+                    m_laneExecutor = executor;
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -124,6 +200,41 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_parallelism > 1)
+        {
+            ExecutorService executor;
+            synchronized (m_lanes)
+            {
+                executor = m_laneExecutor;
+                m_laneExecutor = null;
+            }
+            if (executor != null)
+            {
+                // Let the lanes deliver the events that are already queued.
+                executor.shutdown();
+                try
+                {
+                    if (!executor.awaitTermination(LANE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+                    {
+                        // A listener does not return, so do not stall the
+                        // framework shutdown on it.
+                        executor.shutdownNow();
+                        m_logger.log(Logger.LOG_WARNING,
+                            "EventDispatcher: Listeners did not finish within "
+                            + LANE_SHUTDOWN_TIMEOUT + " ms, abandoned "
+                            + m_queueDepth.get() + " pending event deliveries.");
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+                m_lanes.clear();
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -259,6 +370,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = m_svcListenerIndex.add(info);
             }
         }
         return null;
@@ -311,6 +423,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removed = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -327,6 +440,7 @@ public class EventDispatcher
                         {
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
+                        removed = info;
                         idx = i;
                         break;
                     }
@@ -337,6 +451,8 @@ public class EventDispatcher
             if (idx >= 0)
             {
                 listeners = removeListenerInfo(listeners, bc, idx);
+                m_lanes.remove(removed);
+                m_listenerStats.remove(removed);
             }
 
             if (clazz == FrameworkListener.class)
@@ -357,6 +473,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex = m_svcListenerIndex.remove(removed);
             }
         }
 
@@ -374,6 +491,10 @@ public class EventDispatcher
 
         synchronized (this)
         {
+            // Forget the lanes and statistics of the asynchronous listeners.
+            forgetListenerInfos(m_fwkListeners.get(bc));
+            forgetListenerInfos(m_bndlListeners.get(bc));
+
             // Remove all framework listeners associated with the specified bundle.
             m_fwkListeners = removeListenerInfos(m_fwkListeners, bc);
 
@@ -385,10 +506,23 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
+            m_svcListenerIndex = m_svcListenerIndex.removeAll(m_svcListeners.get(bc));
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
     }
 
+    private void forgetListenerInfos(List<ListenerInfo> infos)
+    {
+        if (infos != null)
+        {
+            for (ListenerInfo info : infos)
+            {
+                m_lanes.remove(info);
+                m_listenerStats.remove(info);
+            }
+        }
+    }
+
     public Filter updateListener(BundleContext bc, Class<?> clazz, EventListener l, Filter filter)
     {
         if (clazz == ServiceListener.class)
@@ -426,6 +560,7 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex = m_svcListenerIndex.remove(info).add(newInfo);
                         return oldFilter;
                     }
                 }
@@ -532,17 +667,90 @@ public class EventDispatcher
     {
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
+        ServiceListenerIndex index = null;
         synchronized (this)
         {
             listeners = m_svcListeners;
+            index = m_svcListenerIndex;
         }
 
-        // Use service registry hooks to filter target listeners.
-        listeners = filterListenersUsingHooks(event, felix, listeners);
+        List<List<ListenerInfo>> candidates = null;
+        String[] objectClass = null;
+        if (m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventHook.class).isEmpty()
+            && m_registry.getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.EventListenerHook.class).isEmpty())
+        {
+            // Without hooks, only the listeners whose filter can possibly
+            // match the objectClass of the service need to be considered.
+            candidates = index.getCandidates(event.getServiceReference());
+        }
+
+        if (candidates == null)
+        {
+            // Use service registry hooks to filter target listeners.
+            listeners = filterListenersUsingHooks(event, felix, listeners);
+            candidates = new ArrayList<>(listeners.values());
+            // The hooks have seen all listeners, but we can still skip
+            // evaluating filters that cannot match the objectClass.
+            objectClass = ServiceListenerIndex.getObjectClass(event);
+        }
 
         // Fire all service events immediately on the calling thread.
         fireEventImmediately(
-            this, Request.SERVICE_EVENT, listeners, event, oldProps);
+            this, Request.SERVICE_EVENT, candidates, event, oldProps,
+            objectClass, index.size());
+    }
+
+    /**
+     * Returns the number of service events fired by this dispatcher.
+     * @return the number of service events fired by this dispatcher.
+    **/
+    public long getServiceEventCount()
+    {
+        return m_svcEventCount.get();
+    }
+
+    /**
+     * Returns the number of service listeners whose filter was evaluated
+     * for the service events fired by this dispatcher. Listeners that were
+     * excluded using the objectClass index are not counted.
+     * @return the number of service listeners evaluated.
+    **/
+    public long getServiceListenersEvaluated()
+    {
+        return m_svcListenersEvaluated.get();
+    }
+
+    /**
+     * Returns the number of service listeners that were called back for
+     * the service events fired by this dispatcher.
+     * @return the number of service listeners matched.
+    **/
+    public long getServiceListenersMatched()
+    {
+        return m_svcListenersMatched.get();
+    }
+
+    /**
+     * Returns the number of asynchronous listener callbacks of this
+     * dispatcher that are queued, but not yet completed.
+     * @return the number of pending asynchronous listener callbacks.
+    **/
+    public int getQueueDepth()
+    {
+        return m_queueDepth.get();
+    }
+
+    /**
+     * Returns the delivery statistics of the asynchronous framework and
+     * bundle listeners that received events from this dispatcher. The
+     * statistics are empty unless they are enabled for this dispatcher.
+     * @return the delivery statistics of the asynchronous listeners.
+    **/
+    public Collection<ListenerStatistics> getListenerStatistics()
+    {
+        return new ArrayList<>(m_listenerStats.values());
     }
 
 // TODO: OSGi R4.3 - This is ugly and inefficient.
@@ -768,43 +976,109 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
-        //TODO: should possibly check this within thread lock, seems to be ok though without
-        // If dispatch thread is stopped, then ignore dispatch request.
-        if (m_stopping || m_thread == null)
+        if (dispatcher.m_parallelism > 1)
         {
-            return;
-        }
-
-        // First get a request from the pool or create one if necessary.
-        Request req = null;
-        synchronized (m_requestPool)
-        {
-            if (m_requestPool.size() > 0)
+            ExecutorService executor = dispatcher.m_laneExecutor;
+            // If the lanes are stopped, then ignore dispatch request.
+            if (executor == null)
             {
-                req = m_requestPool.remove(0);
+                return;
             }
-            else
+            // Queue the event on the lane of each listener; each lane
+            // delivers its events in order.
+            for (List<ListenerInfo> infos : listeners.values())
             {
-                req = new Request();
+                for (ListenerInfo info : infos)
+                {
+                    Lane lane = dispatcher.m_lanes.get(info);
+                    if (lane == null)
+                    {
+                        Lane newLane = new Lane(dispatcher, type, info);
+                        lane = dispatcher.m_lanes.putIfAbsent(info, newLane);
+                        if (lane == null)
+                        {
+                            lane = newLane;
+                        }
+                    }
+                    dispatcher.m_queueDepth.incrementAndGet();
+                    lane.add(event, executor);
+                }
             }
+            return;
+        }
+
+        //TODO: should possibly check this within thread lock, seems to be ok though without
+        // If dispatch thread is stopped, then ignore dispatch request.
+        if (m_stopping || m_thread == null)
+        {
+            return;
         }
 
         // Initialize dispatch request.
+        Request req = new Request();
         req.m_dispatcher = dispatcher;
         req.m_type = type;
         req.m_listeners = listeners;
         req.m_event = event;
 
-        // Lock the request list.
+        for (List<ListenerInfo> infos : listeners.values())
+        {
+            dispatcher.m_queueDepth.addAndGet(infos.size());
+        }
+
+        // Add our request to the queue.
+        m_requestList.offer(req);
+
+        // Notify the dispatch thread that there is work to do.
         synchronized (m_requestList)
         {
-            // Add our request to the list.
-            m_requestList.add(req);
-            // Notify the dispatch thread that there is work to do.
             m_requestList.notify();
         }
     }
 
+    /**
+     * Delivers an event to an asynchronous listener and records the time
+     * the listener took if statistics are enabled.
+    **/
+    private static void deliverAsynchronously(
+        EventDispatcher dispatcher, int type, ListenerInfo info, EventObject event)
+    {
+        if (!dispatcher.m_statisticsEnabled)
+        {
+            try
+            {
+                invokeListener(dispatcher, type, info, event, null);
+            }
+            finally
+            {
+                dispatcher.m_queueDepth.decrementAndGet();
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            invokeListener(dispatcher, type, info, event, null);
+        }
+        finally
+        {
+            long duration = System.nanoTime() - start;
+            dispatcher.m_queueDepth.decrementAndGet();
+            ListenerStatistics stats = dispatcher.m_listenerStats.get(info);
+            if (stats == null)
+            {
+                ListenerStatistics newStats = new ListenerStatistics(info);
+                stats = dispatcher.m_listenerStats.putIfAbsent(info, newStats);
+                if (stats == null)
+                {
+                    stats = newStats;
+                }
+            }
+            stats.record(duration);
+        }
+    }
+
     private static void fireEventImmediately(
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
@@ -812,47 +1086,96 @@ public class EventDispatcher
     {
         if (!listeners.isEmpty())
         {
-            // Notify appropriate listeners.
-            for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+            fireEventImmediately(dispatcher, type, listeners.values(),
+                event, oldProps, null, -1);
+        }
+    }
+
+    private static void fireEventImmediately(
+        EventDispatcher dispatcher, int type,
+        Collection<List<ListenerInfo>> listeners,
+        EventObject event, Dictionary<String,?> oldProps,
+        String[] objectClass, int total)
+    {
+        int evaluated = 0;
+        int matched = 0;
+
+        // Notify appropriate listeners.
+        for (List<ListenerInfo> infos : listeners)
+        {
+            for (ListenerInfo info : infos)
             {
-                for (ListenerInfo info : entry.getValue())
+                if (type == Request.SERVICE_EVENT)
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
-
-                    try
+                    // Skip listeners whose filter requires an objectClass
+                    // the service does not have.
+                    if (!ServiceListenerIndex.isCandidate(info, objectClass))
                     {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
-                    }
-                    catch (Throwable th)
-                    {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
-                        {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
-                        }
+                        continue;
                     }
+                    evaluated++;
+                }
+                if (invokeListener(dispatcher, type, info, event, oldProps))
+                {
+                    matched++;
                 }
             }
         }
+
+        if (type == Request.SERVICE_EVENT)
+        {
+            dispatcher.m_svcEventCount.incrementAndGet();
+            dispatcher.m_svcListenersEvaluated.addAndGet(evaluated);
+            dispatcher.m_svcListenersMatched.addAndGet(matched);
+            if (dispatcher.m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+            {
+                dispatcher.m_logger.log(
+                    ((ServiceEvent) event).getServiceReference(), Logger.LOG_DEBUG,
+                    "EventDispatcher: Service event " + ((ServiceEvent) event).getType()
+                    + " evaluated " + evaluated + " of " + total
+                    + " listeners, matched " + matched + ".");
+            }
+        }
+    }
+
+    private static boolean invokeListener(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary<String,?> oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                return invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+            }
+        }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
+        return false;
     }
 
     private static void invokeFrameworkListenerCallback(
@@ -916,7 +1239,7 @@ public class EventDispatcher
         }
     }
 
-    private static void invokeServiceListenerCallback(
+    private static boolean invokeServiceListenerCallback(
         Bundle bundle, final EventListener l, Filter filter, Object acc,
         final EventObject event, final Dictionary<String,?> oldProps)
     {
@@ -926,7 +1249,7 @@ public class EventDispatcher
             (bundle.getState() != Bundle.STOPPING) &&
             (bundle.getState() != Bundle.ACTIVE))
         {
-            return;
+            return false;
         }
 
         // Check that the bundle has permission to get at least
@@ -988,6 +1311,7 @@ public class EventDispatcher
                     {
                         ((ServiceListener) l).serviceChanged((ServiceEvent) event);
                     }
+                    return true;
                 }
             }
             // We need to send an MODIFIED_ENDMATCH event if the listener
@@ -1015,9 +1339,11 @@ public class EventDispatcher
                     {
                         ((ServiceListener) l).serviceChanged(se);
                     }
+                    return true;
                 }
             }
         }
+        return false;
     }
 
     private static Map<BundleContext, List<ListenerInfo>> addListenerInfo(
@@ -1103,60 +1429,202 @@ public class EventDispatcher
     **/
     private static void run()
     {
-        Request req = null;
         while (true)
         {
-            // Lock the request list so we can try to get a
-            // dispatch request from it.
-            synchronized (m_requestList)
-            {
-                // Wait while there are no requests to dispatch. If the
-                // dispatcher thread is supposed to stop, then let the
-                // dispatcher thread exit the loop and stop.
-                while (m_requestList.isEmpty() && !m_stopping)
+            // Get the next dispatch request; the queue itself is lock free,
+            // we only lock it to wait for new requests.
+            Request req = m_requestList.poll();
+            if (req == null)
+            {
+                synchronized (m_requestList)
                 {
-                    // Wait until some signals us for work.
-                    try
+                    // Wait while there are no requests to dispatch. If the
+                    // dispatcher thread is supposed to stop, then let the
+                    // dispatcher thread exit the loop and stop.
+                    while (m_requestList.isEmpty() && !m_stopping)
                     {
-                        m_requestList.wait();
+                        // Wait until some signals us for work.
+                        try
+                        {
+                            m_requestList.wait();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            // Not much we can do here except for keep waiting.
+                        }
                     }
-                    catch (InterruptedException ex)
+
+                    // If there are no events to dispatch and shutdown
+                    // has been called then exit, otherwise dispatch event.
+                    if (m_requestList.isEmpty() && m_stopping)
                     {
-                        // Not much we can do here except for keep waiting.
+                        return;
                     }
                 }
+                continue;
+            }
+
+            // NOTE: We don't catch any exceptions here, because
+            // the invoked method shields us from exceptions by
+            // catching Throwables when it invokes callbacks.
+            for (List<ListenerInfo> infos : req.m_listeners.values())
+            {
+                for (ListenerInfo info : infos)
+                {
+                    deliverAsynchronously(req.m_dispatcher, req.m_type, info, req.m_event);
+                }
+            }
+        }
+    }
+
+    /**
+     * An ordered lane of events for a single asynchronous listener. A lane
+     * is scheduled on the executor when an event is added to an idle lane
+     * and delivers its events one after the other, so that a listener never
+     * receives events concurrently or out of order, while a slow listener
+     * does not delay the delivery to other listeners.
+    **/
+    private static class Lane implements Runnable
+    {
+        // Maximum number of events a lane delivers before it yields its
+        // thread to other lanes.
+        private static final int BATCH_SIZE = 64;
 
-                // If there are no events to dispatch and shutdown
-                // has been called then exit, otherwise dispatch event.
-                if (m_requestList.isEmpty() && m_stopping)
+        private final EventDispatcher m_dispatcher;
+        private final int m_type;
+        private final ListenerInfo m_info;
+        private final Queue<EventObject> m_events = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean m_scheduled = new AtomicBoolean();
+
+        Lane(EventDispatcher dispatcher, int type, ListenerInfo info)
+        {
+            m_dispatcher = dispatcher;
+            m_type = type;
+            m_info = info;
+        }
+
+        void add(EventObject event, ExecutorService executor)
+        {
+            m_events.offer(event);
+            schedule(executor);
+        }
+
+        private void schedule(ExecutorService executor)
+        {
+            if (m_scheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
                 {
-                    return;
+                    // The dispatcher is stopping, so deliver the remaining
+                    // events on the current thread.
+                    run();
                 }
+            }
+        }
 
-                // Get the dispatch request.
-                req = m_requestList.remove(0);
+        @Override
+        public void run()
+        {
+            for (int i = 0; i < BATCH_SIZE; i++)
+            {
+                EventObject event = m_events.poll();
+                if (event == null)
+                {
+                    break;
+                }
+                deliverAsynchronously(m_dispatcher, m_type, m_info, event);
             }
+            m_scheduled.set(false);
+            // Events might have been added after we stopped polling.
+            if (!m_events.isEmpty())
+            {
+                ExecutorService executor = m_dispatcher.m_laneExecutor;
+                if (executor != null)
+                {
+                    schedule(executor);
+                }
+                else if (m_scheduled.compareAndSet(false, true))
+                {
+                    // The dispatcher was stopped, so drain the lane here.
+                    EventObject event;
+                    while ((event = m_events.poll()) != null)
+                    {
+                        deliverAsynchronously(m_dispatcher, m_type, m_info, event);
+                    }
+                    m_scheduled.set(false);
+                }
+            }
+        }
+    }
 
-            // Deliver event outside of synchronized block
-            // so that we don't block other requests from being
-            // queued during event processing.
-            // NOTE: We don't catch any exceptions here, because
-            // the invoked method shields us from exceptions by
-            // catching Throwables when it invokes callbacks.
-            fireEventImmediately(
-                req.m_dispatcher, req.m_type, req.m_listeners,
-                req.m_event, null);
+    /**
+     * Delivery statistics of an asynchronous listener.
+    **/
+    public static class ListenerStatistics
+    {
+        private final ListenerInfo m_info;
+        private final AtomicLong m_count = new AtomicLong();
+        private final AtomicLong m_totalTime = new AtomicLong();
+        private final AtomicLong m_maxTime = new AtomicLong();
 
-            // Put dispatch request in cache.
-            synchronized (m_requestPool)
+        ListenerStatistics(ListenerInfo info)
+        {
+            m_info = info;
+        }
+
+        void record(long duration)
+        {
+            m_count.incrementAndGet();
+            m_totalTime.addAndGet(duration);
+            long max = m_maxTime.get();
+            while ((duration > max) && !m_maxTime.compareAndSet(max, duration))
             {
-                req.m_dispatcher = null;
-                req.m_type = -1;
-                req.m_listeners = null;
-                req.m_event = null;
-                m_requestPool.add(req);
+                max = m_maxTime.get();
             }
         }
+
+        public Bundle getBundle()
+        {
+            return m_info.getBundle();
+        }
+
+        public EventListener getListener()
+        {
+            return m_info.getListener();
+        }
+
+        /**
+         * Returns the number of events delivered to the listener.
+         * @return the number of events delivered to the listener.
+        **/
+        public long getDeliveryCount()
+        {
+            return m_count.get();
+        }
+
+        /**
+         * Returns the total time in nanoseconds the listener took to process
+         * its events.
+         * @return the total time in nanoseconds spent in the listener.
+        **/
+        public long getTotalTime()
+        {
+            return m_totalTime.get();
+        }
+
+        /**
+         * Returns the longest time in nanoseconds the listener took to
+         * process a single event.
+         * @return the maximum time in nanoseconds spent in the listener.
+        **/
+        public long getMaxTime()
+        {
+            return m_maxTime.get();
+        }
     }
 
     private static class Request
@@ -475,6 +475,17 @@ class ExtensionManager implements Content
         m_unresolvedExtensions.add(bri);
     }
 
+    /**
+     * Removes an extension bundle that was added but not resolved yet; this
+     * is used to roll back a batch of bundles that failed to install.
+     *
+     * @param bundle the extension bundle to remove.
+     */
+    void removeExtensionBundle(BundleImpl bundle)
+    {
+        m_unresolvedExtensions.remove(bundle.adapt(BundleRevisionImpl.class));
+    }
+
     public synchronized List<Bundle> resolveExtensionBundles(Felix felix)
     {
         if (m_unresolvedExtensions.isEmpty())
@@ -28,6 +28,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLStreamHandler;
@@ -53,6 +54,15 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -60,10 +70,12 @@ import org.apache.felix.framework.BundleWiringImpl.BundleClassLoader;
 import org.apache.felix.framework.ServiceRegistry.ServiceRegistryCallbacks;
 import org.apache.felix.framework.cache.BundleArchive;
 import org.apache.felix.framework.cache.BundleCache;
+import org.apache.felix.framework.ext.BundleInstaller;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.ext.SecurityProvider;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.InternPool;
 import org.apache.felix.framework.util.ListenerInfo;
 import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.util.SecureAction;
@@ -71,6 +83,7 @@ import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.ThreadGate;
 import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.NativeLibraryClause;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.osgi.framework.AdminPermission;
@@ -106,7 +119,10 @@ import org.osgi.framework.wiring.BundleRevisions;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.framework.wiring.FrameworkWiring;
+import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
 import org.osgi.service.packageadmin.ExportedPackage;
 import org.osgi.service.resolver.ResolutionException;
 
@@ -121,6 +137,8 @@ public class Felix extends BundleImpl implements Framework
     // Framework wiring object.
     private final FrameworkWiringImpl m_fwkWiring;
     private final FrameworkStartLevelImpl m_fwkStartLevel;
+    // Bundle installer used when adapting the system bundle.
+    private final BundleInstallerImpl m_bundleInstaller;
 
     // Logging related member variables.
     private final Logger m_logger;
@@ -208,6 +226,9 @@ public class Felix extends BundleImpl implements Framework
     // Shutdown gate.
     private volatile ThreadGate m_shutdownGate = null;
 
+    // Startup profiler, if enabled.
+    private volatile StartupProfiler m_profiler = null;
+
     // Security Manager created by the framework
     private SecurityManager m_securityManager = null;
 
@@ -460,12 +481,17 @@ public class Felix extends BundleImpl implements Framework
         }
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        m_dispatcher = new EventDispatcher(m_logger, m_registry,
+            getEventDispatchParallelism(),
+            "true".equalsIgnoreCase(
+                (String) m_configMap.get(FelixConstants.EVENT_DISPATCH_STATISTICS)));
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
         // Create framework start level object.
         m_fwkStartLevel = new FrameworkStartLevelImpl(this, m_registry);
+        // Create bundle installer object.
+        m_bundleInstaller = new BundleInstallerImpl(this, this);
 
         m_connectFramework = connectFramework;
     }
@@ -560,6 +586,14 @@ public class Felix extends BundleImpl implements Framework
         {
             return (A) m_fwkStartLevel;
         }
+        else if (type == StartupProfiler.class)
+        {
+            return (A) m_profiler;
+        }
+        else if (type == BundleInstaller.class)
+        {
+            return (A) m_bundleInstaller;
+        }
         return super.adapt(type);
     }
 
@@ -662,6 +696,10 @@ public class Felix extends BundleImpl implements Framework
         {
             if ((getState() == Bundle.INSTALLED) || (getState() == Bundle.RESOLVED))
             {
+                StartupProfiler profiler = m_profiler = isStartupProfilerEnabled()
+                    ? new StartupProfiler() : null;
+                long begin = (profiler != null) ? System.nanoTime() : 0L;
+
                 String security = (String) m_configMap.get(Constants.FRAMEWORK_SECURITY);
                 if (security != null)
                 {
@@ -810,6 +848,8 @@ public class Felix extends BundleImpl implements Framework
 
                 boolean javaVersionChanged = handleJavaVersionChange();
 
+                long reloadBegin = (profiler != null) ? System.nanoTime() : 0L;
+
                 // Now load all cached bundles.
                 for (int i = 0; (archives != null) && (i < archives.length); i++)
                 {
@@ -832,8 +872,15 @@ public class Felix extends BundleImpl implements Framework
                         // Otherwise re-install the cached bundle.
                         else
                         {
+                            long installBegin = (profiler != null) ? System.nanoTime() : 0L;
+
                             // Install the cached bundle.
-                            reloadBundle(archives[i], javaVersionChanged);
+                            Bundle bundle = reloadBundle(archives[i], javaVersionChanged);
+
+                            if (profiler != null)
+                            {
+                                profiler.record(StartupProfiler.INSTALL, bundle, installBegin);
+                            }
                         }
                     }
                     catch (Exception ex)
@@ -857,6 +904,11 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
+                if (profiler != null)
+                {
+                    profiler.record(StartupProfiler.CACHE_RELOAD, this, reloadBegin);
+                }
+
                 for (Bundle extension : m_extensionManager.resolveExtensionBundles(this))
                 {
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
@@ -956,6 +1008,9 @@ public class Felix extends BundleImpl implements Framework
                 m_extensionManager.startPendingExtensionBundles(Felix.this);
                 m_fwkWiring.refreshBundles(null);
 
+                // Restore the wiring of the last run, if it is still valid.
+                restoreResolverSnapshot();
+
                 // Clear the cache of classes coming from the system bundle.
                 // This is only used for Felix.getBundle(Class clazz) to speed
                 // up class lookup for the system bundle.
@@ -963,6 +1018,11 @@ public class Felix extends BundleImpl implements Framework
                 {
                     m_systemBundleClassCache.clear();
                 }
+
+                if (profiler != null)
+                {
+                    profiler.record(StartupProfiler.FRAMEWORK_INIT, this, begin);
+                }
             }
         }
         catch (Throwable t)
@@ -1101,6 +1161,7 @@ public class Felix extends BundleImpl implements Framework
     public void start() throws BundleException
     {
         int startLevel = FelixConstants.FRAMEWORK_DEFAULT_STARTLEVEL;
+        long begin = System.nanoTime();
 
         acquireBundleLock(this,
             Bundle.INSTALLED | Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE);
@@ -1110,6 +1171,7 @@ public class Felix extends BundleImpl implements Framework
             if ((getState() == Bundle.INSTALLED) || (getState() == Bundle.RESOLVED))
             {
                 init();
+                begin = System.nanoTime();
             }
 
             // If the current state is STARTING, then the system bundle can be started.
@@ -1145,6 +1207,22 @@ public class Felix extends BundleImpl implements Framework
 
         // Send a framework event to indicate the framework has started.
         fireFrameworkEvent(FrameworkEvent.STARTED, this, null);
+
+        if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+        {
+            InternPool internPool = ManifestParser.getInternPool();
+            m_logger.log(Logger.LOG_DEBUG,
+                "Manifest parsing shared " + internPool.getDuplicateCount()
+                + " duplicate values, saving about " + internPool.getSavedBytes() / 1024
+                + " KB of heap.");
+        }
+
+        StartupProfiler profiler = m_profiler;
+        if (profiler != null)
+        {
+            profiler.record(StartupProfiler.FRAMEWORK_START, this, begin);
+            writeStartupProfile(profiler);
+        }
     }
 
     @Override
@@ -1484,9 +1562,20 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
+            // Bundles of the same start level may be started concurrently
+            // if configured; stopping is always sequential.
+            ExecutorService executor = (!isLowering)
+                ? createStartLevelExecutor(getStartLevelParallelism()) : null;
+
             // Process bundles and stop or start them accordingly.
             while (bundlesRemaining)
             {
+                if (executor != null)
+                {
+                    bundlesRemaining = startLevelBundlesInParallel(executor, low, high);
+                    continue;
+                }
+
                 StartLevelTuple tuple;
 
                 // Remove our tuple to be processed while holding the queue lock
@@ -1514,90 +1603,10 @@ public class Felix extends BundleImpl implements Framework
                 // Ignore the system bundle, since its start() and
                 // stop() methods get called explicitly in Felix.start()
                 // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
+                if ((tuple.m_bundle.getBundleId() != 0)
+                    && !processStartLevelTuple(tuple, isLowering))
                 {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
-                    {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
-                        {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
-                        }
-                        else
-                        {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
-                        }
-                        continue;
-                    }
-
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                    }
-                    finally
-                    {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
-                    }
+                    continue;
                 }
 
                 synchronized (m_startLevelBundles)
@@ -1607,6 +1616,11 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            if (executor != null)
+            {
+                executor.shutdown();
+            }
+
             m_activeStartLevel = m_targetStartLevel;
         }
 
@@ -1634,6 +1648,274 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops the bundle of the specified start level tuple as
+     * required by the active start level. This method is called by the start
+     * level thread or, if bundles are started concurrently, by one of its
+     * worker threads.
+     * @param tuple The start level tuple to process.
+     * @param isLowering Whether the active start level is being lowered.
+     * @return <tt>false</tt> if the bundle could not be locked and must be
+     *         processed again, <tt>true</tt> otherwise.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                m_logger.log(tuple.m_bundle,
+                    Logger.LOG_ERROR,
+                    "Error locking " + tuple.m_bundle._getLocation(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering
+                && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options, true);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+        return true;
+    }
+
+    /**
+     * Starts all queued bundles of the lowest queued start level on the
+     * specified executor and waits for them to complete. Bundles are
+     * submitted in bundle identifier order, so with a parallelism of
+     * <tt>n</tt> a bundle never starts before more than <tt>n - 1</tt>
+     * bundles with a lower identifier. Once done, a per-bundle timing
+     * report for the start level is logged.
+     * @param executor The executor running the start level worker threads.
+     * @param low The lowest start level being processed.
+     * @param high The highest start level being processed.
+     * @return <tt>true</tt> if bundles remain to be processed,
+     *         <tt>false</tt> otherwise.
+    **/
+    private boolean startLevelBundlesInParallel(
+        ExecutorService executor, int low, int high)
+    {
+        List<StartLevelTuple> batch = new ArrayList<>();
+        int level;
+        synchronized (m_startLevelBundles)
+        {
+            level = m_startLevelBundles.first().m_level;
+            for (StartLevelTuple tuple : m_startLevelBundles)
+            {
+                if (tuple.m_level != level)
+                {
+                    break;
+                }
+                batch.add(tuple);
+            }
+
+            if ((level >= low) && (level <= high))
+            {
+                m_activeStartLevel = level;
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Future<Long>> futures = new ArrayList<>(batch.size());
+        for (final StartLevelTuple tuple : batch)
+        {
+            // Ignore the system bundle, since its start() method
+            // gets called explicitly in Felix.start().
+            if (tuple.m_bundle.getBundleId() == 0)
+            {
+                futures.add(null);
+                continue;
+            }
+            futures.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call()
+                {
+                    long time = System.nanoTime();
+                    return processStartLevelTuple(tuple, false)
+                        ? System.nanoTime() - time : -1L;
+                }
+            }));
+        }
+
+        // Wait for the whole start level to complete before moving on;
+        // tuples that could not be processed remain queued and are
+        // retried with the next batch.
+        boolean interrupted = false;
+        List<StartLevelTuple> processed = new ArrayList<>(batch.size());
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++)
+        {
+            StartLevelTuple tuple = batch.get(i);
+            Future<Long> future = futures.get(i);
+            long time = 0;
+            while (future != null)
+            {
+                try
+                {
+                    time = future.get();
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), ex.getCause());
+                    break;
+                }
+            }
+            if (time >= 0)
+            {
+                processed.add(tuple);
+            }
+            if (future != null)
+            {
+                report.append("\n  ").append(tuple.m_bundle).append(": ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(Math.max(time, 0))).append(" ms");
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (report.length() > 0)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Start level " + level + " processed in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms:"
+                + report);
+        }
+
+        synchronized (m_startLevelBundles)
+        {
+            m_startLevelBundles.removeAll(processed);
+            return !m_startLevelBundles.isEmpty();
+        }
+    }
+
+    /**
+     * Creates the executor used to start bundles of the same start level
+     * concurrently.
+     * @param parallelism The number of bundles to start concurrently.
+     * @return The executor or <tt>null</tt> if bundles should be started
+     *         sequentially by the start level thread.
+    **/
+    private static ExecutorService createStartLevelExecutor(int parallelism)
+    {
+        if (parallelism <= 1)
+        {
+            return null;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism, parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.THREAD_NAME + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the executor used to write the archives of a batch of bundles
+     * concurrently.
+     * @param parallelism The number of archives to write concurrently.
+     * @return The executor.
+    **/
+    private static ExecutorService createInstallExecutor(int parallelism)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism, parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "FelixBundleInstaller");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -1659,6 +1941,54 @@ public class Felix extends BundleImpl implements Framework
         return FelixConstants.BUNDLE_DEFAULT_STARTLEVEL;
     }
 
+    /**
+     * Returns the number of bundles of the same start level that are started
+     * concurrently when raising the active start level; if not greater than
+     * one, bundles are started one at a time.
+     * @return The configured start level parallelism.
+    **/
+    private int getStartLevelParallelism()
+    {
+        String s = (String) m_configMap.get(FelixConstants.STARTLEVEL_PARALLELISM);
+
+        if (s != null)
+        {
+            try
+            {
+                return Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and return the default value.
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the number of threads used to deliver asynchronous events; if
+     * greater than one, each listener receives its events in its own lane
+     * on a pool of that many threads.
+     * @return The configured event dispatch parallelism.
+    **/
+    private int getEventDispatchParallelism()
+    {
+        String s = (String) m_configMap.get(FelixConstants.EVENT_DISPATCH_PARALLELISM);
+
+        if (s != null)
+        {
+            try
+            {
+                return Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Ignore and return the default value.
+            }
+        }
+        return 1;
+    }
+
     /**
      * Sets the default start level into which newly installed bundles
      * will be placed; this method implements functionality for the Start
@@ -2121,6 +2451,19 @@ public class Felix extends BundleImpl implements Framework
      * Implementation for Bundle.start().
     **/
     void startBundle(BundleImpl bundle, int options) throws BundleException
+    {
+        startBundle(bundle, options, false);
+    }
+
+    /**
+     * Starts the specified bundle.
+     * @param bundle The bundle to start.
+     * @param options The start options.
+     * @param isStartLevelTask Whether the start is issued while processing a
+     *        start level change, in which case it is never queued.
+    **/
+    private void startBundle(BundleImpl bundle, int options, boolean isStartLevelTask)
+        throws BundleException
     {
         // CONCURRENCY NOTE:
         // We will first acquire the bundle lock for the specific bundle
@@ -2131,6 +2474,8 @@ public class Felix extends BundleImpl implements Framework
 
         int eventType;
         boolean isTransient = (options & Bundle.START_TRANSIENT) != 0;
+        StartupProfiler profiler = m_profiler;
+        long begin = (profiler != null) ? System.nanoTime() : 0L;
 
         // Acquire bundle lock.
         try
@@ -2216,9 +2561,10 @@ public class Felix extends BundleImpl implements Framework
             // so queue this bundle to the start level bundle queue for the start
             // level thread and return, except for transient starts which are
             // queued but processed synchronously.
-            // Note: Don't queue starts from the start level thread, otherwise
-            // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            // Note: Don't queue starts from the start level thread or its
+            // workers, otherwise we'd never get anything started.
+            if (!isStartLevelTask
+                && !Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2356,6 +2702,11 @@ public class Felix extends BundleImpl implements Framework
             releaseBundleLock(bundle);
         }
 
+        if (profiler != null)
+        {
+            profiler.record(StartupProfiler.START, bundle, begin);
+        }
+
         // If there was no exception, then we should fire the STARTED
         // or LAZY_ACTIVATION event here without holding the lock. Otherwise,
         // fire STOPPED and rethrow exception.
@@ -2427,8 +2778,16 @@ public class Felix extends BundleImpl implements Framework
                 // Activate the bundle if it has an activator.
                 if (bundle.getActivator() != null)
                 {
+                    StartupProfiler profiler = m_profiler;
+                    long begin = (profiler != null) ? System.nanoTime() : 0L;
+
                     m_secureAction.startActivator(
                         bundle.getActivator(), bundle._getBundleContext());
+
+                    if (profiler != null)
+                    {
+                        profiler.record(StartupProfiler.ACTIVATOR, bundle, begin);
+                    }
                 }
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
@@ -3228,6 +3587,8 @@ public class Felix extends BundleImpl implements Framework
     {
         BundleArchive ba = null;
         BundleImpl existing, bundle = null;
+        StartupProfiler profiler = m_profiler;
+        long begin = (profiler != null) ? System.nanoTime() : 0L;
 
         // Acquire an install lock.
         acquireInstallLock(location);
@@ -3273,99 +3634,8 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
-                try
-                {
-                    // Acquire the global lock to create the bundle,
-                    // since this impacts the global state.
-                    boolean locked = acquireGlobalLock();
-                    if (!locked)
-                    {
-                        throw new BundleException(
-                            "Unable to acquire the global lock to install the bundle.");
-                    }
-                    try
-                    {
-                        bundle = new BundleImpl(this, origin, ba);
-                    }
-                    finally
-                    {
-                        // Always release the global lock.
-                        releaseGlobalLock();
-                    }
-
-                    if (!bundle.isExtension())
-                    {
-                        Object sm = System.getSecurityManager();
-                        if (sm != null)
-                        {
-                            ((SecurityManager) sm).checkPermission(
-                                new AdminPermission(bundle, AdminPermission.LIFECYCLE));
-                        }
-                    }
-                    else
-                    {
-                        m_extensionManager.addExtensionBundle(bundle);
-                    }
-                }
-                catch (Throwable ex)
-                {
-                    // Remove bundle from the cache.
-                    try
-                    {
-                        if (bundle != null)
-                        {
-                            bundle.closeAndDelete();
-                        }
-                        else if (ba != null)
-                        {
-                            ba.closeAndDelete();
-                        }
-                    }
-                    catch (Exception ex1)
-                    {
-                        m_logger.log(bundle,
-                            Logger.LOG_ERROR,
-                            "Could not remove from cache.", ex1);
-                    }
-                    if (ex instanceof BundleException)
-                    {
-                        throw (BundleException) ex;
-                    }
-                    else if (ex instanceof AccessControlException)
-                    {
-                        throw (AccessControlException) ex;
-                    }
-                    else
-                    {
-                        throw new BundleException("Could not create bundle object.", ex);
-                    }
-                }
-
-                // Acquire global lock.
-                boolean locked = acquireGlobalLock();
-                if (!locked)
-                {
-                    // If the calling thread holds bundle locks, then we might not
-                    // be able to get the global lock.
-                    throw new IllegalStateException(
-                        "Unable to acquire global lock to add bundle.");
-                }
-                try
-                {
-                    // Use a copy-on-write approach to add the bundle
-                    // to the installed maps.
-                    Map[] maps = new Map[] {
-                        new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                        new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                    };
-                    maps[LOCATION_MAP_IDX].put(location, bundle);
-                    maps[IDENTIFIER_MAP_IDX].put(Long.valueOf(bundle.getBundleId()), bundle);
-                    m_installedBundles = maps;
-                }
-                finally
-                {
-                    releaseGlobalLock();
-                }
+                bundle = createBundles(origin, Collections.singletonList(ba)).get(0);
+                addInstalledBundles(Collections.singletonList(bundle));
 
                 for (Bundle extension : m_extensionManager.resolveExtensionBundles(this))
                 {
@@ -3392,6 +3662,11 @@ public class Felix extends BundleImpl implements Framework
             }
         }
 
+        if ((profiler != null) && (existing == null))
+        {
+            profiler.record(StartupProfiler.INSTALL, bundle, begin);
+        }
+
         if (existing != null)
         {
             Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
@@ -3448,6 +3723,376 @@ public class Felix extends BundleImpl implements Framework
         return (existing != null) ? existing : bundle;
     }
 
+    /**
+     * Installs a batch of bundles. This is equivalent to installing each of
+     * the bundles with {@link #installBundle(Bundle, String, InputStream)},
+     * except that the archives of the new bundles are written concurrently,
+     * the new bundles are added to the framework at once, their INSTALLED
+     * events are fired back-to-back once the whole batch is installed and
+     * they are resolved in a single resolve. If any of the new bundles fails
+     * to install, none of them is installed.
+     * @param origin The bundle installing the batch.
+     * @param bundles The locations of the bundles mapped to their content.
+     * @return The bundles in the iteration order of the given map.
+     * @throws BundleException If a bundle cannot be installed.
+    **/
+    List<Bundle> installBundles(Bundle origin, Map<String, InputStream> bundles)
+        throws BundleException
+    {
+        StartupProfiler profiler = m_profiler;
+        long begin = (profiler != null) ? System.nanoTime() : 0L;
+
+        // Acquire the install locks in a fixed order, so that concurrent
+        // batches cannot deadlock on each other.
+        Set<String> locations = new TreeSet<>(bundles.keySet());
+        List<String> locked = new ArrayList<>(locations.size());
+        List<BundleImpl> installed = Collections.emptyList();
+        boolean done = false;
+
+        try
+        {
+            for (String location : locations)
+            {
+                acquireInstallLock(location);
+                locked.add(location);
+            }
+
+            // Check to see if the framework is still running;
+            if ((getState() == Bundle.STOPPING) ||
+                (getState() == Bundle.UNINSTALLED))
+            {
+                throw new BundleException("The framework has been shutdown.");
+            }
+
+            // Locations that are already installed are left to the regular
+            // install below, which returns the existing bundles. The new
+            // bundles get their ids in the iteration order of the given map.
+            List<String> newLocations = new ArrayList<>(locations.size());
+            for (String location : bundles.keySet())
+            {
+                if (getBundle(location) == null)
+                {
+                    newLocations.add(location);
+                }
+            }
+
+            if (!newLocations.isEmpty())
+            {
+                installed = installNewBundles(origin, newLocations, bundles);
+
+                for (Bundle extension : m_extensionManager.resolveExtensionBundles(this))
+                {
+                    m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
+                }
+            }
+            done = true;
+        }
+        finally
+        {
+            // Always release install locks.
+            for (String location : locked)
+            {
+                releaseInstallLock(location);
+            }
+
+            if (!done)
+            {
+                closeInputStreams(bundles.values());
+            }
+        }
+
+        // Fire the events of the whole batch together.
+        Map<String, Bundle> result = new HashMap<>(bundles.size());
+        for (BundleImpl bundle : installed)
+        {
+            if (profiler != null)
+            {
+                profiler.record(StartupProfiler.INSTALL, bundle, begin);
+            }
+            fireBundleEvent(BundleEvent.INSTALLED, bundle, origin);
+            result.put(bundle._getLocation(), bundle);
+        }
+
+        for (Entry<String, InputStream> entry : bundles.entrySet())
+        {
+            if (!result.containsKey(entry.getKey()))
+            {
+                result.put(entry.getKey(),
+                    installBundle(origin, entry.getKey(), entry.getValue()));
+            }
+        }
+
+        if (!installed.isEmpty())
+        {
+            resolveBundles(new ArrayList<Bundle>(installed));
+        }
+
+        List<Bundle> list = new ArrayList<>(bundles.size());
+        for (String location : bundles.keySet())
+        {
+            list.add(result.get(location));
+        }
+        return list;
+    }
+
+    /**
+     * Installs the bundles of a batch whose locations are not installed yet;
+     * the caller must hold the install locks of the locations.
+    **/
+    private List<BundleImpl> installNewBundles(
+        Bundle origin, List<String> locations, final Map<String, InputStream> streams)
+        throws BundleException
+    {
+        // Reserve the identifiers of the whole batch and write the
+        // archives concurrently.
+        final long firstId = getNextIds(locations.size());
+        final int startLevel = getInitialBundleStartLevel();
+        int parallelism = Math.min(locations.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = createInstallExecutor(parallelism);
+        List<Future<BundleArchive>> futures = new ArrayList<>(locations.size());
+        try
+        {
+            for (int i = 0; i < locations.size(); i++)
+            {
+                final long id = firstId + i;
+                final String location = locations.get(i);
+                Callable<BundleArchive> task = new Callable<BundleArchive>()
+                {
+                    @Override
+                    public BundleArchive call() throws Exception
+                    {
+                        InputStream is = streams.get(location);
+                        try
+                        {
+                            return m_cache.create(
+                                id, startLevel, location, is, m_connectFramework);
+                        }
+                        finally
+                        {
+                            closeInputStreams(Collections.singleton(is));
+                        }
+                    }
+                };
+                futures.add(executor.submit(task));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        // Wait for all archives, even if some of them fail, so that the
+        // ones that were created can be removed again.
+        boolean interrupted = false;
+        List<BundleArchive> archives = new ArrayList<>(locations.size());
+        BundleException failure = null;
+        for (int i = 0; i < futures.size(); i++)
+        {
+            Future<BundleArchive> future = futures.get(i);
+            while (true)
+            {
+                try
+                {
+                    archives.add(future.get());
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    if (failure == null)
+                    {
+                        failure = new BundleException(
+                            "Unable to cache bundle: " + locations.get(i), ex.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null)
+        {
+            removeFromCache(archives, Collections.<BundleImpl>emptyList());
+            throw failure;
+        }
+
+        List<BundleImpl> bundles = createBundles(origin, archives);
+        addInstalledBundles(bundles);
+        return bundles;
+    }
+
+    /**
+     * Creates the bundles of the given archives and checks the permission
+     * to install them before adding the extension bundles among them. If
+     * any of them fails, all of the archives are removed from the cache;
+     * the caller must hold the install locks of their locations.
+    **/
+    private List<BundleImpl> createBundles(Bundle origin, List<BundleArchive> archives)
+        throws BundleException
+    {
+        List<BundleImpl> bundles = new ArrayList<>(archives.size());
+        List<BundleImpl> extensions = new ArrayList<>();
+        try
+        {
+            // Acquire the global lock to create the bundles,
+            // since this impacts the global state.
+            boolean locked = acquireGlobalLock();
+            if (!locked)
+            {
+                throw new BundleException(
+                    "Unable to acquire the global lock to install the bundle.");
+            }
+            try
+            {
+                for (BundleArchive ba : archives)
+                {
+                    // The bundles of the batch created so far are not
+                    // installed yet, but must not collide either.
+                    bundles.add(new BundleImpl(this, origin, ba, bundles));
+                }
+            }
+            finally
+            {
+                // Always release the global lock.
+                releaseGlobalLock();
+            }
+
+            Object sm = System.getSecurityManager();
+            for (BundleImpl bundle : bundles)
+            {
+                if (!bundle.isExtension() && (sm != null))
+                {
+                    ((SecurityManager) sm).checkPermission(
+                        new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+                }
+            }
+            for (BundleImpl bundle : bundles)
+            {
+                if (bundle.isExtension())
+                {
+                    m_extensionManager.addExtensionBundle(bundle);
+                    extensions.add(bundle);
+                }
+            }
+        }
+        catch (Throwable ex)
+        {
+            for (BundleImpl extension : extensions)
+            {
+                m_extensionManager.removeExtensionBundle(extension);
+            }
+            removeFromCache(archives, bundles);
+            if (ex instanceof BundleException)
+            {
+                throw (BundleException) ex;
+            }
+            else if (ex instanceof AccessControlException)
+            {
+                throw (AccessControlException) ex;
+            }
+            else
+            {
+                throw new BundleException("Could not create bundle object.", ex);
+            }
+        }
+        return bundles;
+    }
+
+    /**
+     * Removes the given archives from the cache, through their bundle if it
+     * was created already; the bundles are in the order of their archives.
+    **/
+    private void removeFromCache(List<BundleArchive> archives, List<BundleImpl> bundles)
+    {
+        for (int i = 0; i < archives.size(); i++)
+        {
+            BundleImpl bundle = (i < bundles.size()) ? bundles.get(i) : null;
+            try
+            {
+                if (bundle != null)
+                {
+                    bundle.closeAndDelete();
+                }
+                else
+                {
+                    archives.get(i).closeAndDelete();
+                }
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "Could not remove from cache.", ex);
+            }
+        }
+    }
+
+    /**
+     * Adds the given bundles to the installed maps.
+    **/
+    @SuppressWarnings("unchecked")
+    private void addInstalledBundles(List<BundleImpl> bundles)
+    {
+        // Acquire global lock.
+        boolean locked = acquireGlobalLock();
+        if (!locked)
+        {
+            // If the calling thread holds bundle locks, then we might not
+            // be able to get the global lock.
+            throw new IllegalStateException(
+                "Unable to acquire global lock to add bundle.");
+        }
+        try
+        {
+            // Use a copy-on-write approach to add the bundles
+            // to the installed maps.
+            Map<String, BundleImpl> locations =
+                new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]);
+            Map<Long, BundleImpl> ids =
+                new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX]);
+            for (BundleImpl bundle : bundles)
+            {
+                locations.put(bundle._getLocation(), bundle);
+                ids.put(Long.valueOf(bundle.getBundleId()), bundle);
+            }
+            Map<?, ?>[] maps = new Map<?, ?>[2];
+            maps[LOCATION_MAP_IDX] = locations;
+            maps[IDENTIFIER_MAP_IDX] = ids;
+            m_installedBundles = maps;
+        }
+        finally
+        {
+            releaseGlobalLock();
+        }
+    }
+
+    /**
+     * Closes the given input streams, logging rather than throwing
+     * exceptions.
+    **/
+    void closeInputStreams(Collection<InputStream> streams)
+    {
+        for (InputStream is : streams)
+        {
+            try
+            {
+                if (is != null) is.close();
+            }
+            catch (IOException ex)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Unable to close input stream.", ex);
+            }
+        }
+    }
+
     /**
      * Retrieves a bundle from its location.
      *
@@ -3804,6 +4449,12 @@ public class Felix extends BundleImpl implements Framework
 
         reg = m_registry.registerService(context.getBundle(), classNames, svcObj, dict);
 
+        StartupProfiler profiler = m_profiler;
+        if (profiler != null)
+        {
+            profiler.serviceRegistered(context.getBundle());
+        }
+
         // Check to see if this a listener hook; if so, then we need
         // to invoke the callback with all existing service listeners.
         if (HookRegistry.isHook(
@@ -3865,6 +4516,18 @@ public class Felix extends BundleImpl implements Framework
             }
         }
 
+        // Lookups for a single object class are answered from the ranking
+        // ordered references the registry maintains per object class, as
+        // long as no find hooks need to see the candidates.
+        final String objectClass = (className != null)
+            ? className : ServiceListenerIndex.getRequiredObjectClass(filter);
+        if ((objectClass != null)
+            && getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.FindHook.class).isEmpty())
+        {
+            return getSortedServiceReferences(bundle, objectClass, filter, checkAssignable);
+        }
+
         // Ask the service registry for all matching service references.
         final Collection<ServiceReference<?>> refList = m_registry.getServiceReferences(className, filter);
 
@@ -3928,6 +4591,92 @@ public class Felix extends BundleImpl implements Framework
         return null;
     }
 
+    /**
+     * Returns the references of the services registered under the specified
+     * object class that match the filter, best ranked first.
+     * @param bundle Calling Bundle
+     * @param objectClass the object class of the services
+     * @param filter Filter Criteria or <code>null</code>
+     * @param checkAssignable <code>true</code> to check for isAssignable
+     * @return Array of ServiceReference objects that meet the criteria or <code>null</code>
+     */
+    private ServiceReference<?>[] getSortedServiceReferences(
+        final BundleImpl bundle, final String objectClass,
+        final SimpleFilter filter, final boolean checkAssignable)
+    {
+        final ServiceReference<?>[] refs = m_registry.getSortedServiceReferences(objectClass);
+        ServiceReference<?>[] result = null;
+        int count = 0;
+        for (int i = 0; i < refs.length; i++)
+        {
+            if (((filter == null) || CapabilitySet.matches((Capability) refs[i], filter))
+                && (!checkAssignable || Util.isServiceAssignable(bundle, refs[i])))
+            {
+                if (result == null)
+                {
+                    result = new ServiceReference<?>[refs.length - i];
+                }
+                result[count++] = refs[i];
+            }
+        }
+        if ((result != null) && (count < result.length))
+        {
+            ServiceReference<?>[] tmp = new ServiceReference<?>[count];
+            System.arraycopy(result, 0, tmp, 0, count);
+            result = tmp;
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the best {@link ServiceReference} for the specified service
+     * class name, i.e., the one with the highest ranking and, among those,
+     * the lowest service id. Unless find hooks or a security manager need to
+     * filter the references, the best reference is looked up directly
+     * without allocating.
+     * @param bundle Calling Bundle
+     * @param className Service Classname or <code>null</code> for all
+     * @return The best ServiceReference or <code>null</code>
+     * @throws InvalidSyntaxException
+     */
+    ServiceReference<?> getServiceReference(BundleImpl bundle, String className)
+        throws InvalidSyntaxException
+    {
+        if ((className != null)
+            && (System.getSecurityManager() == null)
+            && getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.FindHook.class).isEmpty())
+        {
+            for (ServiceReference<?> ref : m_registry.getSortedServiceReferences(className))
+            {
+                if (Util.isServiceAssignable(bundle, ref))
+                {
+                    return ref;
+                }
+            }
+            return null;
+        }
+
+        ServiceReference<?>[] refs = getAllowedServiceReferences(bundle, className, null, true);
+        if (refs == null)
+        {
+            return null;
+        }
+
+        // Loop through all service references and return
+        // the "best" one according to its rank and ID.
+        ServiceReference<?> bestRef = refs[0];
+        for (int i = 1; i < refs.length; i++)
+        {
+            if (bestRef.compareTo(refs[i]) < 0)
+            {
+                bestRef = refs[i];
+            }
+        }
+
+        return bestRef;
+    }
+
     /**
      * Retrieves Array of {@link ServiceReference} objects based on calling bundle, service class name,
      * optional filter expression, and optionally filters further on the version.
@@ -5042,7 +5791,195 @@ public class Felix extends BundleImpl implements Framework
         return -1;
     }
 
+    /**
+     * Returns the startup profiler of the current framework session.
+     * @return the startup profiler or <tt>null</tt> if profiling is disabled.
+    **/
+    StartupProfiler getStartupProfiler()
+    {
+        return m_profiler;
+    }
+
+    private boolean isStartupProfilerEnabled()
+    {
+        return "true".equalsIgnoreCase(
+                (String) m_configMap.get(FelixConstants.STARTUP_PROFILE_PROP))
+            || (m_configMap.get(FelixConstants.STARTUP_PROFILE_FILE_PROP) != null);
+    }
+
+    private void writeStartupProfile(StartupProfiler profiler)
+    {
+        String path = (String) m_configMap.get(FelixConstants.STARTUP_PROFILE_FILE_PROP);
+        if (path == null)
+        {
+            return;
+        }
+
+        Writer writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                m_secureAction.getFileOutputStream(new File(path)), "UTF-8"));
+            profiler.writeChromeTrace(writer);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to write startup profile.", ex);
+        }
+        finally
+        {
+            try
+            {
+                if (writer != null) writer.close();
+            }
+            catch (IOException ex)
+            {
+                // Not much else we can do.
+            }
+        }
+    }
+
+    private boolean isResolverSnapshotEnabled()
+    {
+        return "true".equalsIgnoreCase(
+            (String) m_configMap.get(FelixConstants.RESOLVER_SNAPSHOT_PROP));
+    }
+
+    private List<BundleImpl> getInstalledBundles()
+    {
+        List<BundleImpl> bundles = new ArrayList<>();
+        for (Bundle bundle : getBundles())
+        {
+            bundles.add((BundleImpl) bundle);
+        }
+        return bundles;
+    }
+
+    /**
+     * Hands the resolver state snapshot written when the framework was
+     * last stopped to the resolver, if there is one and it still matches
+     * the installed bundles. The resolver applies it on demand, after
+     * consulting the resolver hooks registered by then. The snapshot is
+     * deleted in any case, since it is only valid for the first start after
+     * it was written. It is not used if there is a security manager.
+    **/
+    private void restoreResolverSnapshot()
+    {
+        File file;
+        try
+        {
+            file = m_cache.getSystemBundleDataFile(ResolverStateSnapshot.SNAPSHOT_FILE);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to access resolver snapshot.", ex);
+            return;
+        }
+        if (!m_secureAction.isFile(file))
+        {
+            return;
+        }
+
+        Map<Resource, List<Wire>> wireMap = null;
+        if (isResolverSnapshotEnabled() && (System.getSecurityManager() == null))
+        {
+            InputStream is = null;
+            try
+            {
+                is = m_secureAction.getInputStream(file);
+                wireMap = ResolverStateSnapshot.read(getInstalledBundles(), is);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Unable to read resolver snapshot.", ex);
+            }
+            finally
+            {
+                try
+                {
+                    if (is != null) is.close();
+                }
+                catch (IOException ex)
+                {
+                    // Not much we can do.
+                }
+            }
+        }
+        m_secureAction.deleteFile(file);
+
+        if (wireMap == null)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Resolver snapshot does not match the installed bundles.");
+            return;
+        }
+
+        m_resolver.setSnapshotWiring(wireMap);
+        m_logger.log(Logger.LOG_DEBUG,
+            "Restored the wiring of " + wireMap.size()
+            + " bundle revisions from the resolver snapshot.");
+    }
+
+    /**
+     * Writes the current wiring to the resolver state snapshot, if enabled.
+     * This must be called after all bundles have been stopped and pending
+     * removals have been refreshed, but before the bundles are closed.
+    **/
+    private void saveResolverSnapshot()
+    {
+        if (!isResolverSnapshotEnabled())
+        {
+            return;
+        }
+
+        File file = null;
+        OutputStream os = null;
+        boolean written = false;
+        try
+        {
+            file = m_cache.getSystemBundleDataFile(ResolverStateSnapshot.SNAPSHOT_FILE);
+            os = m_secureAction.getOutputStream(file);
+            written = ResolverStateSnapshot.write(getInstalledBundles(), os);
+            if (!written)
+            {
+                m_logger.log(Logger.LOG_INFO,
+                    "Resolver snapshot not saved, since the wiring refers to bundle"
+                    + " revisions that are no longer current.");
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to save resolver snapshot.", ex);
+        }
+        finally
+        {
+            try
+            {
+                if (os != null) os.close();
+            }
+            catch (IOException ex)
+            {
+                written = false;
+            }
+        }
+        if (!written && (file != null))
+        {
+            m_secureAction.deleteFile(file);
+        }
+    }
+
     private long getNextId()
+    {
+        return getNextIds(1);
+    }
+
+    /**
+     * Reserves a range of consecutive bundle identifiers, saving the next
+     * free identifier only once for the whole range.
+     * @param count The number of identifiers to reserve.
+     * @return The first identifier of the range.
+    **/
+    private long getNextIds(int count)
     {
         synchronized (m_nextIdLock)
         {
@@ -5050,7 +5987,7 @@ public class Felix extends BundleImpl implements Framework
             long id = m_nextId;
 
             // Increment the next id.
-            m_nextId++;
+            m_nextId += count;
 
             // Write the bundle state.
             OutputStream os = null;
@@ -5201,6 +6138,9 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
+            // Record the wiring for the next start before it is discarded.
+            saveResolverSnapshot();
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (Bundle bundle : bundles) {
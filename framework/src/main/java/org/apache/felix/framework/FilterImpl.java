@@ -51,6 +51,11 @@ public class FilterImpl implements Filter
         }
     }
 
+    SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
+    }
+
     @Override
 	public boolean match(ServiceReference<?> sr)
     {
@@ -0,0 +1,376 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * Persists the wiring of the resolved bundles when the framework stops, so
+ * that the next start can apply it directly instead of resolving the same
+ * bundles again. The snapshot records, for every resolved bundle, the
+ * identity of its current revision and a fingerprint of its declared
+ * capabilities and requirements, plus its required wires expressed as
+ * indices into the declared capabilities and requirements of the involved
+ * revisions. It is only applied if all recorded revisions are still the
+ * current, unresolved revisions of their bundles with identical
+ * fingerprints, including the system bundle, and if every wire still
+ * satisfies its requirement; otherwise the framework resolves as usual.
+ * The snapshot is protected by a checksum and is discarded after it has
+ * been read, so a framework that does not stop cleanly will not reuse it.
+**/
+class ResolverStateSnapshot
+{
+    static final String SNAPSHOT_FILE = "resolver.snapshot";
+
+    private static final int MAGIC = 0x46525353;
+    private static final int FORMAT_VERSION = 1;
+
+    private ResolverStateSnapshot()
+    {
+        // Only static methods.
+    }
+
+    /**
+     * Writes the wiring of the specified bundles to the specified stream.
+     * @param bundles the installed bundles, including the system bundle.
+     * @param os the stream to write to.
+     * @return <tt>false</tt> if the current wiring cannot be represented by
+     *         a snapshot, in which case nothing was written.
+     * @throws IOException if the snapshot could not be written.
+    **/
+    static boolean write(Collection<BundleImpl> bundles, OutputStream os)
+        throws IOException
+    {
+        // Assign an index to every revision that can be part of a snapshot.
+        Map<BundleRevision, Integer> indices = new IdentityHashMap<>();
+        List<BundleRevision> revisions = new ArrayList<>();
+        List<BundleRevision> resolved = new ArrayList<>();
+        for (BundleImpl bundle : bundles)
+        {
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            if ((revision == null) || ((bundle.getBundleId() != 0) && bundle.isExtension()))
+            {
+                continue;
+            }
+            indices.put(revision, revisions.size());
+            revisions.add(revision);
+            if ((bundle.getBundleId() != 0) && (revision.getWiring() != null))
+            {
+                resolved.add(revision);
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+
+        out.writeInt(revisions.size());
+        for (BundleRevision revision : revisions)
+        {
+            BundleImpl bundle = (BundleImpl) revision.getBundle();
+            out.writeLong(bundle.getBundleId());
+            out.writeUTF(((BundleRevisionImpl) revision).getId());
+            out.writeUTF(bundle._getLocation());
+            out.writeLong(getLastModified(bundle));
+            out.writeInt(fingerprint(revision));
+        }
+
+        Map<BundleRevision, Map<Object, Integer>> declared = new IdentityHashMap<>();
+        out.writeInt(resolved.size());
+        for (BundleRevision revision : resolved)
+        {
+            BundleWiring wiring = revision.getWiring();
+            List<BundleWire> wires = new ArrayList<>();
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                // Dynamic wires are created on demand, so do not record them.
+                if (!FelixConstants.RESOLUTION_DYNAMIC.equals(
+                    wire.getRequirement().getDirectives().get(Constants.RESOLUTION_DIRECTIVE)))
+                {
+                    wires.add(wire);
+                }
+            }
+
+            out.writeInt(indices.get(revision));
+            out.writeInt(wires.size());
+            for (BundleWire wire : wires)
+            {
+                BundleRequirement req = wire.getRequirement();
+                BundleCapability cap = wire.getCapability();
+                Integer reqOwner = indices.get(req.getRevision());
+                Integer provider = indices.get(wire.getProvider());
+                Integer capOwner = indices.get(cap.getRevision());
+                Integer reqIdx = (reqOwner == null)
+                    ? null : getDeclaredIndex(declared, req.getRevision(), req);
+                Integer capIdx = (capOwner == null)
+                    ? null : getDeclaredIndex(declared, cap.getRevision(), cap);
+                if ((wire.getRequirer() != revision) || (provider == null)
+                    || (reqIdx == null) || (capIdx == null))
+                {
+                    // The wire involves a revision that is no longer current,
+                    // such as a revision pending removal.
+                    return false;
+                }
+                out.writeInt(reqOwner);
+                out.writeInt(reqIdx);
+                out.writeInt(provider);
+                out.writeInt(capOwner);
+                out.writeInt(capIdx);
+            }
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(baos.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        baos.writeTo(os);
+        return true;
+    }
+
+    /**
+     * Reads a snapshot from the specified stream and converts it into a
+     * wire map for the current revisions of the specified bundles.
+     * @param bundles the installed bundles, including the system bundle.
+     * @param is the stream to read from.
+     * @return the wire map or <tt>null</tt> if the snapshot does not match
+     *         the installed bundles.
+     * @throws IOException if the snapshot could not be read.
+    **/
+    static Map<Resource, List<Wire>> read(Collection<BundleImpl> bundles, InputStream is)
+        throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int count = is.read(buffer); count >= 0; count = is.read(buffer))
+        {
+            baos.write(buffer, 0, count);
+        }
+        byte[] bytes = baos.toByteArray();
+        if (bytes.length < 16)
+        {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(bytes.length - 8);
+        if (in.readLong() != crc.getValue())
+        {
+            return null;
+        }
+
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION))
+        {
+            return null;
+        }
+
+        Map<Long, BundleImpl> bundleMap = new HashMap<>();
+        for (BundleImpl bundle : bundles)
+        {
+            bundleMap.put(bundle.getBundleId(), bundle);
+        }
+
+        BundleRevision[] revisions = new BundleRevision[in.readInt()];
+        for (int i = 0; i < revisions.length; i++)
+        {
+            BundleImpl bundle = bundleMap.get(in.readLong());
+            String revisionId = in.readUTF();
+            String location = in.readUTF();
+            long lastModified = in.readLong();
+            int fingerprint = in.readInt();
+            BundleRevision revision = (bundle != null)
+                ? bundle.adapt(BundleRevision.class) : null;
+            if ((revision == null)
+                || !revisionId.equals(((BundleRevisionImpl) revision).getId())
+                || !location.equals(bundle._getLocation())
+                || (lastModified != getLastModified(bundle))
+                || (fingerprint != fingerprint(revision)))
+            {
+                return null;
+            }
+            revisions[i] = revision;
+        }
+
+        Map<Resource, List<Wire>> wireMap = new LinkedHashMap<>();
+        int resolvedCount = in.readInt();
+        for (int i = 0; i < resolvedCount; i++)
+        {
+            BundleRevision requirer = revisions[in.readInt()];
+            if ((requirer.getWiring() != null) || wireMap.containsKey(requirer))
+            {
+                return null;
+            }
+            int wireCount = in.readInt();
+            List<Wire> wires = new ArrayList<>(wireCount);
+            for (int j = 0; j < wireCount; j++)
+            {
+                BundleRequirement req = getDeclared(
+                    revisions[in.readInt()].getDeclaredRequirements(null), in.readInt());
+                BundleRevision provider = revisions[in.readInt()];
+                BundleCapability cap = getDeclared(
+                    revisions[in.readInt()].getDeclaredCapabilities(null), in.readInt());
+                if ((req == null) || (cap == null)
+                    || !req.getNamespace().equals(cap.getNamespace())
+                    || ((req instanceof BundleRequirementImpl)
+                        && !CapabilitySet.matches(cap, ((BundleRequirementImpl) req).getFilter())))
+                {
+                    return null;
+                }
+                wires.add(new BundleWireImpl(requirer, req, provider, cap));
+            }
+            wireMap.put(requirer, wires);
+        }
+
+        // All providers must either be resolved already or be resolved
+        // by this snapshot.
+        for (List<Wire> wires : wireMap.values())
+        {
+            for (Wire wire : wires)
+            {
+                BundleRevision provider = (BundleRevision) wire.getProvider();
+                if ((provider.getWiring() == null) && !wireMap.containsKey(provider))
+                {
+                    return null;
+                }
+            }
+        }
+
+        return wireMap;
+    }
+
+    private static int fingerprint(BundleRevision revision)
+    {
+        int hash = 1;
+        for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+        {
+            hash = 31 * hash + cap.getNamespace().hashCode();
+            hash = 31 * hash + hash(cap.getAttributes());
+            hash = 31 * hash + hash(cap.getDirectives());
+        }
+        for (BundleRequirement req : revision.getDeclaredRequirements(null))
+        {
+            hash = 31 * hash + req.getNamespace().hashCode();
+            hash = 31 * hash + hash(req.getAttributes());
+            hash = 31 * hash + hash(req.getDirectives());
+        }
+        return hash;
+    }
+
+    /**
+     * Computes a hash of the specified attributes or directives that only
+     * depends on their content, unlike the hash code of arrays. The
+     * framework UUID, which the native capability of the system bundle
+     * carries, is left out since it changes with every launch.
+    **/
+    private static int hash(Map<String, ?> map)
+    {
+        int hash = 0;
+        for (Map.Entry<String, ?> entry : map.entrySet())
+        {
+            if (Constants.FRAMEWORK_UUID.equals(entry.getKey()))
+            {
+                continue;
+            }
+            Object value = entry.getValue();
+            int valueHash = (value instanceof Object[])
+                ? Arrays.deepHashCode((Object[]) value)
+                : String.valueOf(value).hashCode();
+            hash += entry.getKey().hashCode() ^ valueHash;
+        }
+        return hash;
+    }
+
+    private static long getLastModified(BundleImpl bundle) throws IOException
+    {
+        BundleArchive archive = bundle.getArchive();
+        if (archive == null)
+        {
+            return 0;
+        }
+        try
+        {
+            return archive.getLastModified();
+        }
+        catch (Exception ex)
+        {
+            throw new IOException("Unable to get last modified time of " + bundle, ex);
+        }
+    }
+
+    private static Integer getDeclaredIndex(
+        Map<BundleRevision, Map<Object, Integer>> declared,
+        BundleRevision owner, Object capOrReq)
+    {
+        Map<Object, Integer> ownerIndices = declared.get(owner);
+        if (ownerIndices == null)
+        {
+            ownerIndices = new IdentityHashMap<>();
+            List<BundleCapability> caps = owner.getDeclaredCapabilities(null);
+            for (int i = 0; i < caps.size(); i++)
+            {
+                ownerIndices.put(caps.get(i), i);
+            }
+            List<BundleRequirement> reqs = owner.getDeclaredRequirements(null);
+            for (int i = 0; i < reqs.size(); i++)
+            {
+                ownerIndices.put(reqs.get(i), i);
+            }
+            declared.put(owner, ownerIndices);
+        }
+        return ownerIndices.get(capOrReq);
+    }
+
+    private static <T> T getDeclared(List<T> declared, int idx)
+    {
+        return ((idx >= 0) && (idx < declared.size())) ? declared.get(idx) : null;
+    }
+}
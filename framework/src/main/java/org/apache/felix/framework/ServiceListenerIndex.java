@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ListenerInfo;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * An immutable index of service listeners keyed on the <tt>objectClass</tt>
+ * value their filter requires. A listener is indexed if its filter is an
+ * equality test on <tt>objectClass</tt>, or a conjunction containing one;
+ * all other listeners (no filter, unfiltered listeners, or filters without
+ * a top-level <tt>objectClass</tt> term) are kept in a fallback bucket that
+ * is always a candidate. Since the <tt>objectClass</tt> of a service can
+ * never change, a listener that is not a candidate for an event can neither
+ * match the current nor the previous properties of the service.
+ * <p>
+ * Like the listener maps in the <tt>EventDispatcher</tt>, instances are
+ * never modified; all mutators return a modified copy.
+**/
+class ServiceListenerIndex
+{
+    static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(
+        Collections.<String, List<ListenerInfo>>emptyMap(),
+        Collections.<ListenerInfo>emptyList(), 0);
+
+    private final Map<String, List<ListenerInfo>> m_index;
+    private final List<ListenerInfo> m_unindexed;
+    private final int m_size;
+
+    private ServiceListenerIndex(
+        Map<String, List<ListenerInfo>> index, List<ListenerInfo> unindexed, int size)
+    {
+        m_index = index;
+        m_unindexed = unindexed;
+        m_size = size;
+    }
+
+    /**
+     * Returns the total number of listeners in this index.
+     * @return the total number of listeners in this index.
+    **/
+    int size()
+    {
+        return m_size;
+    }
+
+    ServiceListenerIndex add(ListenerInfo info)
+    {
+        String key = getIndexKey(info);
+        if (key == null)
+        {
+            List<ListenerInfo> unindexed = new ArrayList<>(m_unindexed.size() + 1);
+            unindexed.addAll(m_unindexed);
+            unindexed.add(info);
+            return new ServiceListenerIndex(m_index, unindexed, m_size + 1);
+        }
+
+        Map<String, List<ListenerInfo>> index = new HashMap<>(m_index);
+        List<ListenerInfo> infos = index.get(key);
+        infos = (infos == null) ? new ArrayList<ListenerInfo>(1) : new ArrayList<>(infos);
+        infos.add(info);
+        index.put(key, infos);
+        return new ServiceListenerIndex(index, m_unindexed, m_size + 1);
+    }
+
+    ServiceListenerIndex remove(ListenerInfo info)
+    {
+        if (info == null)
+        {
+            return this;
+        }
+        return removeAll(Collections.singletonList(info));
+    }
+
+    ServiceListenerIndex removeAll(Collection<ListenerInfo> infos)
+    {
+        if ((infos == null) || infos.isEmpty())
+        {
+            return this;
+        }
+
+        // Group the listeners to remove by bucket, so that each affected
+        // bucket is only copied once.
+        Map<String, Set<ListenerInfo>> toRemove = new HashMap<>();
+        Set<ListenerInfo> unindexedToRemove = null;
+        for (ListenerInfo info : infos)
+        {
+            String key = getIndexKey(info);
+            if (key == null)
+            {
+                if (unindexedToRemove == null)
+                {
+                    unindexedToRemove = Collections.newSetFromMap(
+                        new IdentityHashMap<ListenerInfo, Boolean>());
+                }
+                unindexedToRemove.add(info);
+            }
+            else
+            {
+                Set<ListenerInfo> bucket = toRemove.get(key);
+                if (bucket == null)
+                {
+                    bucket = Collections.newSetFromMap(
+                        new IdentityHashMap<ListenerInfo, Boolean>());
+                    toRemove.put(key, bucket);
+                }
+                bucket.add(info);
+            }
+        }
+
+        int removed = 0;
+
+        List<ListenerInfo> unindexed = m_unindexed;
+        if (unindexedToRemove != null)
+        {
+            unindexed = copyWithout(m_unindexed, unindexedToRemove);
+            removed += m_unindexed.size() - unindexed.size();
+        }
+
+        Map<String, List<ListenerInfo>> index = m_index;
+        if (!toRemove.isEmpty())
+        {
+            index = new HashMap<>(m_index);
+            for (Map.Entry<String, Set<ListenerInfo>> entry : toRemove.entrySet())
+            {
+                List<ListenerInfo> bucket = index.get(entry.getKey());
+                if (bucket != null)
+                {
+                    List<ListenerInfo> copy = copyWithout(bucket, entry.getValue());
+                    removed += bucket.size() - copy.size();
+                    if (copy.isEmpty())
+                    {
+                        index.remove(entry.getKey());
+                    }
+                    else
+                    {
+                        index.put(entry.getKey(), copy);
+                    }
+                }
+            }
+        }
+
+        return (removed == 0)
+            ? this
+            : new ServiceListenerIndex(index, unindexed, m_size - removed);
+    }
+
+    /**
+     * Returns the listener lists that are candidates for the specified
+     * service reference, i.e., the fallback bucket plus the bucket for
+     * each of the service's object classes. The returned lists must not
+     * be modified.
+     * @param ref the service reference of the event.
+     * @return the candidate listener lists or <tt>null</tt> if the service
+     *         reference has no <tt>objectClass</tt> and all listeners must be
+     *         considered.
+    **/
+    List<List<ListenerInfo>> getCandidates(ServiceReference<?> ref)
+    {
+        String[] objectClass = getObjectClass(ref);
+        if (objectClass == null)
+        {
+            return null;
+        }
+
+        List<List<ListenerInfo>> candidates = new ArrayList<>(objectClass.length + 1);
+        if (!m_unindexed.isEmpty())
+        {
+            candidates.add(m_unindexed);
+        }
+        for (String clazz : objectClass)
+        {
+            List<ListenerInfo> infos = m_index.get(clazz);
+            if ((infos != null) && !containsIdentical(candidates, infos))
+            {
+                candidates.add(infos);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Determines whether the specified listener may match an event for a
+     * service with the specified object classes.
+     * @param info the listener.
+     * @param objectClass the object classes of the service or <tt>null</tt>
+     *        if all listeners are candidates.
+     * @return <tt>false</tt> if the listener filter cannot possibly match the
+     *         service, <tt>true</tt> otherwise.
+    **/
+    static boolean isCandidate(ListenerInfo info, String[] objectClass)
+    {
+        if (objectClass == null)
+        {
+            return true;
+        }
+        String key = getIndexKey(info);
+        if (key == null)
+        {
+            return true;
+        }
+        for (String clazz : objectClass)
+        {
+            if (key.equals(clazz))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String[] getObjectClass(ServiceEvent event)
+    {
+        return getObjectClass(event.getServiceReference());
+    }
+
+    private static String[] getObjectClass(ServiceReference<?> ref)
+    {
+        Object objectClass = (ref != null) ? ref.getProperty(Constants.OBJECTCLASS) : null;
+        return (objectClass instanceof String[]) ? (String[]) objectClass : null;
+    }
+
+    /**
+     * Returns the <tt>objectClass</tt> value required by the listener's
+     * filter or <tt>null</tt> if the listener cannot be indexed.
+    **/
+    static String getIndexKey(ListenerInfo info)
+    {
+        if (info.getListener() instanceof UnfilteredServiceListener)
+        {
+            // Unfiltered listeners receive all events regardless of their filter.
+            return null;
+        }
+        Filter filter = info.getParsedFilter();
+        if (!(filter instanceof FilterImpl))
+        {
+            return null;
+        }
+        return getRequiredObjectClass(((FilterImpl) filter).getSimpleFilter());
+    }
+
+    /**
+     * Returns the <tt>objectClass</tt> value the specified filter requires,
+     * i.e., the value of an equality test on <tt>objectClass</tt> that is
+     * the filter itself or part of its top-level conjunction.
+     * @param sf the filter or <tt>null</tt>.
+     * @return the required object class or <tt>null</tt> if there is none.
+    **/
+    static String getRequiredObjectClass(SimpleFilter sf)
+    {
+        if (sf == null)
+        {
+            return null;
+        }
+        String key = getObjectClassTerm(sf);
+        if ((key == null) && (sf.getOperation() == SimpleFilter.AND))
+        {
+            for (SimpleFilter child : (List<SimpleFilter>) sf.getValue())
+            {
+                key = getObjectClassTerm(child);
+                if (key != null)
+                {
+                    break;
+                }
+            }
+        }
+        return key;
+    }
+
+    private static String getObjectClassTerm(SimpleFilter sf)
+    {
+        if ((sf.getOperation() == SimpleFilter.EQ)
+            && Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+            && (sf.getValue() instanceof String))
+        {
+            return (String) sf.getValue();
+        }
+        return null;
+    }
+
+    private static boolean containsIdentical(
+        List<List<ListenerInfo>> candidates, List<ListenerInfo> infos)
+    {
+        for (List<ListenerInfo> candidate : candidates)
+        {
+            if (candidate == infos)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ListenerInfo> copyWithout(
+        List<ListenerInfo> infos, Set<ListenerInfo> toRemove)
+    {
+        List<ListenerInfo> copy = new ArrayList<>(infos.size());
+        for (ListenerInfo info : infos)
+        {
+            if (!toRemove.contains(info))
+            {
+                copy.add(info);
+            }
+        }
+        return copy;
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
@@ -44,6 +45,8 @@ import org.osgi.resource.Capability;
 
 public class ServiceRegistry
 {
+    private static final ServiceReference<?>[] EMPTY_REFS = new ServiceReference<?>[0];
+
     private final Logger m_logger;
 
     /** Counter for the service id */
@@ -55,6 +58,11 @@ public class ServiceRegistry
     // Capability set for all service registrations.
     private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
 
+    // Maps each object class to the references of the services registered
+    // under it, best ranked first. Arrays are never modified; they are
+    // replaced while holding the map's lock on each modification.
+    private final ConcurrentMap<String, ServiceReference<?>[]> m_sortedRefs = new ConcurrentHashMap<>();
+
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<>();
 
@@ -136,6 +144,7 @@ public class ServiceRegistry
             regs.add(reg);
         }
         m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
+        addSortedReference(reg.getReference());
 
         return reg;
     }
@@ -163,6 +172,7 @@ public class ServiceRegistry
             }
         }
         m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+        removeSortedReference(reg.getReference());
 
         // Notify callback objects about unregistering service.
         if (m_callbacks != null)
@@ -274,6 +284,110 @@ public class ServiceRegistry
         return  m_regCapSet.match(filter, false).stream().filter(ServiceReference.class::isInstance).map(s->((ServiceReference<?>)s)).collect(Collectors.toSet());
     }
 
+    /**
+     * Returns the references of all services registered under the specified
+     * object class, ordered by service ranking and service id such that the
+     * best reference comes first. The returned array is shared and must not
+     * be modified.
+     * @param className the object class of the services.
+     * @return the sorted references, which may be empty but never <tt>null</tt>.
+     */
+    public ServiceReference<?>[] getSortedServiceReferences(final String className)
+    {
+        final ServiceReference<?>[] refs = m_sortedRefs.get(className);
+        return (refs != null) ? refs : EMPTY_REFS;
+    }
+
+    private void addSortedReference(final ServiceReference<?> ref)
+    {
+        synchronized (m_sortedRefs)
+        {
+            for (final String className : (String[]) ref.getProperty(Constants.OBJECTCLASS))
+            {
+                final ServiceReference<?>[] refs = getSortedServiceReferences(className);
+                int idx = 0;
+                while ((idx < refs.length) && (refs[idx].compareTo(ref) > 0))
+                {
+                    idx++;
+                }
+                final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length + 1];
+                System.arraycopy(refs, 0, newRefs, 0, idx);
+                newRefs[idx] = ref;
+                System.arraycopy(refs, idx, newRefs, idx + 1, refs.length - idx);
+                m_sortedRefs.put(className, newRefs);
+            }
+        }
+    }
+
+    private void removeSortedReference(final ServiceReference<?> ref)
+    {
+        synchronized (m_sortedRefs)
+        {
+            for (final String className : (String[]) ref.getProperty(Constants.OBJECTCLASS))
+            {
+                final ServiceReference<?>[] refs = getSortedServiceReferences(className);
+                for (int idx = 0; idx < refs.length; idx++)
+                {
+                    if (refs[idx] == ref)
+                    {
+                        if (refs.length == 1)
+                        {
+                            m_sortedRefs.remove(className);
+                        }
+                        else
+                        {
+                            final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length - 1];
+                            System.arraycopy(refs, 0, newRefs, 0, idx);
+                            System.arraycopy(refs, idx + 1, newRefs, idx, refs.length - idx - 1);
+                            m_sortedRefs.put(className, newRefs);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the specified reference to the position matching its current
+     * ranking. The sorted references of each object class are replaced in
+     * one step, so readers never see them without the reference. Does
+     * nothing if the reference has been unregistered concurrently.
+     * @param ref the reference whose properties were modified.
+     */
+    private void resortReference(final ServiceReference<?> ref)
+    {
+        synchronized (m_sortedRefs)
+        {
+            for (final String className : (String[]) ref.getProperty(Constants.OBJECTCLASS))
+            {
+                final ServiceReference<?>[] refs = getSortedServiceReferences(className);
+                if (!Arrays.asList(refs).contains(ref))
+                {
+                    return;
+                }
+                final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length];
+                int idx = 0;
+                for (final ServiceReference<?> other : refs)
+                {
+                    if ((other != ref) && (other.compareTo(ref) > 0))
+                    {
+                        newRefs[idx++] = other;
+                    }
+                }
+                newRefs[idx++] = ref;
+                for (final ServiceReference<?> other : refs)
+                {
+                    if ((other != ref) && (other.compareTo(ref) <= 0))
+                    {
+                        newRefs[idx++] = other;
+                    }
+                }
+                m_sortedRefs.put(className, newRefs);
+            }
+        }
+    }
+
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
     {
         final UsageCount[] usages = m_inUseMap.get(bundle);
@@ -613,6 +727,8 @@ public class ServiceRegistry
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<String,?> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
+        // The ranking may have changed.
+        resortReference(reg.getReference());
         if (m_callbacks != null)
         {
             m_callbacks.serviceChanged(
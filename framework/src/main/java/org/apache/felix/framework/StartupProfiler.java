@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Records the time spent in the phases of the framework launch and of the
+ * life cycle of each bundle, i.e., installing, resolving, starting, running
+ * its activator, and registering its first service. A profiler only exists
+ * if it is enabled with the <tt>felix.startup.profile</tt> or
+ * <tt>felix.startup.profile.file</tt> configuration property, so disabled
+ * profiling costs no more than a <tt>null</tt> check. An enabled profiler
+ * can be obtained by adapting the framework to this class and is recreated
+ * each time the framework is initialized.
+ * <p>
+ * The recorded spans can be inspected with {@link #getSpans()} or exported
+ * in the Chrome trace event format with {@link #writeChromeTrace(Writer)},
+ * which is done automatically once the framework has started if the
+ * <tt>felix.startup.profile.file</tt> property is set.
+**/
+public final class StartupProfiler
+{
+    public static final String FRAMEWORK_INIT = "framework init";
+    public static final String FRAMEWORK_START = "framework start";
+    public static final String CACHE_RELOAD = "cache reload";
+    public static final String INSTALL = "install";
+    public static final String RESOLVE = "resolve";
+    public static final String START = "start";
+    public static final String ACTIVATOR = "activator";
+    public static final String FIRST_SERVICE = "first service registration";
+
+    // Upper bound for the number of recorded spans, since the profiler
+    // keeps recording after startup for as long as the framework runs.
+    private static final int MAX_SPANS = 65536;
+
+    private final long m_origin = System.nanoTime();
+    private final Queue<Span> m_spans = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger m_size = new AtomicInteger();
+    private final Set<Long> m_registered =
+        Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    StartupProfiler()
+    {
+    }
+
+    /**
+     * Records a span of the specified phase that started at the specified
+     * time and ends now.
+     * @param phase the phase.
+     * @param bundle the bundle the phase applies to.
+     * @param begin the start of the phase as returned by
+     *        <tt>System.nanoTime()</tt>.
+    **/
+    void record(String phase, Bundle bundle, long begin)
+    {
+        add(phase, bundle, begin, System.nanoTime());
+    }
+
+    /**
+     * Records an instant span the first time the specified bundle registers
+     * a service.
+     * @param bundle the bundle registering a service.
+    **/
+    void serviceRegistered(Bundle bundle)
+    {
+        if ((bundle != null) && m_registered.add(bundle.getBundleId()))
+        {
+            long now = System.nanoTime();
+            add(FIRST_SERVICE, bundle, now, now);
+        }
+    }
+
+    private void add(String phase, Bundle bundle, long begin, long end)
+    {
+        if ((bundle != null) && (m_size.incrementAndGet() <= MAX_SPANS))
+        {
+            Thread thread = Thread.currentThread();
+            m_spans.add(new Span(phase, bundle.getBundleId(), bundle.toString(),
+                thread.getId(), thread.getName(), begin - m_origin, end - begin));
+        }
+    }
+
+    /**
+     * Returns the spans recorded so far ordered by their start time.
+     * @return the recorded spans.
+    **/
+    public List<Span> getSpans()
+    {
+        List<Span> spans = new ArrayList<>(m_spans);
+        Collections.sort(spans, new Comparator<Span>()
+        {
+            @Override
+            public int compare(Span s1, Span s2)
+            {
+                return Long.compare(s1.m_start, s2.m_start);
+            }
+        });
+        return spans;
+    }
+
+    /**
+     * Writes the spans recorded so far in the JSON object format of the
+     * Chrome trace event format, which can be loaded into
+     * <tt>chrome://tracing</tt> or Perfetto. Each span becomes a complete
+     * event on the track of the thread that recorded it.
+     * @param writer the writer to write the trace to.
+     * @throws IOException if writing the trace fails.
+    **/
+    public void writeChromeTrace(Writer writer) throws IOException
+    {
+        Map<Long, String> threads = new HashMap<>();
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (Span span : getSpans())
+        {
+            threads.put(span.m_threadId, span.m_threadName);
+            StringBuilder sb = new StringBuilder(160);
+            sb.append(first ? "\n" : ",\n");
+            sb.append("{\"name\":");
+            appendString(sb, span.m_phase + ": " + span.m_bundleName);
+            sb.append(",\"cat\":");
+            appendString(sb, span.m_phase);
+            if (span.m_duration == 0)
+            {
+                sb.append(",\"ph\":\"i\",\"s\":\"t\"");
+            }
+            else
+            {
+                sb.append(",\"ph\":\"X\",\"dur\":").append(toMicros(span.m_duration));
+            }
+            sb.append(",\"ts\":").append(toMicros(span.m_start));
+            sb.append(",\"pid\":0,\"tid\":").append(span.m_threadId);
+            sb.append(",\"args\":{\"bundleId\":").append(span.m_bundleId).append("}}");
+            writer.write(sb.toString());
+            first = false;
+        }
+        for (Map.Entry<Long, String> entry : threads.entrySet())
+        {
+            StringBuilder sb = new StringBuilder(80);
+            sb.append(first ? "\n" : ",\n");
+            sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":0,\"tid\":")
+                .append(entry.getKey()).append(",\"args\":{\"name\":");
+            appendString(sb, entry.getValue());
+            sb.append("}}");
+            writer.write(sb.toString());
+            first = false;
+        }
+        writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        writer.flush();
+    }
+
+    private static String toMicros(long nanos)
+    {
+        return (nanos / 1000) + "." + (char) ('0' + (nanos % 1000) / 100);
+    }
+
+    private static void appendString(StringBuilder sb, String s)
+    {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\'))
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * A recorded phase of a bundle. Times are relative to the creation of
+     * the profiler, i.e., to the initialization of the framework.
+    **/
+    public static final class Span
+    {
+        private final String m_phase;
+        private final long m_bundleId;
+        private final String m_bundleName;
+        private final long m_threadId;
+        private final String m_threadName;
+        private final long m_start;
+        private final long m_duration;
+
+        Span(String phase, long bundleId, String bundleName,
+            long threadId, String threadName, long start, long duration)
+        {
+            m_phase = phase;
+            m_bundleId = bundleId;
+            m_bundleName = bundleName;
+            m_threadId = threadId;
+            m_threadName = threadName;
+            m_start = start;
+            m_duration = duration;
+        }
+
+        public String getPhase()
+        {
+            return m_phase;
+        }
+
+        public long getBundleId()
+        {
+            return m_bundleId;
+        }
+
+        public String getBundleName()
+        {
+            return m_bundleName;
+        }
+
+        public String getThreadName()
+        {
+            return m_threadName;
+        }
+
+        public long getStartNanos()
+        {
+            return m_start;
+        }
+
+        public long getDurationNanos()
+        {
+            return m_duration;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_phase + " " + m_bundleName + " +" + (m_start / 1000000)
+                + " ms (" + (m_duration / 1000000) + " ms)";
+        }
+    }
+}
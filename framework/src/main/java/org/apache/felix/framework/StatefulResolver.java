@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,6 +32,8 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -91,6 +94,10 @@ class StatefulResolver
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
     private volatile ServiceRegistration<?> m_serviceRegistration;
+    // Wiring restored from a resolver snapshot that is not applied yet,
+    // and all revisions it refers to.
+    private Map<Resource, List<Wire>> m_snapshotWiring = null;
+    private Set<Resource> m_snapshotRevisions = null;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -98,7 +105,9 @@ class StatefulResolver
         m_registry = registry;
         m_logger = m_felix.getLogger();
         m_executor = getExecutor();
-        m_resolver = new ResolverImpl(m_logger, m_executor);
+        m_resolver = new ResolverImpl(m_logger, m_executor,
+            Boolean.parseBoolean(m_felix.getProperty(FelixConstants.RESOLVER_INCREMENTAL)),
+            Boolean.parseBoolean(m_felix.getProperty(FelixConstants.RESOLVER_CONFLICT_LEARNING)));
 
         m_revisions = new HashSet<>();
         m_fragments = new HashSet<>();
@@ -145,6 +154,25 @@ class StatefulResolver
                 }
             };
         }
+        else if (Boolean.parseBoolean(m_felix.getProperty(FelixConstants.RESOLVER_FORKJOIN)))
+        {
+            // On a fork/join pool the resolver also checks the package spaces
+            // of the resources of a permutation concurrently.
+            return new ForkJoinPool(parallelism,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                {
+                    final AtomicInteger counter = new AtomicInteger();
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                    {
+                        ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("FelixResolver-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, null, false);
+        }
         else
         {
             ThreadPoolExecutor executor = new ThreadPoolExecutor(
@@ -190,7 +218,7 @@ class StatefulResolver
         // Always attempt to remove the revision, since
         // this method can be used for re-indexing a revision
         // after it has been resolved.
-        removeRevision(br);
+        deindexRevision(br);
 
         m_revisions.add(br);
 
@@ -217,6 +245,15 @@ class StatefulResolver
     }
 
     synchronized void removeRevision(BundleRevision br)
+    {
+        if ((m_snapshotRevisions != null) && m_snapshotRevisions.contains(br))
+        {
+            discardSnapshotWiring(br + " was removed");
+        }
+        deindexRevision(br);
+    }
+
+    private synchronized void deindexRevision(BundleRevision br)
     {
         if (m_revisions.remove(br))
         {
@@ -420,6 +457,9 @@ class StatefulResolver
         Set<BundleRevision> optional)
         throws ResolutionException, BundleException
     {
+        StartupProfiler profiler = m_felix.getStartupProfiler();
+        long begin = (profiler != null) ? System.nanoTime() : 0L;
+
         // Acquire global lock.
         boolean locked = m_felix.acquireGlobalLock();
         if (!locked)
@@ -438,6 +478,7 @@ class StatefulResolver
         m_isResolving = true;
 
         Map<Resource, List<Wire>> wireMap = null;
+        Map<Resource, List<Wire>> snapshotWireMap = null;
         try
         {
             // Make our own copy of revisions.
@@ -485,15 +526,29 @@ class StatefulResolver
             ResolutionException rethrow = null;
             try
             {
+                // Apply the wiring restored from a resolver snapshot for
+                // the revisions it covers, so they are not resolved again.
+                Map<Resource, List<Wire>> taken = takeSnapshotWiring(record, mandatory, optional);
+                if (taken != null)
+                {
+                    mandatory.removeAll(taken.keySet());
+                    optional.removeAll(taken.keySet());
+                    markResolvedRevisions(taken);
+                    snapshotWireMap = taken;
+                }
+
                 // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                if ((snapshotWireMap == null) || !mandatory.isEmpty() || !optional.isEmpty())
+                {
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                }
             }
             catch (ResolutionException ex)
             {
@@ -518,11 +573,170 @@ class StatefulResolver
             m_isResolving = false;
             // Always release the global lock.
             m_felix.releaseGlobalLock();
+            // The revisions taken from the snapshot are resolved even if
+            // resolving the remaining revisions failed.
+            if (snapshotWireMap != null)
+            {
+                fireResolvedEvents(snapshotWireMap);
+            }
+        }
+
+        if (profiler != null)
+        {
+            // All revisions resolved together share the same span.
+            for (Map<Resource, List<Wire>> resolved : Arrays.asList(snapshotWireMap, wireMap))
+            {
+                if (resolved == null)
+                {
+                    continue;
+                }
+                for (Resource resource : resolved.keySet())
+                {
+                    if (resource instanceof BundleRevision)
+                    {
+                        profiler.record(StartupProfiler.RESOLVE,
+                            ((BundleRevision) resource).getBundle(), begin);
+                    }
+                }
+            }
         }
 
         fireResolvedEvents(wireMap);
     }
 
+    /**
+     * Sets the wiring restored from a resolver snapshot. It is not applied
+     * right away, but by later resolves to the revisions they resolve and
+     * the revisions these depend on, once the resolver hooks registered at
+     * that time allow it. What is left of it is discarded as soon as one of
+     * its revisions is removed or resolved without it.
+     * @param wireMap the wires of each revision to resolve from the snapshot.
+    **/
+    synchronized void setSnapshotWiring(Map<Resource, List<Wire>> wireMap)
+    {
+        m_snapshotWiring = new HashMap<>(wireMap);
+        m_snapshotRevisions = new HashSet<>();
+        for (Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            m_snapshotRevisions.add(entry.getKey());
+            for (Wire wire : entry.getValue())
+            {
+                m_snapshotRevisions.add(wire.getProvider());
+            }
+        }
+    }
+
+    private synchronized void discardSnapshotWiring(String reason)
+    {
+        if (m_snapshotWiring != null)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Discarding the resolver snapshot wiring of " + m_snapshotWiring.size()
+                + " bundle revisions, since " + reason + ".");
+            m_snapshotWiring = null;
+            m_snapshotRevisions = null;
+        }
+    }
+
+    /**
+     * Takes the wiring of the specified revisions from the resolver snapshot,
+     * together with the wiring of the revisions they depend on and of the
+     * fragments of these. The resolver hooks of the current resolve are
+     * consulted for all of them as if they were resolved; if they filter
+     * any of them or any of their wires, the snapshot is discarded.
+     * @param record the resolver hooks of the current resolve.
+     * @param mandatory the mandatory revisions of the current resolve.
+     * @param optional the optional revisions of the current resolve.
+     * @return the wiring taken from the snapshot or <tt>null</tt> if it does
+     *         not cover any of the revisions.
+    **/
+    private synchronized Map<Resource, List<Wire>> takeSnapshotWiring(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        if (m_snapshotWiring == null)
+        {
+            return null;
+        }
+
+        Map<Resource, List<Resource>> fragments = new HashMap<>();
+        for (Entry<Resource, List<Wire>> entry : m_snapshotWiring.entrySet())
+        {
+            if (Util.isFragment(entry.getKey()))
+            {
+                for (Wire wire : entry.getValue())
+                {
+                    List<Resource> hosted = fragments.get(wire.getProvider());
+                    if (hosted == null)
+                    {
+                        hosted = new ArrayList<>();
+                        fragments.put(wire.getProvider(), hosted);
+                    }
+                    hosted.add(entry.getKey());
+                }
+            }
+        }
+
+        List<Resource> pending = new ArrayList<>(mandatory);
+        pending.addAll(optional);
+        Map<Resource, List<Wire>> wireMap = new LinkedHashMap<>();
+        while (!pending.isEmpty())
+        {
+            Resource resource = pending.remove(pending.size() - 1);
+            List<Wire> wires = m_snapshotWiring.get(resource);
+            if ((wires == null) || wireMap.containsKey(resource))
+            {
+                continue;
+            }
+            wireMap.put(resource, wires);
+            for (Wire wire : wires)
+            {
+                pending.add(wire.getProvider());
+            }
+            List<Resource> hosted = fragments.get(resource);
+            if (hosted != null)
+            {
+                pending.addAll(hosted);
+            }
+        }
+        if (wireMap.isEmpty())
+        {
+            return null;
+        }
+
+        for (Entry<Resource, List<Wire>> entry : wireMap.entrySet())
+        {
+            BundleRevision revision = (BundleRevision) entry.getKey();
+            if (((record.getBundleRevisionWhitelist() != null)
+                    && !record.getBundleRevisionWhitelist().contains(revision))
+                || (Util.isSingleton(revision) && !isSelectedSingleton(revision)))
+            {
+                discardSnapshotWiring(revision + " may not be resolved");
+                return null;
+            }
+            for (Wire wire : entry.getValue())
+            {
+                if (!findProvidersInternal(record, wire.getRequirement(), true, true)
+                    .contains(wire.getCapability()))
+                {
+                    discardSnapshotWiring(wire + " is no longer a candidate");
+                    return null;
+                }
+            }
+        }
+
+        m_snapshotWiring.keySet().removeAll(wireMap.keySet());
+        if (m_snapshotWiring.isEmpty())
+        {
+            m_snapshotWiring = null;
+            m_snapshotRevisions = null;
+        }
+        m_logger.log(Logger.LOG_DEBUG,
+            "Resolved " + wireMap.size() + " bundle revisions from the resolver snapshot.");
+        return wireMap;
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolutionException, BundleException
     {
@@ -1022,6 +1236,16 @@ class StatefulResolver
     {
         boolean debugLog = m_felix.getLogger().getLogLevel() >= Logger.LOG_DEBUG;
 
+        // The resolver may wire revisions of the snapshot differently.
+        synchronized (this)
+        {
+            if ((wireMap != null) && (m_snapshotWiring != null)
+                && !Collections.disjoint(m_snapshotWiring.keySet(), wireMap.keySet()))
+            {
+                discardSnapshotWiring("the resolver resolved some of its revisions");
+            }
+        }
+
         // DO THIS IN THREE PASSES:
         // 1. Aggregate fragments per host.
         // 2. Attach wires and fragments to hosts.
@@ -22,6 +22,7 @@ import java.io.File;
 import java.util.Map;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.StringMap;
 
 /**
  * <p>
@@ -41,6 +42,8 @@ import org.apache.felix.framework.Logger;
 **/
 public abstract class BundleArchiveRevision
 {
+    private static final transient String HEADERS_FILE = "headers.bin";
+
     private final Logger m_logger;
     private final Map<?,?> m_configMap;
     private final File m_revisionRootDir;
@@ -126,6 +129,58 @@ public abstract class BundleArchiveRevision
     **/
     public abstract Map<String, String> getManifestHeader() throws Exception;
 
+    /**
+     * <p>
+     * Returns the main attributes stored in the revision directory for the
+     * given source if storing them is enabled and the source has not been
+     * modified since they were stored.
+     * </p>
+     * @param source the file the main attributes were parsed from.
+     * @return the case-insensitive main attributes or <tt>null</tt>.
+    **/
+    Map<String, String> getCachedManifestHeader(File source)
+    {
+        if (!isHeaderCacheEnabled())
+        {
+            return null;
+        }
+        return BundleCache.readMainAttributes(
+            new StringMap<>(), new File(m_revisionRootDir, HEADERS_FILE), source);
+    }
+
+    /**
+     * <p>
+     * Stores the main attributes parsed from the given source in the
+     * revision directory if storing them is enabled. Failures are only
+     * logged, since the attributes will just be parsed again next time.
+     * </p>
+     * @param source the file the main attributes were parsed from.
+     * @param headers the main attributes.
+    **/
+    void cacheManifestHeader(File source, Map<String, String> headers)
+    {
+        if ((headers == null) || !isHeaderCacheEnabled())
+        {
+            return;
+        }
+        try
+        {
+            BundleCache.writeMainAttributes(
+                headers, new File(m_revisionRootDir, HEADERS_FILE), source);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG,
+                "Unable to store the manifest headers of " + m_location, ex);
+        }
+    }
+
+    private boolean isHeaderCacheEnabled()
+    {
+        return (m_configMap != null)
+            && Boolean.parseBoolean((String) m_configMap.get(BundleCache.CACHE_HEADERS_PROP));
+    }
+
     public abstract Content getContent() throws Exception;
 
     /**
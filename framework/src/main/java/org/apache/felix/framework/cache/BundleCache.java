@@ -29,8 +29,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +77,19 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.headers</tt> - Enables or disables storing the
+ *       parsed manifest main attributes of JAR and directory revisions in
+ *       the revision directory, so that they do not have to be read and
+ *       parsed again as long as the modification time and size of their
+ *       source are unchanged. This is disabled by default.
+ *   </li>
+ *   <li><tt>felix.cache.lazy</tt> - Enables or disables deferring opening
+ *       the JAR files of bundles reloaded from the cache until their content
+ *       is first used, so that bundles which are never resolved or started
+ *       do not keep their JAR files open. Combined with
+ *       <tt>felix.cache.headers</tt>, such bundles are reloaded without
+ *       opening their JAR files at all. This is disabled by default.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,12 +102,17 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_HEADERS_PROP = "felix.cache.headers";
+    public static final String CACHE_LAZY_PROP = "felix.cache.lazy";
     private static final ThreadLocal<SoftReference<byte[]>> m_defaultBuffer = new ThreadLocal<>();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
     private static transient final String CACHE_DIR_NAME = "felix-cache";
     private static transient final String CACHE_ROOTDIR_DEFAULT = ".";
     private static transient final String CACHE_LOCK_NAME = "cache.lock";
+    // "FHDR" followed by the format version.
+    private static transient final int HEADERS_MAGIC = 0x46484452;
+    private static transient final int HEADERS_VERSION = 1;
     static transient final String BUNDLE_DIR_PREFIX = "bundle";
 
     private static final SecureAction m_secureAction = new SecureAction();
@@ -357,6 +377,109 @@ public class BundleCache
         return headers;
     }
 
+    /**
+     * Reads main attributes stored by <tt>writeMainAttributes()</tt>. The
+     * file holds the modification time and size of the source the attributes
+     * were parsed from followed by the number of attributes and their names
+     * and values as length-prefixed UTF-8 strings.
+     *
+     * @param headers the map to add the attributes to.
+     * @param file the file holding the stored attributes.
+     * @param source the file the attributes were parsed from.
+     * @return the given map or <tt>null</tt> if there are no stored
+     *         attributes or they were parsed from a different version of the
+     *         source.
+    **/
+    static Map<String, String> readMainAttributes(Map<String, String> headers, File file, File source)
+    {
+        if (!getSecureAction().isFile(file))
+        {
+            return null;
+        }
+        try
+        {
+            byte[] bytes = read(getSecureAction().getInputStream(file), file.length());
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if ((buffer.getInt() != HEADERS_MAGIC)
+                || (buffer.getInt() != HEADERS_VERSION)
+                || (buffer.getLong() != getSecureAction().getLastModified(source))
+                || (buffer.getLong() != source.length()))
+            {
+                return null;
+            }
+            for (int count = buffer.getInt(); count > 0; count--)
+            {
+                String key = readString(buffer);
+                headers.put(key.intern(), readString(buffer));
+            }
+            return buffer.hasRemaining() ? null : headers;
+        }
+        catch (Exception ex)
+        {
+            // Treat truncated or otherwise unreadable files as missing.
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given main attributes so that <tt>readMainAttributes()</tt>
+     * returns them as long as the source is unchanged. The attributes are
+     * written to a temporary file first, so a concurrent or interrupted write
+     * never leaves a partial file behind.
+     *
+     * @param headers the attributes to store.
+     * @param file the file to store the attributes in.
+     * @param source the file the attributes were parsed from.
+     * @throws Exception if the attributes could not be stored.
+    **/
+    static void writeMainAttributes(Map<String, String> headers, File file, File source) throws Exception
+    {
+        long lastModified = getSecureAction().getLastModified(source);
+        long size = source.length();
+        List<byte[]> strings = new ArrayList<>(headers.size() * 2);
+        int length = 28;
+        for (Map.Entry<String, String> entry : headers.entrySet())
+        {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            strings.add(key);
+            strings.add(value);
+            length += 8 + key.length + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(HEADERS_MAGIC).putInt(HEADERS_VERSION)
+            .putLong(lastModified).putLong(size).putInt(headers.size());
+        for (byte[] string : strings)
+        {
+            buffer.putInt(string.length).put(string);
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream os = getSecureAction().getOutputStream(tmp);
+        try
+        {
+            os.write(buffer.array());
+        }
+        finally
+        {
+            os.close();
+        }
+        getSecureAction().deleteFile(file);
+        if (!getSecureAction().renameFile(tmp, file))
+        {
+            getSecureAction().deleteFile(tmp);
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
     public synchronized void release()
     {
         if (m_lock != null)
@@ -72,7 +72,13 @@ class DirectoryRevision extends BundleArchiveRevision
         throws Exception
     {
         File manifest = new File(m_refDir, "META-INF/MANIFEST.MF");
-        return BundleCache.getSecureAction().isFile(manifest) ? BundleCache.getMainAttributes(new StringMap<>(), BundleCache.getSecureAction().getInputStream(manifest), manifest.length()) : null;
+        Map<String, String> headers = getCachedManifestHeader(manifest);
+        if (headers == null)
+        {
+            headers = BundleCache.getSecureAction().isFile(manifest) ? BundleCache.getMainAttributes(new StringMap<>(), BundleCache.getSecureAction().getInputStream(manifest), manifest.length()) : null;
+            cacheManifestHeader(manifest, headers);
+        }
+        return headers;
     }
 
     @Override
@@ -153,7 +153,10 @@ public class JarContent implements Content
                 return null;
             }
 
-            return BundleCache.read(m_zipFile.getInputStream(ze), ze.getSize());
+            // Avoid reopening a weakly closed zip file if possible.
+            byte[] bytes = m_zipFile.getEntryBytes(ze);
+            return (bytes != null)
+                ? bytes : BundleCache.read(m_zipFile.getInputStream(ze), ze.getSize());
 
         }
         catch (Exception ex)
@@ -72,6 +72,11 @@ class JarRevision extends BundleArchiveRevision
             m_bundleFile = new File(getRevisionRootDir(), BUNDLE_JAR_FILE);
         }
 
+        // Reloaded revisions may defer opening the JAR file until it is used.
+        boolean lazy = BundleCache.getSecureAction().fileExists(getRevisionRootDir())
+            && (configMap != null)
+            && Boolean.parseBoolean((String) configMap.get(BundleCache.CACHE_LAZY_PROP));
+
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
@@ -80,7 +85,11 @@ class JarRevision extends BundleArchiveRevision
         try
         {
             // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
+            if (lazy && !BundleCache.getSecureAction().isFile(m_bundleFile))
+            {
+                throw new IOException("No JAR file found.");
+            }
+            zipFile = m_zipFactory.create(m_bundleFile, !lazy);
             // Error if no jar file.
             if (zipFile == null)
             {
@@ -98,10 +107,18 @@ class JarRevision extends BundleArchiveRevision
     @Override
 	public Map<String, String> getManifestHeader() throws Exception
     {
+        Map<String, String> manifest = getCachedManifestHeader(m_bundleFile);
+        if (manifest != null)
+        {
+            return manifest;
+        }
+
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
         ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
 
-        Map<String, String> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap<>(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+        manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap<>(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+
+        cacheManifestHeader(m_bundleFile, manifest);
 
         return manifest;
     }
@@ -22,18 +22,24 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.StringComparator;
@@ -45,21 +51,28 @@ import org.osgi.resource.Capability;
 
 public class CapabilitySet
 {
-    private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    private static final Capability[] EMPTY = new Capability[0];
+
+    private final SortedMap<String, Index> m_indices;
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+    // Incremented after each modification of this set.
+    private final AtomicLong m_version = new AtomicLong();
+    // Lazily created array of all capabilities, tagged with the version it
+    // was created for.
+    private volatile Snapshot m_snapshot = null;
     private final static SecureAction m_secureAction = new SecureAction();
 
     public void dump()
     {
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, Index> entry : m_indices.entrySet())
         {
             boolean header1 = false;
-            for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entrySet())
+            for (Entry<Object, Capability[]> entry2 : entry.getValue().m_values.entrySet())
             {
                 boolean header2 = false;
-                for (BundleCapability cap : entry2.getValue())
+                for (Capability cap : entry2.getValue())
                 {
-                    if (cap.getRevision().getBundle().getBundleId() != 0)
+                    if (((BundleCapability) cap).getRevision().getBundle().getBundleId() != 0)
                     {
                         if (!header1)
                         {
@@ -87,16 +100,30 @@ public class CapabilitySet
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
             m_indices.put(
-                indexProps.get(i), new ConcurrentHashMap<>());
+                indexProps.get(i), new Index());
         }
     }
 
+    /**
+     * Returns the version of this capability set, which changes whenever
+     * a capability is added or removed. The version can be used to detect
+     * whether previously computed matches are still current.
+     * @return the current version of this capability set.
+    **/
+    long getVersion()
+    {
+        return m_version.get();
+    }
+
     public void addCapability(final BundleCapability cap)
     {
-        m_capSet.add(cap);
+        if (!m_capSet.add(cap))
+        {
+            return;
+        }
 
         // Index capability.
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, Index> entry : m_indices.entrySet())
         {
             Object value = cap.getAttributes().get(entry.getKey());
             if (value != null)
@@ -106,40 +133,31 @@ public class CapabilitySet
                     value = convertArrayToList(value);
                 }
 
-                ConcurrentMap<Object, Set<BundleCapability>> index =
-                        (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
+                Index index = entry.getValue();
 
                 if (value instanceof Collection)
                 {
                     Collection<?> c = (Collection<?>) value;
                     for (Object o : c)
                     {
-                        indexCapability(index, cap, o);
+                        index.add(o, cap);
                     }
                 }
                 else
                 {
-                    indexCapability(index, cap, value);
+                    index.add(value, cap);
                 }
             }
         }
-    }
 
-    private void indexCapability(
-        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
-    {
-        Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
-        Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
-        if (prevval != null)
-            caps = prevval;
-        caps.add(cap);
+        m_version.incrementAndGet();
     }
 
     public void removeCapability(final BundleCapability cap)
     {
         if (m_capSet.remove(cap))
         {
-            for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+            for (Entry<String, Index> entry : m_indices.entrySet())
             {
                 Object value = cap.getAttributes().get(entry.getKey());
                 if (value != null)
@@ -149,118 +167,155 @@ public class CapabilitySet
                         value = convertArrayToList(value);
                     }
 
-                    Map<Object, Set<BundleCapability>> index = entry.getValue();
+                    Index index = entry.getValue();
 
                     if (value instanceof Collection)
                     {
                         Collection<?> c = (Collection<?>) value;
                         for (Object o : c)
                         {
-                            deindexCapability(index, cap, o);
+                            index.remove(o, cap);
                         }
                     }
                     else
                     {
-                        deindexCapability(index, cap, value);
+                        index.remove(value, cap);
                     }
                 }
             }
+
+            m_version.incrementAndGet();
         }
     }
 
-    private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+    public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
     {
-        Set<BundleCapability> caps = index.get(value);
-        if (caps != null)
+        // Use the indices to narrow down the capabilities that need to be
+        // evaluated; if the filter cannot use any index, every capability
+        // is a candidate.
+        Capability[] candidates = candidates(sf);
+        if (candidates == null)
         {
-            caps.remove(cap);
-            if (caps.isEmpty())
+            candidates = getAll();
+        }
+
+        Capability[] matches = new Capability[candidates.length];
+        int size = 0;
+        for (Capability cap : candidates)
+        {
+            if (matchesInternal(cap, sf)
+                && (!obeyMandatory || matchMandatory(cap, sf)))
             {
-                index.remove(value);
+                matches[size++] = cap;
             }
         }
-    }
 
-    public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
-    {
-        final Set<Capability> matches = match(m_capSet, sf);
-        return (obeyMandatory)
-            ? matchMandatory(matches, sf)
-            : matches;
+        return (size == 0)
+            ? Collections.<Capability>emptySet()
+            : new ArraySet(matches, size);
     }
 
-    private Set<Capability> match(Set<Capability> caps, final SimpleFilter sf)
+    /**
+     * Returns the distinct capabilities that may match the specified filter
+     * according to the indices, or <tt>null</tt> if the indices cannot be
+     * used for the filter. Every capability matching the filter is contained
+     * in the returned array, but not every capability in it necessarily
+     * matches.
+    **/
+    private Capability[] candidates(final SimpleFilter sf)
     {
-        Set<Capability> matches = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
-
-        if (sf.getOperation() == SimpleFilter.MATCH_ALL)
+        switch (sf.getOperation())
         {
-            matches.addAll(caps);
-        }
-        else if (sf.getOperation() == SimpleFilter.AND)
-        {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
-            final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            case SimpleFilter.EQ:
+            case SimpleFilter.GTE:
+            case SimpleFilter.LTE:
+            case SimpleFilter.SUBSTRING:
+            case SimpleFilter.PRESENT:
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
-            }
-        }
-        else if (sf.getOperation() == SimpleFilter.OR)
-        {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (SimpleFilter sFilter : sfs) {
-                matches.addAll(match(caps, sFilter));
-            }
-        }
-        else if (sf.getOperation() == SimpleFilter.NOT)
-        {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For OR we calculate the union of each subfilter.
-            matches.addAll(caps);
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (SimpleFilter sFilter : sfs) {
-                matches.removeAll(match(caps, sFilter));
+                Index index = m_indices.get(sf.getName());
+                return (index == null) ? null : index.candidates(sf);
             }
-        }
-        else
-        {
-            Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
-            if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
+            case SimpleFilter.AND:
             {
-                Set<BundleCapability> existingCaps = index.get(sf.getValue());
-                if (existingCaps != null)
+                // Any indexed subfilter narrows down the conjunction, so
+                // choose the most selective one. Equality lookups are
+                // cheap and usually the most selective, so only consider
+                // the other subfilters if there are none.
+                List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+                Capability[] best = null;
+                for (int pass = 0; (best == null) && (pass < 2); pass++)
                 {
-                    matches.addAll(existingCaps);
-                    if (caps != m_capSet)
+                    for (SimpleFilter child : sfs)
                     {
-                        matches.retainAll(caps);
+                        if ((child.getOperation() == SimpleFilter.EQ) != (pass == 0))
+                        {
+                            continue;
+                        }
+                        Capability[] caps = candidates(child);
+                        if ((caps != null) && ((best == null) || (caps.length < best.length)))
+                        {
+                            best = caps;
+                            if (best.length == 0)
+                            {
+                                return best;
+                            }
+                        }
                     }
                 }
+                return best;
             }
-            else
+            case SimpleFilter.OR:
             {
-                for (Capability cap : caps) {
-                    Object lhs = cap.getAttributes().get(sf.getName());
-                    if (lhs != null)
+                // A disjunction can only use the indices if every subfilter can.
+                List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+                List<Capability[]> parts = new ArrayList<>(sfs.size());
+                for (SimpleFilter child : sfs)
+                {
+                    Capability[] caps = candidates(child);
+                    if (caps == null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
-                        {
-                            matches.add(cap);
-                        }
+                        return null;
                     }
+                    parts.add(caps);
                 }
+                return union(parts);
             }
+            default:
+                return null;
         }
+    }
+
+    private Capability[] getAll()
+    {
+        // The version must be read before the capabilities, so that a
+        // snapshot is never tagged with a version newer than its content.
+        long version = m_version.get();
+        Snapshot snapshot = m_snapshot;
+        if ((snapshot == null) || (snapshot.m_version != version))
+        {
+            snapshot = new Snapshot(version, m_capSet.toArray(EMPTY));
+            m_snapshot = snapshot;
+        }
+        return snapshot.m_caps;
+    }
 
-        return matches;
+    private static Capability[] union(List<Capability[]> parts)
+    {
+        if (parts.isEmpty())
+        {
+            return EMPTY;
+        }
+        else if (parts.size() == 1)
+        {
+            return parts.get(0);
+        }
+        Set<Capability> union = Collections.newSetFromMap(
+            new IdentityHashMap<Capability, Boolean>());
+        for (Capability[] part : parts)
+        {
+            Collections.addAll(union, part);
+        }
+        return union.toArray(EMPTY);
     }
 
     public static boolean matches(Capability cap, SimpleFilter sf)
@@ -321,20 +376,6 @@ public class CapabilitySet
         return matched;
     }
 
-    private static Set<Capability> matchMandatory(
-        Set<Capability> caps, SimpleFilter sf)
-    {
-        for (Iterator<Capability> it = caps.iterator(); it.hasNext(); )
-        {
-            Capability cap = it.next();
-            if (!matchMandatory(cap, sf))
-            {
-                it.remove();
-            }
-        }
-        return caps;
-    }
-
     private static boolean matchMandatory(Capability cap, SimpleFilter sf)
     {
         Map<String, Object> attrs = cap.getAttributes();
@@ -654,4 +695,251 @@ public class CapabilitySet
         }
         return list;
     }
+
+    /**
+     * The index of a single attribute. Each distinct value maps to an
+     * immutable array of the capabilities having that value; arrays are
+     * replaced, never modified. Comparable values are additionally kept
+     * in a sorted map (ordered by type and then naturally) to answer
+     * range, prefix and presence queries.
+    **/
+    private static final class Index
+    {
+        private static final Comparator<Object> VALUE_COMPARATOR = new Comparator<Object>()
+        {
+            @Override
+            public int compare(Object o1, Object o2)
+            {
+                if (o1.getClass() != o2.getClass())
+                {
+                    return o1.getClass().getName().compareTo(o2.getClass().getName());
+                }
+                return ((Comparable<Object>) o1).compareTo(o2);
+            }
+        };
+
+        final ConcurrentMap<Object, Capability[]> m_values = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Object, Capability[]> m_sorted =
+            new ConcurrentSkipListMap<>(VALUE_COMPARATOR);
+        // Maps each type of value in this index to an example value of it,
+        // which is needed to coerce filter values to that type.
+        private final ConcurrentMap<Class<?>, Object> m_types = new ConcurrentHashMap<>();
+        // Set if a value could not be sorted, in which case the sorted map
+        // is incomplete and cannot be used.
+        private volatile boolean m_unsortable = false;
+
+        void add(Object value, final Capability cap)
+        {
+            m_values.compute(value, (k, caps) -> {
+                Capability[] result;
+                if (caps == null)
+                {
+                    result = new Capability[] { cap };
+                }
+                else
+                {
+                    for (Capability c : caps)
+                    {
+                        if (c == cap)
+                        {
+                            // Multi-valued attributes may contain the same value twice.
+                            return caps;
+                        }
+                    }
+                    result = Arrays.copyOf(caps, caps.length + 1);
+                    result[caps.length] = cap;
+                }
+                sort(k, result);
+                return result;
+            });
+        }
+
+        void remove(Object value, final Capability cap)
+        {
+            m_values.computeIfPresent(value, (k, caps) -> {
+                for (int i = 0; i < caps.length; i++)
+                {
+                    if (caps[i] == cap)
+                    {
+                        Capability[] result = null;
+                        if (caps.length > 1)
+                        {
+                            result = new Capability[caps.length - 1];
+                            System.arraycopy(caps, 0, result, 0, i);
+                            System.arraycopy(caps, i + 1, result, i, caps.length - i - 1);
+                        }
+                        sort(k, result);
+                        return result;
+                    }
+                }
+                return caps;
+            });
+        }
+
+        // Called while holding the lock of the value in m_values, so the
+        // sorted map is updated in the same order as the value map.
+        private void sort(Object value, Capability[] caps)
+        {
+            if (m_unsortable)
+            {
+                return;
+            }
+            if (!(value instanceof Comparable))
+            {
+                m_unsortable = true;
+                return;
+            }
+            try
+            {
+                if (caps == null)
+                {
+                    m_sorted.remove(value);
+                }
+                else
+                {
+                    m_sorted.put(value, caps);
+                    m_types.putIfAbsent(value.getClass(), value);
+                }
+            }
+            catch (ClassCastException ex)
+            {
+                m_unsortable = true;
+            }
+        }
+
+        Capability[] candidates(SimpleFilter sf)
+        {
+            if (sf.getOperation() == SimpleFilter.EQ)
+            {
+                Capability[] caps = m_values.get(sf.getValue());
+                return (caps == null) ? EMPTY : caps;
+            }
+            else if (m_unsortable)
+            {
+                return null;
+            }
+
+            List<Capability[]> parts = new ArrayList<>();
+            switch (sf.getOperation())
+            {
+                case SimpleFilter.GTE:
+                case SimpleFilter.LTE:
+                    for (Entry<Class<?>, Object> type : m_types.entrySet())
+                    {
+                        Object rhs;
+                        try
+                        {
+                            rhs = coerceType(type.getValue(), (String) sf.getValue());
+                        }
+                        catch (Exception ex)
+                        {
+                            // Values of this type cannot match.
+                            continue;
+                        }
+                        if (rhs.getClass() != type.getKey())
+                        {
+                            // E.g., a version range, which is not comparable
+                            // to a version.
+                            continue;
+                        }
+                        Map<Object, Capability[]> range =
+                            (sf.getOperation() == SimpleFilter.GTE)
+                            ? m_sorted.tailMap(rhs, true)
+                            : m_sorted.headMap(rhs, true).descendingMap();
+                        for (Entry<Object, Capability[]> entry : range.entrySet())
+                        {
+                            if (entry.getKey().getClass() != type.getKey())
+                            {
+                                break;
+                            }
+                            parts.add(entry.getValue());
+                        }
+                    }
+                    return union(parts);
+                case SimpleFilter.SUBSTRING:
+                    // Only strings can match substrings, and if the pattern
+                    // starts with a fixed prefix, only the strings sorted
+                    // after the prefix that start with it.
+                    String prefix = ((List<String>) sf.getValue()).get(0);
+                    if (prefix.isEmpty())
+                    {
+                        return null;
+                    }
+                    for (Entry<Object, Capability[]> entry
+                        : m_sorted.tailMap(prefix, true).entrySet())
+                    {
+                        if (!(entry.getKey() instanceof String)
+                            || !((String) entry.getKey()).startsWith(prefix))
+                        {
+                            break;
+                        }
+                        parts.add(entry.getValue());
+                    }
+                    return union(parts);
+                case SimpleFilter.PRESENT:
+                    parts.addAll(m_values.values());
+                    return union(parts);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static final class Snapshot
+    {
+        final long m_version;
+        final Capability[] m_caps;
+
+        Snapshot(long version, Capability[] caps)
+        {
+            m_version = version;
+            m_caps = caps;
+        }
+    }
+
+    /**
+     * An immutable set backed by an array of distinct capabilities.
+    **/
+    private static final class ArraySet extends AbstractSet<Capability>
+    {
+        private final Capability[] m_caps;
+        private final int m_size;
+
+        ArraySet(Capability[] caps, int size)
+        {
+            m_caps = caps;
+            m_size = size;
+        }
+
+        @Override
+        public Iterator<Capability> iterator()
+        {
+            return new Iterator<Capability>()
+            {
+                private int m_idx = 0;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return m_idx < m_size;
+                }
+
+                @Override
+                public Capability next()
+                {
+                    if (m_idx >= m_size)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return m_caps[m_idx++];
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return m_size;
+        }
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.ext;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+/**
+ * Installs or updates many bundles at once. This interface is meant for
+ * embedders only: it is not exported by the system bundle and it is not
+ * registered as a service, but it can be obtained by adapting the
+ * framework to this type.
+ * <p>
+ * Installing a batch has the same effect as installing each of its bundles
+ * with <tt>BundleContext.installBundle()</tt>, except that the bundles are
+ * written to the cache concurrently, their <tt>INSTALLED</tt> events are
+ * fired together once the whole batch is installed and the new bundles are
+ * resolved in a single resolve. Bundles that cannot be resolved remain in
+ * the <tt>INSTALLED</tt> state.
+**/
+public interface BundleInstaller
+{
+    /**
+     * Installs the given bundles. If any of the new bundles fails to
+     * install, none of them is installed. Locations that are already
+     * installed yield the existing bundles, as they would for
+     * <tt>BundleContext.installBundle()</tt>.
+     * @param bundles The locations of the bundles mapped to their content,
+     *        which is read from the location if it is <tt>null</tt>. The
+     *        streams are always closed.
+     * @return The bundles in the iteration order of the given map.
+     * @throws BundleException If a bundle cannot be installed.
+    **/
+    List<Bundle> installBundles(Map<String, InputStream> bundles) throws BundleException;
+
+    /**
+     * Updates the given bundles one after another and then resolves all of
+     * them in a single resolve.
+     * @param bundles The bundles mapped to their new content, which is read
+     *        from the update location if it is <tt>null</tt>.
+     * @return The bundles in the iteration order of the given map.
+     * @throws BundleException If a bundle cannot be updated; the bundles
+     *         that precede it in the map remain updated.
+    **/
+    List<Bundle> updateBundles(Map<Bundle, InputStream> bundles) throws BundleException;
+}
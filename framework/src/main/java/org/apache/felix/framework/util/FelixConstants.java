@@ -55,6 +55,16 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_INCREMENTAL = "felix.resolver.incremental";
+    String RESOLVER_CONFLICT_LEARNING = "felix.resolver.conflictlearning";
+    String RESOLVER_FORKJOIN = "felix.resolver.forkjoin";
+    String EVENT_DISPATCH_PARALLELISM = "felix.eventdispatcher.parallelism";
+    String EVENT_DISPATCH_STATISTICS = "felix.eventdispatcher.statistics";
+    String LOCAL_MISS_CACHE_SIZE_PROP = "felix.wiring.misscache.size";
+    String RESOLVER_SNAPSHOT_PROP = "felix.resolver.snapshot";
+    String STARTLEVEL_PARALLELISM = "felix.startlevel.parallelism";
+    String STARTUP_PROFILE_PROP = "felix.startup.profile";
+    String STARTUP_PROFILE_FILE_PROP = "felix.startup.profile.file";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.osgi.framework.Version;
+
+/**
+ * A pool of canonical instances of immutable values, such as the strings,
+ * versions, directive and attribute maps and uses lists of the capabilities
+ * and requirements parsed from bundle manifests. Applying the pool to a
+ * value returns an equal instance that is already in the pool, if any, so
+ * that equal values of different bundle revisions share one instance.
+ * <p>
+ * Strings are interned with <tt>String.intern()</tt>; other values are only
+ * weakly referenced by the pool, so they are collected once no revision
+ * uses them anymore. The pool is striped to keep concurrent installs from
+ * contending on a single lock. Values put into the pool must not be
+ * modified afterwards.
+ * <p>
+ * The pool counts the duplicates it replaced along with a rough estimate of
+ * their size on a 64-bit VM with compressed references, which is the heap
+ * saved for as long as the replacing revisions are around.
+**/
+public class InternPool implements Function<Object, Object>
+{
+    private static final int STRIPES = 16;
+
+    private final Map<Object, WeakReference<Object>>[] m_stripes;
+    private final AtomicLong m_duplicates = new AtomicLong();
+    private final AtomicLong m_savedBytes = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public InternPool()
+    {
+        m_stripes = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+        {
+            m_stripes[i] = new WeakHashMap<>();
+        }
+    }
+
+    /**
+     * Returns the canonical instance of the given value, which is the value
+     * itself if the pool holds no equal value yet.
+    **/
+    @Override
+    public Object apply(Object value)
+    {
+        Object result = value;
+        if (value instanceof String)
+        {
+            result = ((String) value).intern();
+        }
+        else if (value != null)
+        {
+            int hash = value.hashCode();
+            Map<Object, WeakReference<Object>> stripe =
+                m_stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+            synchronized (stripe)
+            {
+                WeakReference<Object> ref = stripe.get(value);
+                Object existing = (ref != null) ? ref.get() : null;
+                if (existing != null)
+                {
+                    result = existing;
+                }
+                else
+                {
+                    stripe.put(value, new WeakReference<>(value));
+                }
+            }
+        }
+        if (result != value)
+        {
+            m_duplicates.incrementAndGet();
+            m_savedBytes.addAndGet(estimateSize(value));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of values that were replaced by an equal instance
+     * of the pool.
+    **/
+    public long getDuplicateCount()
+    {
+        return m_duplicates.get();
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the values that were
+     * replaced by an equal instance of the pool.
+    **/
+    public long getSavedBytes()
+    {
+        return m_savedBytes.get();
+    }
+
+    /**
+     * Estimates the shallow size of the given value plus the size of the
+     * arrays it owns. The elements of maps and collections are not counted,
+     * since they are interned on their own.
+    **/
+    static long estimateSize(Object value)
+    {
+        if (value instanceof String)
+        {
+            // Object header, hash and coder plus the backing array.
+            return 24 + align(16 + ((String) value).length());
+        }
+        else if (value instanceof Version)
+        {
+            return 32;
+        }
+        else if (value instanceof Map)
+        {
+            // Table array plus one node per entry.
+            int size = ((Map<?, ?>) value).size();
+            return 48 + align(16 + 4 * Integer.highestOneBit(size * 2 + 1)) + 32 * size;
+        }
+        else if (value instanceof Collection)
+        {
+            return 24 + align(16 + 4 * ((Collection<?>) value).size());
+        }
+        return 16;
+    }
+
+    private static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+}
@@ -35,7 +35,9 @@ import java.util.zip.ZipFile;
 /**
  * This class implements a factory for creating weak zip files, which behave
  * mostly like a ZipFile, but can be weakly closed to limit the number of
- * open files.
+ * open files. If there is a limit, the central directory of each zip file is
+ * indexed when it is created, so that entries can be looked up, listed and
+ * read while the zip file is weakly closed without reopening it.
  */
 public class WeakZipFileFactory
 {
@@ -72,7 +74,22 @@ public class WeakZipFileFactory
      */
     public WeakZipFile create(File file) throws IOException
     {
-        WeakZipFile wzf = new WeakZipFile(file);
+        return create(file, true);
+    }
+
+    /**
+     * Factory method used to create weak zip files that are optionally
+     * created weakly closed, in which case the zip file is only opened once
+     * someone tries to use it. This does not count against the limit of open
+     * zip files until then and avoids opening zip files that are never used.
+     * @param file the target zip file.
+     * @param open whether to open the zip file right away.
+     * @return the created weak zip file.
+     * @throws IOException if the zip file could not be opened.
+     */
+    public WeakZipFile create(File file, boolean open) throws IOException
+    {
+        WeakZipFile wzf = new WeakZipFile(file, open);
 
         if (m_limit > 0)
         {
@@ -81,6 +98,10 @@ public class WeakZipFileFactory
             try
             {
                 m_zipFiles.add(wzf);
+                if (!open)
+                {
+                    return wzf;
+                }
                 m_openFiles.add(wzf);
                 if (m_openFiles.size() > m_limit)
                 {
@@ -150,21 +171,58 @@ public class WeakZipFileFactory
         private final File m_file;
         private final Lock m_localMutex = new ReentrantLock(false);
         private volatile ZipFile m_zipFile;
-        private volatile int m_status = OPEN;
+        private volatile int m_status;
         private volatile long m_timestamp;
         private volatile SoftReference<LinkedHashMap<String, ZipEntry>> m_entries;
+        // Only created once the zip file is opened, since lazily opened zip
+        // files may never be used.
+        private volatile ZipFileIndex m_index;
+        private volatile boolean m_indexed;
 
         /**
          * Constructor is private since instances need to be centrally
          * managed.
          * @param file the target zip file.
+         * @param open whether to open the zip file or to create it weakly
+         *        closed.
          * @throws IOException if the zip file could not be opened.
          */
-        private WeakZipFile(File file) throws IOException
+        private WeakZipFile(File file, boolean open) throws IOException
         {
             m_file = file;
-            m_zipFile = m_secureAction.openZipFile(m_file);
-            m_timestamp = System.currentTimeMillis();
+            if (open)
+            {
+                m_zipFile = m_secureAction.openZipFile(m_file);
+                m_status = OPEN;
+                m_timestamp = System.currentTimeMillis();
+                indexIfNeeded();
+            }
+            else
+            {
+                m_status = WEAKLY_CLOSED;
+            }
+        }
+
+        private void indexIfNeeded()
+        {
+            if ((m_limit > 0) && !m_indexed)
+            {
+                m_index = createIndex(m_file);
+                m_indexed = true;
+            }
+        }
+
+        private ZipFileIndex createIndex(File file)
+        {
+            try
+            {
+                return ZipFileIndex.parse(file);
+            }
+            catch (IOException ex)
+            {
+                // Fall back to the zip file, which will report any problem.
+                return null;
+            }
         }
 
         /**
@@ -175,6 +233,21 @@ public class WeakZipFileFactory
          */
         public ZipEntry getEntry(String name)
         {
+            if (m_index != null)
+            {
+                ensureNotClosed();
+                ZipEntry ze = m_index.getEntry(name);
+                if ((ze == null) || ((ze.getSize() == 0) && !ze.isDirectory()))
+                {
+                    ZipEntry dirEntry = m_index.getEntry(name + '/');
+                    if (dirEntry != null)
+                    {
+                        ze = dirEntry;
+                    }
+                }
+                return ze;
+            }
+
             ensureZipFileIsOpen();
 
             try
@@ -222,6 +295,12 @@ public class WeakZipFileFactory
          */
         public Enumeration<ZipEntry> entries()
         {
+            if (m_index != null)
+            {
+                ensureNotClosed();
+                return Collections.enumeration(m_index.getEntries());
+            }
+
             ensureZipFileIsOpen();
 
             try
@@ -240,6 +319,12 @@ public class WeakZipFileFactory
 
         public Enumeration<String> names()
         {
+            if (m_index != null)
+            {
+                ensureNotClosed();
+                return Collections.enumeration(m_index.getNames());
+            }
+
             ensureZipFileIsOpen();
 
             try
@@ -317,6 +402,24 @@ public class WeakZipFileFactory
             }
         }
 
+        /**
+         * Returns the content of the specified zip entry if it can be read
+         * without reopening the zip file, which is the case if the zip file
+         * is weakly closed and its central directory has been indexed.
+         * @param ze the zip entry whose content is to be retrieved.
+         * @return the content of the zip entry or <tt>null</tt> if it has
+         *         to be read using <tt>getInputStream()</tt>.
+         * @throws IOException if the content cannot be read.
+         */
+        public byte[] getEntryBytes(ZipEntry ze) throws IOException
+        {
+            if ((m_index == null) || (m_status != WEAKLY_CLOSED))
+            {
+                return null;
+            }
+            return m_index.read(m_file, ze.getName());
+        }
+
         /**
          * Weakly closes the zip file, which means that it will be reopened
          * if anyone tries to use it again.
@@ -380,8 +483,10 @@ public class WeakZipFileFactory
             if (m_limit > 0)
             {
                 m_globalMutex.lock();
-                m_localMutex.lock();
             }
+            // Without a limit the local mutex is still needed, since a zip
+            // file created weakly closed may be opening lazily right now.
+            m_localMutex.lock();
 
             try
             {
@@ -394,9 +499,9 @@ public class WeakZipFileFactory
             }
             finally
             {
+                m_localMutex.unlock();
                 if (m_limit > 0)
                 {
-                    m_localMutex.unlock();
                     m_globalMutex.unlock();
                 }
             }
@@ -415,6 +520,19 @@ public class WeakZipFileFactory
             m_openFiles.remove(this);
         }
 
+        /**
+         * Throws an IllegalStateException if the zip file is permanently
+         * closed. This is all that is needed to answer requests from the
+         * index, which does not require the zip file to be open.
+         */
+        private void ensureNotClosed()
+        {
+            if (m_status == CLOSED)
+            {
+                throw new IllegalStateException("Zip file is closed: " + m_file);
+            }
+        }
+
         /**
          * This method ensures that the zip file associated with this
          * weak zip file instance is actually open and acquires the
@@ -430,6 +548,10 @@ public class WeakZipFileFactory
         {
             if (m_limit == 0)
             {
+                if (m_status == WEAKLY_CLOSED)
+                {
+                    openLazily();
+                }
                 return;
             }
 
@@ -495,6 +617,41 @@ public class WeakZipFileFactory
             }
         }
 
+        /**
+         * Opens a zip file that was created weakly closed when there is no
+         * limit, in which case it is never weakly closed again and no mutex
+         * has to be held once it is open.
+         */
+        private void openLazily()
+        {
+            m_localMutex.lock();
+            try
+            {
+                if (m_status == WEAKLY_CLOSED)
+                {
+                    m_zipFile = m_secureAction.openZipFile(m_file);
+                    m_timestamp = System.currentTimeMillis();
+                    m_status = OPEN;
+                }
+            }
+            catch (IOException ex)
+            {
+                m_status = CLOSED;
+                IllegalStateException ise =
+                    new IllegalStateException("Zip file is closed: " + m_file);
+                ise.initCause(ex);
+                throw ise;
+            }
+            finally
+            {
+                m_localMutex.unlock();
+            }
+            if (m_status == CLOSED)
+            {
+                throw new IllegalStateException("Zip file is closed: " + m_file);
+            }
+        }
+
         /**
          * Thie internal method is used to reopen a weakly closed zip file.
          * It makes a best effort, but may fail and leave the zip file member
@@ -517,6 +674,7 @@ public class WeakZipFileFactory
                     __close();
                     throw ex;
                 }
+                indexIfNeeded();
 
                 if (m_zipFile != null)
                 {
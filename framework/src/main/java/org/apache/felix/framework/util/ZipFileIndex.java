@@ -0,0 +1,474 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A compact, immutable index of the central directory of a zip file. It
+ * allows entries to be looked up, listed and read without a <tt>ZipFile</tt>
+ * instance, which is what makes it possible to answer requests for a weakly
+ * closed zip file without reopening it.
+ * <p>
+ * Only plain zip files are supported; <tt>parse()</tt> returns <tt>null</tt>
+ * for zip64 archives, split archives, archives with leading data, encrypted
+ * entries and compression methods other than stored and deflated, in which
+ * case callers have to fall back to <tt>ZipFile</tt>.
+ */
+class ZipFileIndex
+{
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int LOC_HDR = 30;
+    private static final int CEN_HDR = 46;
+    private static final int END_HDR = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private final String[] m_names;
+    private final byte[] m_methods;
+    private final int[] m_times;
+    private final int[] m_crcs;
+    private final long[] m_csizes;
+    private final long[] m_sizes;
+    private final long[] m_offsets;
+    private final byte[][] m_extras;
+    private final String[] m_comments;
+    // Open addressing hash table of entry index plus one, zero marks a free slot.
+    private final int[] m_table;
+
+    private ZipFileIndex(int capacity)
+    {
+        m_names = new String[capacity];
+        m_methods = new byte[capacity];
+        m_times = new int[capacity];
+        m_crcs = new int[capacity];
+        m_csizes = new long[capacity];
+        m_sizes = new long[capacity];
+        m_offsets = new long[capacity];
+        m_extras = new byte[capacity][];
+        m_comments = new String[capacity];
+        int tableSize = 1;
+        while (tableSize < capacity * 2)
+        {
+            tableSize <<= 1;
+        }
+        m_table = new int[tableSize];
+    }
+
+    /**
+     * Parses the central directory of the specified zip file.
+     * @param file the zip file.
+     * @return the index or <tt>null</tt> if the zip file uses features that
+     *         are not supported by this index.
+     * @throws IOException if the file could not be read.
+     */
+    static ZipFileIndex parse(File file) throws IOException
+    {
+        FileInputStream fis = m_secureAction.getFileInputStream(file);
+        try
+        {
+            return parse(fis.getChannel());
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    private static ZipFileIndex parse(FileChannel channel) throws IOException
+    {
+        long length = channel.size();
+        if (length < END_HDR)
+        {
+            return null;
+        }
+
+        // Find the end of central directory record, which is followed by
+        // an archive comment of at most 64k.
+        int tailLength = (int) Math.min(length, END_HDR + MAX_COMMENT);
+        ByteBuffer tail = read(channel, length - tailLength, tailLength);
+        int end = -1;
+        for (int pos = tailLength - END_HDR; pos >= 0; pos--)
+        {
+            if ((tail.getInt(pos) == END_SIG)
+                && (pos + END_HDR + u16(tail, pos + 20) == tailLength))
+            {
+                end = pos;
+                break;
+            }
+        }
+        if (end < 0)
+        {
+            return null;
+        }
+
+        int count = u16(tail, end + 10);
+        long cenSize = u32(tail, end + 12);
+        long cenOffset = u32(tail, end + 16);
+        long endOffset = length - tailLength + end;
+        if ((u16(tail, end + 4) != 0) || (u16(tail, end + 6) != 0)
+            || (u16(tail, end + 8) != count)
+            || (count == 0xFFFF) || (cenSize == 0xFFFFFFFFL) || (cenOffset == 0xFFFFFFFFL)
+            || (cenOffset + cenSize != endOffset) || (cenSize > Integer.MAX_VALUE))
+        {
+            return null;
+        }
+
+        ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+        ZipFileIndex index = new ZipFileIndex(count);
+        int size = 0;
+        int pos = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if ((pos + CEN_HDR > cen.limit()) || (cen.getInt(pos) != CEN_SIG))
+            {
+                return null;
+            }
+            int flags = u16(cen, pos + 8);
+            int method = u16(cen, pos + 10);
+            long csize = u32(cen, pos + 20);
+            long usize = u32(cen, pos + 24);
+            int nameLength = u16(cen, pos + 28);
+            int extraLength = u16(cen, pos + 30);
+            int commentLength = u16(cen, pos + 32);
+            long offset = u32(cen, pos + 42);
+            if (((flags & 1) != 0)
+                || ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED))
+                || (csize == 0xFFFFFFFFL) || (usize == 0xFFFFFFFFL) || (offset == 0xFFFFFFFFL)
+                || (pos + CEN_HDR + nameLength + extraLength + commentLength > cen.limit()))
+            {
+                return null;
+            }
+
+            int idx = size;
+            String name = string(cen, pos + CEN_HDR, nameLength);
+            int slot = index.slot(name);
+            if (index.m_table[slot] != 0)
+            {
+                // Like a map, a duplicate name replaces the previous entry
+                // but keeps its position.
+                idx = index.m_table[slot] - 1;
+            }
+            else
+            {
+                index.m_table[slot] = idx + 1;
+                size++;
+            }
+
+            index.m_names[idx] = name;
+            index.m_methods[idx] = (byte) method;
+            index.m_times[idx] = cen.getInt(pos + 12);
+            index.m_crcs[idx] = cen.getInt(pos + 16);
+            index.m_csizes[idx] = csize;
+            index.m_sizes[idx] = usize;
+            index.m_offsets[idx] = offset;
+            index.m_extras[idx] = (extraLength > 0)
+                ? bytes(cen, pos + CEN_HDR + nameLength, extraLength) : null;
+            index.m_comments[idx] = (commentLength > 0)
+                ? string(cen, pos + CEN_HDR + nameLength + extraLength, commentLength) : null;
+
+            pos += CEN_HDR + nameLength + extraLength + commentLength;
+        }
+
+        return (size == count) ? index : index.trim(size);
+    }
+
+    private ZipFileIndex trim(int size)
+    {
+        ZipFileIndex index = new ZipFileIndex(size);
+        for (int i = 0; i < size; i++)
+        {
+            index.m_names[i] = m_names[i];
+            index.m_methods[i] = m_methods[i];
+            index.m_times[i] = m_times[i];
+            index.m_crcs[i] = m_crcs[i];
+            index.m_csizes[i] = m_csizes[i];
+            index.m_sizes[i] = m_sizes[i];
+            index.m_offsets[i] = m_offsets[i];
+            index.m_extras[i] = m_extras[i];
+            index.m_comments[i] = m_comments[i];
+            index.m_table[index.slot(m_names[i])] = i + 1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the slot of the specified name in the hash table, which is
+     * either the slot holding the name or the free slot where it belongs.
+     */
+    private int slot(String name)
+    {
+        int mask = m_table.length - 1;
+        int slot = (name.hashCode() * 0x9E3779B9) >>> 1 & mask;
+        while ((m_table[slot] != 0) && !m_names[m_table[slot] - 1].equals(name))
+        {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int indexOf(String name)
+    {
+        return m_table[slot(name)] - 1;
+    }
+
+    /**
+     * Returns the entry with the specified name.
+     * @param name the name of the entry.
+     * @return a new zip entry or <tt>null</tt> if there is no such entry.
+     */
+    ZipEntry getEntry(String name)
+    {
+        int idx = indexOf(name);
+        return (idx < 0) ? null : createEntry(idx);
+    }
+
+    /**
+     * Returns the names of all entries in central directory order.
+     * @return an unmodifiable list of entry names.
+     */
+    List<String> getNames()
+    {
+        return new AbstractList<String>()
+        {
+            @Override
+            public String get(int index)
+            {
+                return m_names[index];
+            }
+
+            @Override
+            public int size()
+            {
+                return m_names.length;
+            }
+        };
+    }
+
+    /**
+     * Returns all entries in central directory order.
+     * @return an unmodifiable list of newly created entries.
+     */
+    List<ZipEntry> getEntries()
+    {
+        return new AbstractList<ZipEntry>()
+        {
+            @Override
+            public ZipEntry get(int index)
+            {
+                return createEntry(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return m_names.length;
+            }
+        };
+    }
+
+    private ZipEntry createEntry(int idx)
+    {
+        ZipEntry ze = new ZipEntry(m_names[idx]);
+        ze.setMethod(m_methods[idx]);
+        ze.setTime(dosToJavaTime(m_times[idx]));
+        ze.setCrc(m_crcs[idx] & 0xFFFFFFFFL);
+        ze.setCompressedSize(m_csizes[idx]);
+        ze.setSize(m_sizes[idx]);
+        if (m_extras[idx] != null)
+        {
+            // This also picks up extended timestamps.
+            ze.setExtra(m_extras[idx].clone());
+        }
+        if (m_comments[idx] != null)
+        {
+            ze.setComment(m_comments[idx]);
+        }
+        return ze;
+    }
+
+    /**
+     * Reads and decompresses the content of the specified entry directly
+     * from the zip file.
+     * @param file the zip file this index was created from.
+     * @param name the name of the entry.
+     * @return the content of the entry or <tt>null</tt> if there is no such
+     *         entry or it is too large to be read into an array.
+     * @throws IOException if the entry could not be read or is corrupt.
+     */
+    byte[] read(File file, String name) throws IOException
+    {
+        int idx = indexOf(name);
+        if ((idx < 0) || (m_csizes[idx] >= Integer.MAX_VALUE)
+            || (m_sizes[idx] >= Integer.MAX_VALUE))
+        {
+            return null;
+        }
+
+        byte[] data;
+        FileInputStream fis = m_secureAction.getFileInputStream(file);
+        try
+        {
+            FileChannel channel = fis.getChannel();
+            ByteBuffer loc = read(channel, m_offsets[idx], LOC_HDR);
+            if (loc.getInt(0) != LOC_SIG)
+            {
+                throw new ZipException("Invalid local header for entry: " + name);
+            }
+            long dataOffset = m_offsets[idx] + LOC_HDR + u16(loc, 26) + u16(loc, 28);
+            // The inflater may need an extra dummy byte when it does not
+            // expect a zlib header.
+            data = new byte[(int) m_csizes[idx] + 1];
+            ByteBuffer buffer = ByteBuffer.wrap(data, 0, (int) m_csizes[idx]);
+            readFully(channel, dataOffset, buffer);
+        }
+        finally
+        {
+            fis.close();
+        }
+
+        byte[] content;
+        if (m_methods[idx] == ZipEntry.STORED)
+        {
+            content = new byte[(int) m_csizes[idx]];
+            System.arraycopy(data, 0, content, 0, content.length);
+        }
+        else
+        {
+            content = new byte[(int) m_sizes[idx]];
+            Inflater inflater = new Inflater(true);
+            try
+            {
+                inflater.setInput(data);
+                int count = 0;
+                while (count < content.length)
+                {
+                    int n = inflater.inflate(content, count, content.length - count);
+                    if ((n == 0) && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary()))
+                    {
+                        break;
+                    }
+                    count += n;
+                }
+                if (count != content.length)
+                {
+                    throw new ZipException("Invalid entry size for entry: " + name);
+                }
+            }
+            catch (DataFormatException ex)
+            {
+                ZipException zex = new ZipException(
+                    "Invalid compressed data for entry: " + name);
+                zex.initCause(ex);
+                throw zex;
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != m_crcs[idx])
+        {
+            throw new ZipException("Invalid CRC for entry: " + name);
+        }
+        return content;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, position, buffer);
+        buffer.flip();
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int n = channel.read(buffer, position);
+            if (n < 0)
+            {
+                throw new EOFException();
+            }
+            position += n;
+        }
+    }
+
+    private static int u16(ByteBuffer buffer, int pos)
+    {
+        return buffer.getShort(pos) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buffer, int pos)
+    {
+        return buffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int pos, int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = buffer.get(pos + i);
+        }
+        return bytes;
+    }
+
+    private static String string(ByteBuffer buffer, int pos, int length)
+    {
+        // ZipFile decodes names and comments as UTF-8 by default.
+        return new String(bytes(buffer, pos, length), StandardCharsets.UTF_8);
+    }
+
+    private static long dosToJavaTime(int dtime)
+    {
+        return new GregorianCalendar(
+            ((dtime >> 25) & 0x7f) + 1980,
+            ((dtime >> 21) & 0x0f) - 1,
+            (dtime >> 16) & 0x1f,
+            (dtime >> 11) & 0x1f,
+            (dtime >> 5) & 0x3f,
+            (dtime << 1) & 0x3e).getTimeInMillis();
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.cache.ConnectContentContent;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.InternPool;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.osgi.framework.BundleException;
@@ -38,7 +39,6 @@ import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleRevision;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -49,8 +49,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class ManifestParser
@@ -71,31 +69,17 @@ public class ManifestParser
     private volatile List<NativeLibraryClause> m_libraryClauses;
     private volatile boolean m_libraryHeadersOptional = false;
 
-    private static final Map<Object, WeakReference<Object>> objectCache = new WeakHashMap<>();
-    private static final Function<Object, Object> cache = (foo) ->
+    private static final InternPool cache = new InternPool();
+
+    /**
+     * Returns the pool shared by all parsers to intern the strings, versions,
+     * directives, attributes and uses constraints of the capabilities and
+     * requirements they create.
+    **/
+    public static InternPool getInternPool()
     {
-        if (foo instanceof String)
-        {
-            return ((String) foo).intern();
-        }
-        else if (foo != null)
-        {
-            synchronized (objectCache)
-            {
-                WeakReference<Object> ref = objectCache.get(foo);
-                if (ref != null)
-                {
-                    Object refValue = ref.get();
-                    if (refValue != null)
-                    {
-                        return refValue;
-                    }
-                }
-                objectCache.put(foo, new WeakReference<>(foo));
-            }
-        }
-        return foo;
-    };
+        return cache;
+    }
 
     public ManifestParser(Logger logger, Map<String, ?> configMap, BundleRevision owner, Map<String, String> headerMap)
         throws BundleException
@@ -62,11 +62,17 @@ public class BundleCapabilityImpl implements BundleCapability
         }
         attrsI = (Map<String, Object>) cache.apply(attrsI);
 
-        return new BundleCapabilityImpl(capability.m_revision, namespaceI, dirsI, attrsI);
+        return new BundleCapabilityImpl(capability.m_revision, namespaceI, dirsI, attrsI, cache);
     }
 
     public BundleCapabilityImpl(BundleRevision revision, String namespace,
         Map<String, String> dirs, Map<String, Object> attrs)
+    {
+        this(revision, namespace, dirs, attrs, null);
+    }
+
+    private BundleCapabilityImpl(BundleRevision revision, String namespace,
+        Map<String, String> dirs, Map<String, Object> attrs, Function<Object, Object> cache)
     {
         m_namespace = namespace;
         m_revision = revision;
@@ -86,6 +92,13 @@ public class BundleCapabilityImpl implements BundleCapability
             {
                 uses.add(tok.nextToken().trim().intern());
             }
+            // Many revisions export packages with the same uses constraints.
+            if (cache != null)
+            {
+                @SuppressWarnings("unchecked")
+                List<String> shared = (List<String>) cache.apply(Collections.unmodifiableList(uses));
+                uses = shared;
+            }
         }
         m_uses = uses;
 
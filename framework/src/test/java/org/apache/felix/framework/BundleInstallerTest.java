@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.framework.ext.BundleInstaller;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+
+public class BundleInstallerTest
+{
+    private static final int BUNDLES = 20;
+
+    private File m_cacheDir;
+    private Framework m_framework;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+        Map<String, Object> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_framework = new Felix(params);
+        m_framework.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        m_framework.stop();
+        m_framework.waitForStop(1000);
+        deleteDir(m_cacheDir);
+    }
+
+    @Test
+    void installsBatchAndResolvesIt() throws Exception
+    {
+        final List<BundleEvent> events = new ArrayList<>();
+        m_framework.getBundleContext().addBundleListener(new SynchronousBundleListener()
+        {
+            @Override
+            public void bundleChanged(BundleEvent event)
+            {
+                synchronized (events)
+                {
+                    events.add(event);
+                }
+            }
+        });
+
+        // Each bundle imports the package of the next one, so the batch
+        // only resolves as a whole.
+        Map<String, InputStream> batch = new LinkedHashMap<>();
+        for (int i = 0; i < BUNDLES; i++)
+        {
+            batch.put("batch:" + i, createBundle(i));
+        }
+
+        List<Bundle> bundles = getInstaller().installBundles(batch);
+
+        assertThat(bundles).hasSize(BUNDLES);
+        for (int i = 0; i < BUNDLES; i++)
+        {
+            assertThat(bundles.get(i).getLocation()).isEqualTo("batch:" + i);
+            assertThat(bundles.get(i).getState()).isEqualTo(Bundle.RESOLVED);
+            // Ids follow the order of the batch, not the order of the locations.
+            if (i > 0)
+            {
+                assertThat(bundles.get(i).getBundleId()).isGreaterThan(bundles.get(i - 1).getBundleId());
+            }
+        }
+        synchronized (events)
+        {
+            assertThat(events).hasSize(2 * BUNDLES);
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                assertThat(events.get(i).getType()).isEqualTo(BundleEvent.INSTALLED);
+                assertThat(events.get(BUNDLES + i).getType()).isEqualTo(BundleEvent.RESOLVED);
+            }
+        }
+
+        // Installing a location again yields the existing bundle.
+        Map<String, InputStream> again = new LinkedHashMap<>();
+        again.put("batch:0", createBundle(0));
+        assertThat(getInstaller().installBundles(again)).containsExactly(bundles.get(0));
+    }
+
+    @Test
+    void failedBatchInstallsNothing() throws Exception
+    {
+        Map<String, InputStream> batch = new LinkedHashMap<>();
+        batch.put("batch:0", createBundle(0));
+        batch.put("batch:invalid", new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+
+        try
+        {
+            getInstaller().installBundles(batch);
+            fail("Invalid bundle was installed");
+        }
+        catch (BundleException ex)
+        {
+            // Expected.
+        }
+
+        assertThat(m_framework.getBundleContext().getBundles()).hasSize(1);
+        assertThat(m_framework.getBundleContext().getBundle("batch:0")).isNull();
+    }
+
+    @Test
+    void duplicateInBatchInstallsNothing() throws Exception
+    {
+        // Both bundles have the same symbolic name and version.
+        Map<String, InputStream> batch = new LinkedHashMap<>();
+        batch.put("batch:0", createBundle(0));
+        batch.put("batch:duplicate", createBundle(0));
+
+        try
+        {
+            getInstaller().installBundles(batch);
+            fail("Duplicate bundle was installed");
+        }
+        catch (BundleException ex)
+        {
+            assertThat(ex.getType()).isEqualTo(BundleException.DUPLICATE_BUNDLE_ERROR);
+        }
+
+        assertThat(m_framework.getBundleContext().getBundles()).hasSize(1);
+        assertThat(m_framework.getBundleContext().getBundle("batch:0")).isNull();
+        assertThat(m_framework.getBundleContext().getBundle("batch:duplicate")).isNull();
+    }
+
+    private BundleInstaller getInstaller()
+    {
+        BundleInstaller installer = m_framework.adapt(BundleInstaller.class);
+        assertThat(installer).isNotNull();
+        return installer;
+    }
+
+    private static InputStream createBundle(int i) throws IOException
+    {
+        String mf = "Manifest-Version: 1.0\n"
+            + "Bundle-SymbolicName: batch.test." + i + "\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: batch.test.p" + i + "\n"
+            + ((i + 1 < BUNDLES) ? "Import-Package: batch.test.p" + (i + 1) + "\n" : "");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream os = new JarOutputStream(bytes,
+            new Manifest(new ByteArrayInputStream(mf.getBytes("utf-8"))));
+        os.close();
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertThat(root.delete()).isTrue();
+    }
+}
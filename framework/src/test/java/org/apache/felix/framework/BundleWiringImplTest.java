@@ -19,10 +19,12 @@
 package org.apache.felix.framework;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.fail;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -63,6 +65,7 @@ import org.osgi.framework.hooks.weaving.WeavingException;
 import org.osgi.framework.hooks.weaving.WeavingHook;
 import org.osgi.framework.hooks.weaving.WovenClass;
 import org.osgi.framework.hooks.weaving.WovenClassListener;
+import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
@@ -163,6 +166,46 @@ public class BundleWiringImplTest
         assertThat(foundClass).as("Class Should be found in this classloader").isNotNull();
     }
 
+    @Test
+    void localMissesAreCached() throws Exception
+    {
+        Felix mockFramework = mock(Felix.class);
+        Content mockContent = mock(Content.class);
+        String className = "org.apache.felix.test.NonExistant";
+        String classAsPath = className.replace('.', '/') + ".class";
+
+        initializeSimpleBundleWiring();
+
+        when(mockBundle.getFramework()).thenReturn(mockFramework);
+        when(mockFramework.getBootPackages()).thenReturn(new String[0]);
+        when(mockRevisionImpl.getContentPath()).thenReturn(
+                Collections.singletonList(mockContent));
+
+        BundleClassLoader bundleClassLoader = createBundleClassLoader(
+                BundleClassLoader.class, bundleWiring);
+
+        for (int i = 0; i < 2; i++)
+        {
+            assertThatThrownBy(() -> bundleClassLoader.loadClass(className, false))
+                .isInstanceOf(ClassNotFoundException.class);
+        }
+        verify(mockContent, times(1)).getEntryAsBytes(classAsPath);
+        assertThat(bundleWiring.getLocalMissCacheMisses()).isEqualTo(1);
+        assertThat(bundleWiring.getLocalMissCacheHits()).isEqualTo(1);
+
+        // Adding a wire invalidates the cache.
+        BundleWire wire = mock(BundleWire.class);
+        BundleCapability cap = mock(BundleCapability.class);
+        when(wire.getCapability()).thenReturn(cap);
+        when(cap.getAttributes()).thenReturn(Collections.<String, Object>emptyMap());
+        bundleWiring.addDynamicWire(wire);
+
+        assertThatThrownBy(() -> bundleClassLoader.loadClass(className, false))
+            .isInstanceOf(ClassNotFoundException.class);
+        verify(mockContent, times(2)).getEntryAsBytes(classAsPath);
+        assertThat(bundleWiring.getLocalMissCacheMisses()).isEqualTo(2);
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Test
     void findClassWeave() throws Exception
@@ -19,6 +19,8 @@
 package org.apache.felix.framework;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -26,6 +28,8 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -138,6 +142,112 @@ class EventDispatcherTest
         assertThat(calledHooks).contains(eh2);
     }
 
+    @Test
+    void fireServiceEventUsesObjectClassIndex() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List<Object> fired = Collections.synchronizedList(new ArrayList<>());
+        ServiceListener stringListener = event -> fired.add("string");
+        ServiceListener integerListener = event -> fired.add("integer");
+        ServiceListener unfilteredListener = event -> fired.add("unfiltered");
+        ServiceListener propertyListener = event -> fired.add("property");
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, stringListener,
+            new FilterImpl("(&(objectClass=java.lang.String)(foo=bar))"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, integerListener,
+            new FilterImpl("(objectClass=java.lang.Integer)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, unfilteredListener, null);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, propertyListener,
+            new FilterImpl("(foo=baz)"));
+
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(Constants.OBJECTCLASS, new String[] { "java.lang.String" });
+        props.put("foo", "bar");
+        ServiceReference<?> sr = Mockito.mock(ServiceReference.class);
+        Mockito.when(sr.getProperty(Constants.OBJECTCLASS)).thenReturn(props.get(Constants.OBJECTCLASS));
+        Mockito.when(sr.getProperties()).thenReturn(props);
+        Mockito.when(sr.isAssignableTo(b1, String.class.getName())).thenReturn(true);
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, new Felix(new HashMap<>()));
+
+        assertThat(fired).containsExactlyInAnyOrder("string", "unfiltered");
+        assertThat(ed.getServiceEventCount()).isEqualTo(1);
+        // The integer listener is excluded by the index without evaluating its filter.
+        assertThat(ed.getServiceListenersEvaluated()).isEqualTo(3);
+        assertThat(ed.getServiceListenersMatched()).isEqualTo(2);
+
+        // Removed listeners must no longer be candidates.
+        fired.clear();
+        ed.removeListener(b1.getBundleContext(), ServiceListener.class, stringListener);
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, new Felix(new HashMap<>()));
+        assertThat(fired).containsExactly("unfiltered");
+    }
+
+    @Test
+    void fireBundleEventUsesListenerLanes() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        EventDispatcher ed = new EventDispatcher(logger, new ServiceRegistry(logger, null), 2, true);
+        ed.startDispatching();
+        final List<Integer> slowEvents = Collections.synchronizedList(new ArrayList<>());
+        try
+        {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch fastDone = new CountDownLatch(3);
+            final List<Integer> fastEvents = Collections.synchronizedList(new ArrayList<>());
+            BundleListener slow = event -> {
+                try
+                {
+                    blocked.await();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                slowEvents.add(event.getType());
+            };
+            BundleListener fast = event -> {
+                fastEvents.add(event.getType());
+                fastDone.countDown();
+            };
+            ed.addListener(b1.getBundleContext(), BundleListener.class, slow, null);
+            ed.addListener(b1.getBundleContext(), BundleListener.class, fast, null);
+
+            Felix framework = new Felix(new HashMap<>());
+            ed.fireBundleEvent(new BundleEvent(BundleEvent.INSTALLED, b1), framework);
+            ed.fireBundleEvent(new BundleEvent(BundleEvent.RESOLVED, b1), framework);
+            ed.fireBundleEvent(new BundleEvent(BundleEvent.STARTED, b1), framework);
+
+            // The fast listener must not wait for the blocked one.
+            assertThat(fastDone.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(fastEvents).containsExactly(
+                BundleEvent.INSTALLED, BundleEvent.RESOLVED, BundleEvent.STARTED);
+            // The events of the blocked listener are still pending.
+            assertThat(ed.getQueueDepth()).isGreaterThanOrEqualTo(3);
+
+            blocked.countDown();
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+
+        assertThat(slowEvents).containsExactly(
+            BundleEvent.INSTALLED, BundleEvent.RESOLVED, BundleEvent.STARTED);
+        assertThat(ed.getQueueDepth()).isEqualTo(0);
+        assertThat(ed.getListenerStatistics()).hasSize(2);
+        for (EventDispatcher.ListenerStatistics stats : ed.getListenerStatistics())
+        {
+            assertThat(stats.getDeliveryCount()).isEqualTo(3);
+        }
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = Mockito.mock(BundleContext.class);
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+
+public class ParallelStartLevelTest
+{
+    public static final int DELAY = 1000;
+    public static final int BUNDLES = 4;
+
+    @Test
+    void bundlesOfSameStartLevelStartConcurrently() throws Exception
+    {
+        assertThat(startFramework("4")).isLessThan(BUNDLES * DELAY);
+    }
+
+    @Test
+    void bundlesStartSequentiallyByDefault() throws Exception
+    {
+        assertThat(startFramework(null)).isGreaterThanOrEqualTo(BUNDLES * DELAY);
+    }
+
+    private long startFramework(String parallelism) throws Exception
+    {
+        Map<String,Object> params = new HashMap<>();
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        String cache = cacheDir.getPath();
+        params.put("felix.cache.profiledir", cache);
+        params.put("felix.cache.dir", cache);
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+        params.put(Constants.FRAMEWORK_BEGINNING_STARTLEVEL, "2");
+        if (parallelism != null)
+        {
+            params.put(FelixConstants.STARTLEVEL_PARALLELISM, parallelism);
+        }
+
+        Framework f = new Felix(params);
+        f.init();
+
+        try
+        {
+            List<Bundle> bundles = new ArrayList<>();
+            for (int i = 0; i < BUNDLES; i++)
+            {
+                String mf = "Bundle-SymbolicName: parallel.test." + i + "\n"
+                    + "Bundle-Version: 1.0.0\n"
+                    + "Bundle-ManifestVersion: 2\n"
+                    + "Import-Package: org.osgi.framework\n";
+                Bundle bundle = f.getBundleContext().installBundle(
+                    createBundle(mf, cacheDir).toURI().toString());
+                bundle.adapt(BundleStartLevel.class).setStartLevel(2);
+                bundle.start();
+                bundles.add(bundle);
+            }
+
+            long t0 = System.currentTimeMillis();
+            f.start();
+            long t1 = System.currentTimeMillis();
+
+            for (Bundle bundle : bundles)
+            {
+                assertThat(bundle.getState()).isEqualTo(Bundle.ACTIVE);
+            }
+            return t1 - t0;
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(BUNDLES * DELAY * 2);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertThat(root.delete()).isTrue();
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        @Override
+        public void start(BundleContext context) throws Exception
+        {
+            Thread.sleep(DELAY);
+        }
+
+        @Override
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
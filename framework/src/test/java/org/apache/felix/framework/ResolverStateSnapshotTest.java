@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+class ResolverStateSnapshotTest
+{
+    private File tempDir;
+    private File cacheDir;
+    private Framework felix;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(tempDir.delete()).as("precondition").isTrue();
+        assertThat(tempDir.mkdirs()).as("precondition").isTrue();
+
+        cacheDir = new File(tempDir, "felix-cache");
+        assertThat(cacheDir.mkdir()).as("precondition").isTrue();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            felix = null;
+        }
+
+        deleteDir(tempDir);
+        tempDir = null;
+        cacheDir = null;
+    }
+
+    @Test
+    void wiringIsRestoredAfterRestart() throws Exception
+    {
+        String umf = "Bundle-SymbolicName: snapshot.unresolvable\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.missing\n";
+
+        felix = createFramework("true");
+        felix.start();
+        Bundle unresolvable = felix.getBundleContext().installBundle(
+            createBundle(umf).toURI().toASCIIString());
+        Bundle[] bundles = installProvidersAndConsumer();
+        felix.adapt(FrameworkWiring.class).resolveBundles(Arrays.asList(unresolvable));
+        assertThat(unresolvable.getState()).isEqualTo(Bundle.INSTALLED);
+        restart("true");
+
+        Bundle provider1 = felix.getBundleContext().getBundle(bundles[0].getBundleId());
+        Bundle consumer = felix.getBundleContext().getBundle(bundles[2].getBundleId());
+        unresolvable = felix.getBundleContext().getBundle(unresolvable.getBundleId());
+
+        // The snapshot is only applied once the bundles are resolved.
+        assertThat(provider1.getState()).isEqualTo(Bundle.INSTALLED);
+        assertThat(consumer.getState()).isEqualTo(Bundle.INSTALLED);
+        // The snapshot is consumed when it is read.
+        assertThat(new File(cacheDir, "bundle0/" + ResolverStateSnapshot.SNAPSHOT_FILE))
+            .doesNotExist();
+
+        // The resolver would pick the higher version of the second provider.
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(consumer))).isTrue();
+        assertThat(provider1.getState()).isEqualTo(Bundle.RESOLVED);
+        assertThat(getProvider(consumer, "org.foo.provider")).isEqualTo(provider1);
+        assertThat(unresolvable.getState()).isEqualTo(Bundle.INSTALLED);
+    }
+
+    @Test
+    void snapshotIsIgnoredWhenDisabled() throws Exception
+    {
+        felix = createFramework("true");
+        felix.start();
+        Bundle[] bundles = installProvidersAndConsumer();
+        restart("false");
+
+        Bundle consumer = felix.getBundleContext().getBundle(bundles[2].getBundleId());
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(consumer))).isTrue();
+        assertThat(getProvider(consumer, "org.foo.provider").getBundleId())
+            .isEqualTo(bundles[1].getBundleId());
+    }
+
+    @Test
+    void snapshotIsDiscardedWhenResolverHookFiltersWire() throws Exception
+    {
+        felix = createFramework("true");
+        felix.start();
+        Bundle[] bundles = installProvidersAndConsumer();
+        restart("true");
+
+        final long provider1Id = bundles[0].getBundleId();
+        felix.getBundleContext().registerService(ResolverHookFactory.class,
+            triggers -> new ResolverHook()
+            {
+                @Override
+                public void filterResolvable(Collection<BundleRevision> candidates)
+                {
+                }
+
+                @Override
+                public void filterSingletonCollisions(
+                    BundleCapability singleton, Collection<BundleCapability> collisionCandidates)
+                {
+                }
+
+                @Override
+                public void filterMatches(
+                    BundleRequirement requirement, Collection<BundleCapability> candidates)
+                {
+                    candidates.removeIf(
+                        cap -> cap.getRevision().getBundle().getBundleId() == provider1Id);
+                }
+
+                @Override
+                public void end()
+                {
+                }
+            }, null);
+
+        Bundle consumer = felix.getBundleContext().getBundle(bundles[2].getBundleId());
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(consumer))).isTrue();
+        assertThat(getProvider(consumer, "org.foo.provider").getBundleId())
+            .isEqualTo(bundles[1].getBundleId());
+    }
+
+    @Test
+    void fragmentsAreRestored() throws Exception
+    {
+        String hmf = "Bundle-SymbolicName: snapshot.host\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n";
+        String fmf = "Bundle-SymbolicName: snapshot.fragment\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Fragment-Host: snapshot.host\n"
+            + "Export-Package: org.foo.fragment\n"
+            + "Import-Package: org.osgi.framework\n";
+        String cmf = "Bundle-SymbolicName: snapshot.consumer\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.fragment\n";
+
+        felix = createFramework("true");
+        felix.start();
+        Bundle host = felix.getBundleContext().installBundle(
+            createBundle(hmf).toURI().toASCIIString());
+        Bundle fragment = felix.getBundleContext().installBundle(
+            createBundle(fmf).toURI().toASCIIString());
+        Bundle consumer = felix.getBundleContext().installBundle(
+            createBundle(cmf).toURI().toASCIIString());
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(host, fragment, consumer))).isTrue();
+        felix.stop();
+        felix.waitForStop(10000);
+
+        // The wire to the capability the fragment adds to its host is kept.
+        assertThat(new File(cacheDir, "bundle0/" + ResolverStateSnapshot.SNAPSHOT_FILE))
+            .exists();
+        felix = createFramework("true");
+
+        host = felix.getBundleContext().getBundle(host.getBundleId());
+        fragment = felix.getBundleContext().getBundle(fragment.getBundleId());
+        consumer = felix.getBundleContext().getBundle(consumer.getBundleId());
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(consumer))).isTrue();
+        assertThat(host.getState()).isEqualTo(Bundle.RESOLVED);
+        assertThat(fragment.getState()).isEqualTo(Bundle.RESOLVED);
+        assertThat(getProvider(consumer, "org.foo.fragment")).isEqualTo(host);
+        assertThat(host.adapt(BundleWiring.class).getProvidedWires(BundleRevision.HOST_NAMESPACE))
+            .hasSize(1);
+    }
+
+    /**
+     * Installs a provider of a package and a consumer of it, resolves them
+     * and then installs a second provider of a higher version of the package.
+     * @return the first provider, the second provider and the consumer.
+     */
+    private Bundle[] installProvidersAndConsumer() throws Exception
+    {
+        String p1mf = "Bundle-SymbolicName: snapshot.provider1\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.provider;version=1.0\n"
+            + "Import-Package: org.osgi.framework\n";
+        String p2mf = "Bundle-SymbolicName: snapshot.provider2\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.provider;version=2.0\n";
+        String cmf = "Bundle-SymbolicName: snapshot.consumer\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.provider\n";
+
+        Bundle provider1 = felix.getBundleContext().installBundle(
+            createBundle(p1mf).toURI().toASCIIString());
+        Bundle consumer = felix.getBundleContext().installBundle(
+            createBundle(cmf).toURI().toASCIIString());
+        assertThat(felix.adapt(FrameworkWiring.class).resolveBundles(
+            Arrays.asList(provider1, consumer))).isTrue();
+        assertThat(getProvider(consumer, "org.foo.provider")).isEqualTo(provider1);
+        Bundle provider2 = felix.getBundleContext().installBundle(
+            createBundle(p2mf).toURI().toASCIIString());
+        return new Bundle[] {provider1, provider2, consumer};
+    }
+
+    private static Bundle getProvider(Bundle bundle, String pkgName)
+    {
+        for (BundleWire wire : bundle.adapt(BundleWiring.class)
+            .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE))
+        {
+            if (pkgName.equals(wire.getCapability().getAttributes()
+                .get(BundleRevision.PACKAGE_NAMESPACE)))
+            {
+                return wire.getProvider().getBundle();
+            }
+        }
+        return null;
+    }
+
+    private void restart(String snapshot) throws Exception
+    {
+        felix.stop();
+        felix.waitForStop(10000);
+        felix = createFramework(snapshot);
+    }
+
+    private Framework createFramework(String snapshot) throws Exception
+    {
+        String cache = cacheDir.getPath();
+
+        Map<String,String> params = new HashMap<>();
+        params.put("felix.cache.profiledir", cache);
+        params.put("felix.cache.dir", cache);
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+        params.put(FelixConstants.RESOLVER_SNAPSHOT_PROP, snapshot);
+
+        Framework framework = new Felix(params);
+        framework.init();
+        return framework;
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertThat(root.delete()).isTrue();
+    }
+}
@@ -50,6 +50,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.PrototypeServiceFactory;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
@@ -95,6 +96,76 @@ class ServiceRegistryTest
         assertThat(sr.getHookRegistry().getHooks(ListenerHook.class).size()).as("Should be no hooks left after unregistration").isEqualTo(0);
     }
 
+    @Test
+    void sortedServiceReferencesFollowRanking()
+    {
+        Bundle b = mock(Bundle.class);
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        String[] classes = new String[] {Runnable.class.getName()};
+        Runnable svc = mock(Runnable.class);
+
+        ServiceRegistration<?> reg1 = sr.registerService(b, classes, svc, new Hashtable<String, Object>());
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(Constants.SERVICE_RANKING, 10);
+        ServiceRegistration<?> reg2 = sr.registerService(b, classes, svc, props);
+        ServiceRegistration<?> reg3 = sr.registerService(b, classes, svc, new Hashtable<String, Object>());
+
+        assertThat(sr.getSortedServiceReferences(Runnable.class.getName())).containsExactly(
+            reg2.getReference(), reg1.getReference(), reg3.getReference());
+        assertThat(sr.getSortedServiceReferences(Object.class.getName())).isEmpty();
+
+        props = new Hashtable<>();
+        props.put(Constants.SERVICE_RANKING, 20);
+        reg3.setProperties(props);
+        assertThat(sr.getSortedServiceReferences(Runnable.class.getName())).containsExactly(
+            reg3.getReference(), reg2.getReference(), reg1.getReference());
+
+        sr.unregisterService(b, reg2);
+        assertThat(sr.getSortedServiceReferences(Runnable.class.getName())).containsExactly(
+            reg3.getReference(), reg1.getReference());
+    }
+
+    @Test
+    void sortedServiceReferencesKeepModifiedService() throws Exception
+    {
+        Bundle b = mock(Bundle.class);
+        final ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        final String className = Runnable.class.getName();
+        Runnable svc = mock(Runnable.class);
+
+        final ServiceRegistration<?> reg = sr.registerService(
+            b, new String[] {className}, svc, new Hashtable<String, Object>());
+        final ServiceRegistration<?> other = sr.registerService(
+            b, new String[] {className}, svc, new Hashtable<String, Object>());
+
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread modifier = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Hashtable<String, Object> props = new Hashtable<>();
+                for (int i = 0; i < 10000; i++)
+                {
+                    props.put(Constants.SERVICE_RANKING, i % 3 - 1);
+                    reg.setProperties(props);
+                }
+                done.set(true);
+            }
+        };
+        modifier.start();
+
+        int checks = 0;
+        while (!done.get() || (checks == 0))
+        {
+            ServiceReference<?>[] refs = sr.getSortedServiceReferences(className);
+            assertThat(refs).as("Modified service must stay visible").hasSize(2)
+                .contains(reg.getReference(), other.getReference());
+            checks++;
+        }
+        modifier.join();
+    }
+
     @Test
     void registerEventHookServiceFactory()
     {
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+class StartupProfilerTest
+{
+    private File tempDir;
+    private Framework felix;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertThat(tempDir.delete()).as("precondition").isTrue();
+        assertThat(tempDir.mkdirs()).as("precondition").isTrue();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception
+    {
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            felix = null;
+        }
+
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    @Test
+    void profilerIsDisabledByDefault() throws Exception
+    {
+        felix = createFramework(new HashMap<String, String>());
+        felix.start();
+
+        assertThat(felix.adapt(StartupProfiler.class)).isNull();
+    }
+
+    @Test
+    void bundlePhasesAreRecorded() throws Exception
+    {
+        File traceFile = new File(tempDir, "trace.json");
+        Map<String, String> params = new HashMap<>();
+        params.put(FelixConstants.STARTUP_PROFILE_FILE_PROP, traceFile.getPath());
+        felix = createFramework(params);
+        felix.start();
+
+        String mf = "Bundle-SymbolicName: profiled.bundle\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n";
+        Bundle bundle = felix.getBundleContext().installBundle(
+            createBundle(mf).toURI().toASCIIString());
+        bundle.start();
+
+        StartupProfiler profiler = felix.adapt(StartupProfiler.class);
+        assertThat(profiler).isNotNull();
+
+        Set<String> frameworkPhases = new HashSet<>();
+        Set<String> bundlePhases = new HashSet<>();
+        for (StartupProfiler.Span span : profiler.getSpans())
+        {
+            assertThat(span.getStartNanos()).isGreaterThanOrEqualTo(0);
+            assertThat(span.getDurationNanos()).isGreaterThanOrEqualTo(0);
+            if (span.getBundleId() == 0)
+            {
+                frameworkPhases.add(span.getPhase());
+            }
+            else if (span.getBundleId() == bundle.getBundleId())
+            {
+                bundlePhases.add(span.getPhase());
+            }
+        }
+        assertThat(frameworkPhases).contains(
+            StartupProfiler.FRAMEWORK_INIT, StartupProfiler.FRAMEWORK_START,
+            StartupProfiler.FIRST_SERVICE);
+        assertThat(bundlePhases).contains(
+            StartupProfiler.INSTALL, StartupProfiler.RESOLVE, StartupProfiler.START);
+
+        StringWriter writer = new StringWriter();
+        profiler.writeChromeTrace(writer);
+        assertThat(writer.toString())
+            .startsWith("{\"traceEvents\":[")
+            .contains("\"name\":\"install: profiled.bundle [" + bundle.getBundleId() + "]\"")
+            .endsWith("],\"displayTimeUnit\":\"ms\"}\n");
+
+        // The trace file is written once the framework has started.
+        assertThat(traceFile).exists();
+    }
+
+    private Framework createFramework(Map<String, String> params) throws Exception
+    {
+        File cacheDir = new File(tempDir, "felix-cache");
+        String cache = cacheDir.getPath();
+        params.put("felix.cache.profiledir", cache);
+        params.put("felix.cache.dir", cache);
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+
+        Framework framework = new Felix(params);
+        framework.init();
+        return framework;
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertThat(root.delete()).isTrue();
+    }
+}
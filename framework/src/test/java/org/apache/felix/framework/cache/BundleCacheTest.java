@@ -186,6 +186,42 @@ class BundleCacheTest
         bundle("bla", jarFile);
     }
 
+    @Test
+    void cachedHeaders() throws Exception
+    {
+        // The fixture cache holds the lock of its directory.
+        File headerCacheDir = new File(tempDir, "header-cache");
+        Map<String, String> params = new HashMap<>();
+        params.put(Constants.FRAMEWORK_STORAGE, headerCacheDir.getPath());
+        params.put(BundleCache.CACHE_HEADERS_PROP, "true");
+        BundleCache headerCache = new BundleCache(new Logger(), params);
+
+        BundleArchive archive = headerCache.create(2, 1, "reference:" + archiveFile.toURI().toURL(), null, null);
+        BundleArchiveRevision revision = archive.getCurrentRevision();
+        assertThat(revision.getManifestHeader()).containsEntry("foo", "bar");
+        File headers = new File(revision.getRevisionRootDir(), "headers.bin");
+        assertThat(headers).isFile();
+        assertThat(revision.getManifestHeader()).containsEntry("foo", "bar").containsEntry("FOO", "bar");
+
+        // A changed manifest must be parsed again.
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "v1");
+        manifest.getMainAttributes().putValue("foo", "changed");
+        try (FileOutputStream output = new FileOutputStream(new File(archiveFile, "META-INF/MANIFEST.MF")))
+        {
+            manifest.write(output);
+        }
+        assertThat(revision.getManifestHeader()).containsEntry("foo", "changed");
+
+        // So must a corrupt cache file.
+        try (FileOutputStream output = new FileOutputStream(headers))
+        {
+            output.write(new byte[] {1, 2, 3});
+        }
+        assertThat(revision.getManifestHeader()).containsEntry("foo", "changed");
+        headerCache.delete();
+    }
+
     @Test
     private BundleArchive bundle(String location, File file) throws Exception
     {
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+class CapabilitySetTest
+{
+    @Test
+    void matchUsesIndexAndEvaluatesRemainingTerms()
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE), true);
+        BundleCapabilityImpl foo1 = createPackage("foo", "1.0.0");
+        BundleCapabilityImpl foo2 = createPackage("foo", "2.0.0");
+        BundleCapabilityImpl bar1 = createPackage("bar", "1.0.0");
+        capSet.addCapability(foo1);
+        capSet.addCapability(foo2);
+        capSet.addCapability(bar1);
+
+        assertThat(match(capSet, "(osgi.wiring.package=foo)")).containsExactlyInAnyOrder(foo1, foo2);
+        assertThat(match(capSet, "(&(osgi.wiring.package=foo)(version>=1.5))")).containsExactly(foo2);
+        assertThat(match(capSet, "(|(osgi.wiring.package=foo)(osgi.wiring.package=bar))"))
+            .containsExactlyInAnyOrder(foo1, foo2, bar1);
+        assertThat(match(capSet, "(|(osgi.wiring.package=foo)(version=1.0.0))"))
+            .containsExactlyInAnyOrder(foo1, foo2, bar1);
+        assertThat(match(capSet, "(!(osgi.wiring.package=foo))")).containsExactly(bar1);
+        assertThat(match(capSet, "(osgi.wiring.package=baz)")).isEmpty();
+    }
+
+    @Test
+    void matchUsesRangePrefixAndPresenceIndices()
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Arrays.asList(BundleRevision.PACKAGE_NAMESPACE, "version"), true);
+        BundleCapabilityImpl foo1 = createPackage("foo", "1.0.0");
+        BundleCapabilityImpl foo15 = createPackage("foo", "1.5.0");
+        BundleCapabilityImpl foo2 = createPackage("foo", "2.0.0");
+        BundleCapabilityImpl foobar = createPackage("foobar", "1.2.0");
+        BundleCapabilityImpl bar = createPackage("bar", "3.0.0");
+        capSet.addCapability(foo1);
+        capSet.addCapability(foo15);
+        capSet.addCapability(foo2);
+        capSet.addCapability(foobar);
+        capSet.addCapability(bar);
+
+        assertThat(match(capSet, "(version>=1.2)")).containsExactlyInAnyOrder(foo15, foo2, foobar, bar);
+        assertThat(match(capSet, "(version<=1.2)")).containsExactlyInAnyOrder(foo1, foobar);
+        assertThat(match(capSet, "(&(version>=1.2)(!(version>=2.0)))")).containsExactlyInAnyOrder(foo15, foobar);
+        assertThat(match(capSet, "(&(osgi.wiring.package=foo)(version>=1.2)(!(version>=2.0)))")).containsExactly(foo15);
+        assertThat(match(capSet, "(osgi.wiring.package=foo*)")).containsExactlyInAnyOrder(foo1, foo15, foo2, foobar);
+        assertThat(match(capSet, "(osgi.wiring.package=foo*r)")).containsExactly(foobar);
+        assertThat(match(capSet, "(osgi.wiring.package=*ar)")).containsExactlyInAnyOrder(foobar, bar);
+        assertThat(match(capSet, "(version=*)")).hasSize(5);
+        assertThat(match(capSet, "(version>=foo)")).isEmpty();
+
+        capSet.removeCapability(foo15);
+        assertThat(match(capSet, "(&(version>=1.2)(!(version>=2.0)))")).containsExactly(foobar);
+    }
+
+    @Test
+    void versionChangesOnModification()
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE), true);
+        BundleCapabilityImpl foo1 = createPackage("foo", "1.0.0");
+
+        long version = capSet.getVersion();
+        capSet.addCapability(foo1);
+        assertThat(capSet.getVersion()).isNotEqualTo(version);
+        assertThat(match(capSet, "(version=1.0.0)")).containsExactly(foo1);
+
+        version = capSet.getVersion();
+        capSet.removeCapability(foo1);
+        assertThat(capSet.getVersion()).isNotEqualTo(version);
+        assertThat(match(capSet, "(osgi.wiring.package=foo)")).isEmpty();
+        assertThat(match(capSet, "(version=1.0.0)")).isEmpty();
+    }
+
+    private static Set<Capability> match(CapabilitySet capSet, String filter)
+    {
+        return capSet.match(SimpleFilter.parse(filter), true);
+    }
+
+    private static BundleCapabilityImpl createPackage(String name, String version)
+    {
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put(BundleRevision.PACKAGE_NAMESPACE, name);
+        attrs.put("version", Version.parseVersion(version));
+        return new BundleCapabilityImpl(
+            null, BundleRevision.PACKAGE_NAMESPACE, Collections.<String, String>emptyMap(), attrs);
+    }
+}
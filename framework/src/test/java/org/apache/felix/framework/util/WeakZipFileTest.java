@@ -19,11 +19,13 @@
 package org.apache.felix.framework.util;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -85,4 +87,81 @@ class WeakZipFileTest
             zipFile.close();
         }, "Unable to read zip file entry: ");
     }
-}
\ No newline at end of file
+
+    @Test
+    void weaklyClosedLookupDoesNotReopen() throws Exception
+    {
+        byte[] contentBytes = new byte[4096];
+        for (int i = 0; i < contentBytes.length; i++)
+        {
+            contentBytes[i] = (byte) ((i % 65) + 65);
+        }
+
+        File tmpZip = File.createTempFile("felix.test", ".zip");
+        tmpZip.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.putNextEntry(new ZipEntry("dir/" + ENTRY_NAME));
+        zos.write(contentBytes, 0, contentBytes.length);
+        zos.close();
+
+        File otherZip = File.createTempFile("felix.test", ".zip");
+        otherZip.deleteOnExit();
+        zos = new ZipOutputStream(new FileOutputStream(otherZip));
+        zos.putNextEntry(new ZipEntry(ENTRY_NAME));
+        zos.close();
+
+        WeakZipFileFactory factory = new WeakZipFileFactory(1);
+        WeakZipFile zipFile = factory.create(tmpZip);
+        WeakZipFile otherFile = factory.create(otherZip);
+        assertThat(factory.getOpenZipZiles()).doesNotContain(zipFile).contains(otherFile);
+
+        assertThat(zipFile.getEntry("dir").isDirectory()).isTrue();
+        assertThat(zipFile.getEntry("missing")).isNull();
+        assertThat(Collections.list(zipFile.names())).containsExactly("dir/", "dir/" + ENTRY_NAME);
+        ZipEntry ze = zipFile.getEntry("dir/" + ENTRY_NAME);
+        assertThat(ze.getSize()).isEqualTo(contentBytes.length);
+        assertThat(zipFile.getEntryBytes(ze)).isEqualTo(contentBytes);
+        assertThat(factory.getOpenZipZiles()).doesNotContain(zipFile).contains(otherFile);
+
+        zipFile.close();
+        otherFile.close();
+        assertThatThrownBy(() -> zipFile.getEntry("dir")).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void lazyOpen() throws Exception
+    {
+        File tmpZip = File.createTempFile("felix.test", ".zip");
+        tmpZip.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry(ENTRY_NAME));
+        zos.write(ENTRY_NAME.getBytes("UTF-8"));
+        zos.close();
+
+        // With a limit, a lazily created zip file is only counted once used.
+        WeakZipFileFactory factory = new WeakZipFileFactory(1);
+        WeakZipFile zipFile = factory.create(tmpZip, false);
+        assertThat(factory.getZipZiles()).contains(zipFile);
+        assertThat(factory.getOpenZipZiles()).doesNotContain(zipFile);
+        ZipEntry ze = zipFile.getEntry(ENTRY_NAME);
+        assertThat(ze).isNotNull();
+        assertThat(factory.getOpenZipZiles()).contains(zipFile);
+        zipFile.close();
+
+        // Without a limit, it is opened on first use and stays open.
+        factory = new WeakZipFileFactory(0);
+        WeakZipFile unlimited = factory.create(tmpZip, false);
+        try (InputStream is = unlimited.getInputStream(unlimited.getEntry(ENTRY_NAME)))
+        {
+            byte[] content = new byte[ENTRY_NAME.length()];
+            assertThat(is.read(content)).isEqualTo(content.length);
+            assertThat(new String(content, "UTF-8")).isEqualTo(ENTRY_NAME);
+        }
+        unlimited.close();
+
+        // A zip file that cannot be opened is reported as closed when used.
+        WeakZipFile missing = factory.create(new File(tmpZip.getPath() + ".missing"), false);
+        assertThatThrownBy(() -> missing.getEntry(ENTRY_NAME)).isInstanceOf(IllegalStateException.class);
+    }
+}
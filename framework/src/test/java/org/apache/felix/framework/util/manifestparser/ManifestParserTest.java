@@ -33,6 +33,8 @@ import org.apache.felix.framework.BundleRevisionImpl;
 import org.apache.felix.framework.cache.ConnectContentContent;
 import org.apache.felix.framework.cache.Content;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.InternPool;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.junit.jupiter.api.Test;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
@@ -43,6 +45,7 @@ import org.osgi.framework.Version;
 import org.osgi.framework.connect.ConnectContent;
 import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.namespace.NativeNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRequirement;
 
@@ -202,6 +205,32 @@ class ManifestParserTest
         
     }
 
+    @Test
+    void equalValuesAreSharedAcrossRevisions() throws BundleException
+    {
+        InternPool pool = ManifestParser.getInternPool();
+        long saved = pool.getSavedBytes();
+
+        BundleCapabilityImpl[] exports = new BundleCapabilityImpl[2];
+        for (int i = 0; i < exports.length; i++)
+        {
+            Map<String, String> headers = new HashMap<>();
+            headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+            headers.put(Constants.BUNDLE_SYMBOLICNAME, "interned." + i);
+            headers.put(Constants.EXPORT_PACKAGE,
+                "org.acme.interned;version=\"1.2.3\";uses:=\"org.acme.api,org.acme.spi\"");
+            ManifestParser mp = new ManifestParser(null, null, null, headers);
+            exports[i] = (BundleCapabilityImpl) findCapability(
+                mp.getCapabilities(), PackageNamespace.PACKAGE_NAMESPACE);
+        }
+
+        assertThat(exports[1].getUses()).isSameAs(exports[0].getUses())
+            .containsExactly("org.acme.api", "org.acme.spi");
+        assertThat(exports[1].getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE))
+            .isSameAs(exports[0].getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE));
+        assertThat(pool.getSavedBytes()).isGreaterThan(saved);
+    }
+
     private BundleCapability findCapability(Collection<BundleCapability> capabilities, String namespace)
     {
         for (BundleCapability capability : capabilities)
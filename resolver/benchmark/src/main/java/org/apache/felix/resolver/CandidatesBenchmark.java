@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.ResolverImpl.ResolveSession;
+import org.apache.felix.resolver.benchmark.BenchmarkResolveContext;
+import org.apache.felix.resolver.benchmark.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+
+/**
+ * Measures copying the initial candidates of a resolve, which the resolver
+ * does for each permutation it creates. This benchmark lives in the
+ * resolver package since {@link Candidates} is not exported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CandidatesBenchmark
+{
+    @Param({Repository.SYNTHETIC, Repository.RECORDED})
+    public String repository;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int fanOut;
+
+    private Candidates m_candidates;
+    private Requirement m_permutable;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Repository repo = Repository.create(repository, size, fanOut);
+        BenchmarkResolveContext context = new BenchmarkResolveContext(
+            repo, Collections.<Resource, Wiring>emptyMap());
+        ResolveSession session = ResolveSession.createSession(
+            context, new ResolverImpl.DumbExecutor(), null, null, null);
+        m_candidates = new Candidates(session);
+        m_candidates.populate(new ArrayList<Resource>(repo.getMandatoryResources()));
+        if (m_candidates.prepare() != null)
+        {
+            throw new IllegalStateException("Unable to prepare the candidates");
+        }
+        for (Resource resource : repo.getMandatoryResources())
+        {
+            for (Requirement req : resource.getRequirements(null))
+            {
+                if ((m_permutable == null) && (m_candidates.permutate(req) != null))
+                {
+                    m_permutable = req;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Candidates copy()
+    {
+        return m_candidates.copy();
+    }
+
+    /**
+     * Permutates a requirement of a mandatory resource that has alternative
+     * candidates, or only copies the candidates if there is none.
+     */
+    @Benchmark
+    public Candidates permutate()
+    {
+        return (m_permutable != null)
+            ? m_candidates.permutate(m_permutable) : m_candidates.copy();
+    }
+}
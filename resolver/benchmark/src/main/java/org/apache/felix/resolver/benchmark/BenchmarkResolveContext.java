@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.utils.resource.CapabilitySet;
+import org.apache.felix.utils.resource.SimpleFilter;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wiring;
+import org.osgi.service.resolver.HostedCapability;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * A resolve context over a {@link Repository}, which finds providers with a
+ * capability set per namespace and prefers the highest versions.
+ */
+public class BenchmarkResolveContext extends ResolveContext
+{
+    private static final Comparator<Capability> HIGHEST_VERSION_FIRST = new Comparator<Capability>()
+    {
+        public int compare(Capability cap1, Capability cap2)
+        {
+            int c = getVersion(cap2, PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE)
+                .compareTo(getVersion(cap1, PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE));
+            if (c == 0)
+            {
+                c = getVersion(cap2, BundleNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE)
+                    .compareTo(getVersion(cap1, BundleNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE));
+            }
+            return c;
+        }
+    };
+
+    private final Collection<Resource> m_mandatory;
+    private final Map<String, CapabilitySet> m_capSets;
+    private final Map<Resource, Wiring> m_wirings;
+
+    public BenchmarkResolveContext(Repository repository, Map<Resource, Wiring> wirings)
+    {
+        m_mandatory = repository.getMandatoryResources();
+        m_capSets = createCapabilitySets(repository.getResources());
+        m_wirings = wirings;
+    }
+
+    /**
+     * Indexes the capabilities of the given resources by namespace, the way
+     * the framework does.
+     *
+     * @param resources the resources.
+     * @return the capability set of each namespace.
+     */
+    public static Map<String, CapabilitySet> createCapabilitySets(Collection<Resource> resources)
+    {
+        Map<String, CapabilitySet> capSets = new HashMap<String, CapabilitySet>();
+        for (Resource resource : resources)
+        {
+            for (Capability cap : resource.getCapabilities(null))
+            {
+                String ns = cap.getNamespace();
+                CapabilitySet set = capSets.get(ns);
+                if (set == null)
+                {
+                    set = new CapabilitySet(Collections.singletonList(ns));
+                    capSets.put(ns, set);
+                }
+                set.addCapability(cap);
+            }
+        }
+        return capSets;
+    }
+
+    @Override
+    public Collection<Resource> getMandatoryResources()
+    {
+        return m_mandatory;
+    }
+
+    @Override
+    public List<Capability> findProviders(Requirement requirement)
+    {
+        CapabilitySet set = m_capSets.get(requirement.getNamespace());
+        if (set == null)
+        {
+            return new ArrayList<Capability>();
+        }
+        String filter = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+        SimpleFilter sf = (filter != null)
+            ? SimpleFilter.parse(filter)
+            : SimpleFilter.convert(requirement.getAttributes());
+        List<Capability> caps = new ArrayList<Capability>(set.match(sf, true));
+        Collections.sort(caps, HIGHEST_VERSION_FIRST);
+        return caps;
+    }
+
+    @Override
+    public int insertHostedCapability(List<Capability> capabilities, HostedCapability hostedCapability)
+    {
+        capabilities.add(hostedCapability);
+        return capabilities.size() - 1;
+    }
+
+    @Override
+    public boolean isEffective(Requirement requirement)
+    {
+        return true;
+    }
+
+    @Override
+    public Map<Resource, Wiring> getWirings()
+    {
+        return m_wirings;
+    }
+
+    private static Version getVersion(Capability cap, String attribute)
+    {
+        Object version = cap.getAttributes().get(attribute);
+        return (version instanceof Version) ? (Version) version : Version.emptyVersion;
+    }
+}
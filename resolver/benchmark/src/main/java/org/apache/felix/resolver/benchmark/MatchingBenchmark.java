@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+/**
+ * Measures parsing the filters of the requirements of a repository and
+ * matching them against the capabilities of the repository. Each
+ * invocation handles the next requirement, so the results are averages
+ * over all requirements. The framework's capability set and filter
+ * implementation is measured, so the repository capabilities are copied
+ * into framework capabilities first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MatchingBenchmark
+{
+    @Param({Repository.SYNTHETIC, Repository.RECORDED})
+    public String repository;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int fanOut;
+
+    private Map<String, CapabilitySet> m_capSets;
+    private String[] m_namespaces;
+    private String[] m_filters;
+    private SimpleFilter[] m_parsed;
+    private int m_next;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Repository repo = Repository.create(repository, size, fanOut);
+        m_capSets = createCapabilitySets(repo.getResources());
+        List<Requirement> reqs = new ArrayList<Requirement>();
+        for (Resource resource : repo.getResources())
+        {
+            for (Requirement req : resource.getRequirements(null))
+            {
+                if (req.getDirectives().containsKey(Namespace.REQUIREMENT_FILTER_DIRECTIVE)
+                    && m_capSets.containsKey(req.getNamespace()))
+                {
+                    reqs.add(req);
+                }
+            }
+        }
+        m_namespaces = new String[reqs.size()];
+        m_filters = new String[reqs.size()];
+        m_parsed = new SimpleFilter[reqs.size()];
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            m_namespaces[i] = reqs.get(i).getNamespace();
+            m_filters[i] = reqs.get(i).getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+            m_parsed[i] = SimpleFilter.parse(m_filters[i]);
+        }
+    }
+
+    private static Map<String, CapabilitySet> createCapabilitySets(Collection<Resource> resources)
+    {
+        Map<String, CapabilitySet> capSets = new HashMap<String, CapabilitySet>();
+        for (Resource resource : resources)
+        {
+            for (Capability cap : resource.getCapabilities(null))
+            {
+                String ns = cap.getNamespace();
+                CapabilitySet set = capSets.get(ns);
+                if (set == null)
+                {
+                    set = new CapabilitySet(Collections.singletonList(ns), true);
+                    capSets.put(ns, set);
+                }
+                set.addCapability(new BundleCapabilityImpl(
+                    null, ns, cap.getDirectives(), cap.getAttributes()));
+            }
+        }
+        return capSets;
+    }
+
+    private int next()
+    {
+        int i = m_next;
+        m_next = (i + 1 == m_filters.length) ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public SimpleFilter parse()
+    {
+        return SimpleFilter.parse(m_filters[next()]);
+    }
+
+    @Benchmark
+    public Set<?> match()
+    {
+        int i = next();
+        return m_capSets.get(m_namespaces[i]).match(m_parsed[i], true);
+    }
+}
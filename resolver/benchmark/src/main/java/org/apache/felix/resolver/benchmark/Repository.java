@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.felix.utils.json.JSONParser;
+import org.apache.felix.utils.resource.ResourceBuilder;
+import org.apache.felix.utils.resource.ResourceImpl;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+
+/**
+ * A set of resources to resolve against and the resources that must be
+ * resolved. Repositories are either generated from synthetic bundle
+ * manifests or loaded from a recorded resolution of a real-world
+ * application.
+ */
+public class Repository
+{
+    public static final String SYNTHETIC = "synthetic";
+    public static final String RECORDED = "recorded";
+
+    // The maximum number of packages a synthetic bundle imports.
+    private static final int MAX_IMPORTS = 8;
+
+    private final List<Resource> m_resources;
+    private final List<Resource> m_mandatory;
+
+    private Repository(List<Resource> resources, List<Resource> mandatory)
+    {
+        m_resources = resources;
+        m_mandatory = mandatory;
+    }
+
+    /**
+     * Creates a repository of the given type.
+     *
+     * @param type either {@link #SYNTHETIC} or {@link #RECORDED}.
+     * @param size the number of distinct bundles of a synthetic repository.
+     * @param fanOut the number of versions of each synthetic bundle.
+     * @return the repository.
+     */
+    public static Repository create(String type, int size, int fanOut)
+        throws IOException, BundleException
+    {
+        if (SYNTHETIC.equals(type))
+        {
+            return synthetic(size, fanOut, 42);
+        }
+        else if (RECORDED.equals(type))
+        {
+            return recorded("resolution.json");
+        }
+        throw new IllegalArgumentException("Unknown repository type: " + type);
+    }
+
+    /**
+     * Generates a repository of bundles b0 to b(size - 1), each of which is
+     * available in the versions 1.0.0 to fanOut.0.0. Bundle bi exports the
+     * package pi in the version of the bundle and imports some of the
+     * packages of the preceding bundles. Most imports accept any version
+     * and are used by the export. The others are restricted to the first
+     * major version, which makes the resolver wire older versions next to
+     * the latest ones. These are only used for packages that are unrelated
+     * by uses constraints to the other imports and are not used by the
+     * export, so they cause no uses constraint violations, which would make
+     * the resolve exponential.
+     * The latest version of every bundle is mandatory.
+     *
+     * @param size the number of distinct bundles.
+     * @param fanOut the number of versions of each bundle.
+     * @param seed the seed for choosing the imports.
+     * @return the repository.
+     */
+    public static Repository synthetic(int size, int fanOut, long seed)
+        throws BundleException
+    {
+        Random random = new Random(seed);
+        List<Resource> resources = new ArrayList<Resource>(size * fanOut);
+        List<Resource> mandatory = new ArrayList<Resource>(size);
+        // The packages each package uses transitively
+        List<Set<String>> closures = new ArrayList<Set<String>>(size);
+        for (int i = 0; i < size; i++)
+        {
+            Set<String> pkgs = new LinkedHashSet<String>();
+            int count = (i == 0) ? 0 : random.nextInt(Math.min(i, MAX_IMPORTS) + 1);
+            for (int j = 0; j < count; j++)
+            {
+                pkgs.add("p" + random.nextInt(i));
+            }
+            StringBuilder imports = new StringBuilder();
+            StringBuilder uses = new StringBuilder();
+            Set<String> closure = new HashSet<String>();
+            for (String pkg : pkgs)
+            {
+                if ((random.nextInt(8) == 0) && isIndependent(pkg, pkgs, closures))
+                {
+                    imports.append(pkg).append(";version=\"[1.0.0,2.0.0)\",");
+                }
+                else
+                {
+                    imports.append(pkg).append(";version=\"[1.0.0,").append(fanOut + 1).append(".0.0)\",");
+                    uses.append(pkg).append(',');
+                    closure.add(pkg);
+                    closure.addAll(closures.get(Integer.parseInt(pkg.substring(1))));
+                }
+            }
+            closures.add(closure);
+            for (int v = 1; v <= fanOut; v++)
+            {
+                Map<String, String> headers = new HashMap<String, String>();
+                headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+                headers.put(Constants.BUNDLE_SYMBOLICNAME, "b" + i);
+                headers.put(Constants.BUNDLE_VERSION, v + ".0.0");
+                String export = "p" + i + ";version=" + v + ".0.0";
+                if (uses.length() > 0)
+                {
+                    export += ";uses:=\"" + uses.substring(0, uses.length() - 1) + "\"";
+                }
+                headers.put(Constants.EXPORT_PACKAGE, export);
+                if (imports.length() > 0)
+                {
+                    headers.put(Constants.IMPORT_PACKAGE, imports.substring(0, imports.length() - 1));
+                }
+                ResourceImpl resource = ResourceBuilder.build(null, headers);
+                resources.add(resource);
+                if (v == fanOut)
+                {
+                    mandatory.add(resource);
+                }
+            }
+        }
+        return new Repository(resources, mandatory);
+    }
+
+    /**
+     * Returns whether none of the given imported packages uses the given
+     * package and the given package uses none of them, so that importing an
+     * older version of it cannot violate a uses constraint.
+     */
+    private static boolean isIndependent(String pkg, Set<String> pkgs, List<Set<String>> closures)
+    {
+        for (String other : pkgs)
+        {
+            if (!other.equals(pkg)
+                && (closures.get(Integer.parseInt(other.substring(1))).contains(pkg)
+                    || closures.get(Integer.parseInt(pkg.substring(1))).contains(other)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads a recorded repository in the format of the resolver tests, i.e.,
+     * a JSON object with lists of resources and mandatory resources, each
+     * of which has lists of capabilities and requirements in the syntax of
+     * the <tt>Provide-Capability</tt> and <tt>Require-Capability</tt>
+     * headers.
+     *
+     * @param name the name of the class path resource to load.
+     * @return the repository.
+     */
+    @SuppressWarnings("unchecked")
+    public static Repository recorded(String name) throws IOException, BundleException
+    {
+        Map<String, Object> resolution;
+        InputStream is = Repository.class.getClassLoader().getResourceAsStream(name);
+        if (is == null)
+        {
+            throw new IOException("Recorded repository not found: " + name);
+        }
+        try
+        {
+            resolution = new JSONParser(is).getParsed();
+        }
+        finally
+        {
+            is.close();
+        }
+
+        List<Resource> resources = new ArrayList<Resource>();
+        ResourceImpl system = new ResourceImpl();
+        system.addCapabilities(ResourceBuilder.parseCapability(system,
+            "osgi.ee; osgi.ee=JavaSE; version:List<Version>=\"1.5,1.6,1.7\""));
+        resources.add(system);
+        for (Object resource : (Collection<Object>) resolution.get("resources"))
+        {
+            resources.add(parseResource((Map<String, Object>) resource));
+        }
+        List<Resource> mandatory = new ArrayList<Resource>();
+        for (Object resource : (Collection<Object>) resolution.get("mandatory"))
+        {
+            mandatory.add(parseResource((Map<String, Object>) resource));
+        }
+        return new Repository(resources, mandatory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Resource parseResource(Map<String, Object> resource) throws BundleException
+    {
+        ResourceImpl res = new ResourceImpl();
+        Collection<String> caps = (Collection<String>) resource.get("capabilities");
+        if (caps != null)
+        {
+            for (String cap : caps)
+            {
+                res.addCapabilities(ResourceBuilder.parseCapability(res, cap));
+            }
+        }
+        Collection<String> reqs = (Collection<String>) resource.get("requirements");
+        if (reqs != null)
+        {
+            for (String req : reqs)
+            {
+                res.addRequirements(ResourceBuilder.parseRequirement(res, req));
+            }
+        }
+        return res;
+    }
+
+    public List<Resource> getResources()
+    {
+        return m_resources;
+    }
+
+    public List<Resource> getMandatoryResources()
+    {
+        return m_mandatory;
+    }
+
+    /**
+     * Returns a package exported by the last resource that exports any. In
+     * a synthetic repository, this is the package whose providers depend on
+     * the most other resources.
+     *
+     * @return the package name.
+     */
+    public String getLastPackage()
+    {
+        for (int i = m_resources.size() - 1; i >= 0; i--)
+        {
+            for (Capability cap : m_resources.get(i).getCapabilities(PackageNamespace.PACKAGE_NAMESPACE))
+            {
+                return (String) cap.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+            }
+        }
+        throw new IllegalStateException("No resource exports a package");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.benchmark;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.utils.resource.ResourceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+
+/**
+ * Measures complete resolves of the mandatory resources of a repository and
+ * dynamic imports of its last package by an otherwise resolved bundle.
+ * Recorded repositories ignore the size and fan-out parameters; a
+ * parallelism of 1 resolves on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class ResolverBenchmark
+{
+    @Param({Repository.SYNTHETIC, Repository.RECORDED})
+    public String repository;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    @Param({"1", "4"})
+    public int fanOut;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private ResolverImpl m_resolver;
+    private BenchmarkResolveContext m_context;
+    private Wiring m_hostWiring;
+    private Requirement m_dynamicReq;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Repository repo = Repository.create(repository, size, fanOut);
+        m_resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), parallelism);
+
+        // A resolved bundle without wires that dynamically imports anything.
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "dynamic.host");
+        headers.put(Constants.DYNAMICIMPORT_PACKAGE, "*");
+        Resource host = ResourceBuilder.build(null, headers);
+        m_hostWiring = new HostWiring(host);
+        m_dynamicReq = ResourceBuilder.parseRequirement(host,
+            PackageNamespace.PACKAGE_NAMESPACE + ";filter:=\"(" + PackageNamespace.PACKAGE_NAMESPACE
+            + "=" + repo.getLastPackage() + ")\";resolution:=dynamic").get(0);
+        m_context = new BenchmarkResolveContext(repo,
+            Collections.singletonMap(host, m_hostWiring));
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolve() throws Exception
+    {
+        return m_resolver.resolve(m_context);
+    }
+
+    @Benchmark
+    public Map<Resource, List<Wire>> resolveDynamic() throws Exception
+    {
+        return m_resolver.resolveDynamic(m_context, m_hostWiring, m_dynamicReq);
+    }
+
+    private static class HostWiring implements Wiring
+    {
+        private final Resource m_resource;
+
+        HostWiring(Resource resource)
+        {
+            m_resource = resource;
+        }
+
+        public List<Capability> getResourceCapabilities(String namespace)
+        {
+            return m_resource.getCapabilities(namespace);
+        }
+
+        public List<Requirement> getResourceRequirements(String namespace)
+        {
+            return m_resource.getRequirements(namespace);
+        }
+
+        public List<Wire> getProvidedResourceWires(String namespace)
+        {
+            return Collections.emptyList();
+        }
+
+        public List<Wire> getRequiredResourceWires(String namespace)
+        {
+            return Collections.emptyList();
+        }
+
+        public Resource getResource()
+        {
+            return m_resource;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package org.apache.felix.resolver.benchmark.jmh_generated;
+public class MatchingBenchmark_jmhType extends MatchingBenchmark_jmhType_B3 {
+}
+
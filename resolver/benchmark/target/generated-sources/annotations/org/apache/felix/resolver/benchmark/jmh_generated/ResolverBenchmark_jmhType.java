@@ -0,0 +1,4 @@
+package org.apache.felix.resolver.benchmark.jmh_generated;
+public class ResolverBenchmark_jmhType extends ResolverBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.apache.felix.resolver.jmh_generated;
+public class CandidatesBenchmark_jmhType extends CandidatesBenchmark_jmhType_B3 {
+}
+
@@ -51,7 +51,7 @@ class Candidates
     // Maps a capability to requirements that match it.
     private final OpenHashMapSet<Capability, Requirement> m_dependentMap;
     // Maps a requirement to the capability it matches.
-    private final OpenHashMapList m_candidateMap;
+    private final PersistentHashMap<Requirement, CandidateSelector> m_candidateMap;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<Resource, WrappedResource> m_allWrappedHosts;
@@ -62,6 +62,9 @@ class Candidates
 
     private final OpenHashMapSet<Requirement, Capability> m_delta;
     private final AtomicBoolean m_candidateSelectorsUnmodifiable;
+    // Number of selectors copied since this object was created, used to
+    // estimate the memory retained by a permutation.
+    private int m_copiedSelectors;
 
     /**
      * Private copy constructor used by the copy() method.
@@ -70,7 +73,7 @@ class Candidates
         ResolveSession session,
         AtomicBoolean candidateSelectorsUnmodifiable,
         OpenHashMapSet<Capability, Requirement> dependentMap,
-        OpenHashMapList candidateMap,
+        PersistentHashMap<Requirement, CandidateSelector> candidateMap,
         Map<Resource, WrappedResource> wrappedHosts,
         OpenHashMap<Resource, PopulateResult> populateResultCache,
         Map<Capability, Requirement> substitutableMap,
@@ -94,7 +97,7 @@ class Candidates
         m_session = session;
         m_candidateSelectorsUnmodifiable = new AtomicBoolean(false);
         m_dependentMap = new OpenHashMapSet<Capability, Requirement>();
-        m_candidateMap = new OpenHashMapList();
+        m_candidateMap = new PersistentHashMap<Requirement, CandidateSelector>();
         m_allWrappedHosts = new HashMap<Resource, WrappedResource>();
         m_populateResultCache = new OpenHashMap<Resource, PopulateResult>();
         m_subtitutableMap = new OpenHashMap<Capability, Requirement>();
@@ -351,6 +354,7 @@ class Candidates
                     CandidateSelector candidates = m_candidateMap.get(dependent);
                     if (candidates != null)
                     {
+                        boolean copied = false;
                         candidates:
                         while (!candidates.isEmpty())
                         {
@@ -367,7 +371,13 @@ class Candidates
                                     break candidates;
                                 case SUBSTITUTED:
                                 default:
-                                    // Need to remove any substituted that comes before an exported candidate
+                                    // Need to remove any substituted that comes before an exported candidate;
+                                    // the selector may be shared with other permutations so copy it first
+                                    if (!copied)
+                                    {
+                                        candidates = copySelector(dependent, candidates);
+                                        copied = true;
+                                    }
                                     candidates.removeCurrentCandidate();
                                     // continue to next candidate
                                     break;
@@ -712,7 +722,7 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        CandidateSelector candidates = m_candidateMap.get(req);
+        CandidateSelector candidates = copySelector(req, m_candidateMap.get(req));
         // Remove the conflicting candidate.
         Capability cap = candidates.removeCurrentCandidate();
         if (candidates.isEmpty())
@@ -724,6 +734,22 @@ class Candidates
         capPath.add(cap);
     }
 
+    /**
+     * Replaces the candidate selector of a requirement with a copy before
+     * it is modified, since selectors are shared between permutations.
+     *
+     * @param req the requirement.
+     * @param candidates the current candidate selector of the requirement.
+     * @return the copy that may be modified.
+     */
+    private CandidateSelector copySelector(Requirement req, CandidateSelector candidates)
+    {
+        candidates = candidates.copy();
+        m_candidateMap.put(req, candidates);
+        m_copiedSelectors++;
+        return candidates;
+    }
+
     public CandidateSelector clearMultipleCardinalityCandidates(Requirement req, Collection<Capability> caps)
     {
         // this is a special case where we need to completely replace the CandidateSelector
@@ -957,7 +983,6 @@ class Candidates
 
         populateSubstitutables();
 
-        m_candidateMap.trim();
         m_dependentMap.trim();
 
         // mark the selectors as unmodifiable now
@@ -1130,7 +1155,9 @@ class Candidates
 
     /**
      * Creates a copy of the Candidates object. This is used for creating
-     * permutations when package space conflicts are discovered.
+     * permutations when package space conflicts are discovered. The copy
+     * shares the candidate map and its selectors with this object, so only
+     * the candidates changed afterwards take up additional memory.
      *
      * @return copy of this Candidates object.
      */
@@ -1140,19 +1167,46 @@ class Candidates
                 m_session,
                 m_candidateSelectorsUnmodifiable,
                 m_dependentMap,
-                m_candidateMap.deepClone(),
+                m_candidateMap.copy(),
                 m_allWrappedHosts,
                 m_populateResultCache,
                 m_subtitutableMap,
                 m_delta.deepClone());
     }
 
+    /**
+     * Prepares this Candidates object to be copied and permutated by several
+     * threads, which it is not modified by afterwards as long as it is not
+     * modified otherwise.
+     */
+    public void freeze()
+    {
+        m_candidateMap.freeze();
+    }
+
+    /**
+     * Returns an estimate of the number of bytes allocated by this Candidates
+     * object that are not shared with the one it was copied from. Since the
+     * candidate map and the candidate selectors are shared between copies
+     * this is proportional to the number of changes made to the copy.
+     *
+     * @return the estimated number of retained bytes.
+     */
+    public long getRetainedSize()
+    {
+        // A candidate selector has three fields; the delta holds a
+        // set for each requirement that was permutated.
+        return m_candidateMap.getRetainedSize()
+            + 24L * m_copiedSelectors
+            + 48L * m_delta.size();
+    }
+
     public void dump(ResolveContext rc)
     {
         // Create set of all revisions from requirements.
         Set<Resource> resources = new CopyOnWriteSet<Resource>();
         for (Entry<Requirement, CandidateSelector> entry
-            : m_candidateMap.entrySet())
+            : m_candidateMap.fast())
         {
             resources.add(entry.getKey().getResource());
         }
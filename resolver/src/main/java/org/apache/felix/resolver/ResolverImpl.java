@@ -22,11 +22,14 @@ import java.security.*;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.resolver.reason.ReasonException;
 import org.apache.felix.resolver.util.ArrayMap;
 import org.apache.felix.resolver.util.CandidateSelector;
+import org.apache.felix.resolver.util.IdInterner;
 import org.apache.felix.resolver.util.OpenHashMap;
 import org.osgi.framework.namespace.*;
 import org.osgi.resource.*;
@@ -45,6 +48,22 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Package spaces of resolved resources computed by previous resolves,
+    // or null if they are not retained between resolves.
+    private final ConcurrentMap<Resource, ResolvedPackages> m_resolvedPackages;
+
+    // Whether uses constraint violations are learned to prune permutations.
+    private final boolean m_learnConflicts;
+
+    // Upper bound for the conflicts learned in a resolve, since each
+    // permutation is matched against all of them.
+    private static final int MAX_LEARNED_CONFLICTS = 1024;
+
+    // Totals over all resolves of this resolver.
+    private final AtomicLong m_reusedPackageSpaceCount = new AtomicLong();
+    private final AtomicLong m_learnedConflictCount = new AtomicLong();
+    private final AtomicLong m_prunedPermutationCount = new AtomicLong();
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -85,10 +104,22 @@ public class ResolverImpl implements Resolver
         private Candidates m_multipleCardCandidates = null;
         // The delta is used to detect that we have already processed this particular permutation
         private final Set<Object> m_processedDeltas = new HashSet<Object>();
+        // Statistics about the permutations created during the resolve
+        private int m_createdPermutations = 0;
+        private long m_permutationsRetainedSize = 0;
+        // Uses constraint violations learned from failed permutations
+        private final List<LearnedConflict> m_learnedConflicts = new ArrayList<LearnedConflict>();
+        private int m_prunedPermutations = 0;
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        // Retained package spaces that were checked against the wirings of this session.
+        private final ConcurrentMap<Resource, ResolvedPackages> m_validResolvedPackages = new ConcurrentHashMap<Resource, ResolvedPackages>();
+        // Dense ids of the resources and capabilities visited while computing
+        // package spaces, shared by all permutations of this session.
+        private final IdInterner<Resource> m_resourceIds = new IdInterner<Resource>();
+        private final IdInterner<Capability> m_capabilityIds = new IdInterner<Capability>();
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
 
@@ -139,6 +170,18 @@ public class ResolverImpl implements Resolver
             return m_usesCache;
         }
 
+        ConcurrentMap<Resource, ResolvedPackages> getValidResolvedPackages() {
+            return m_validResolvedPackages;
+        }
+
+        IdInterner<Resource> getResourceIds() {
+            return m_resourceIds;
+        }
+
+        IdInterner<Capability> getCapabilityIds() {
+            return m_capabilityIds;
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -170,6 +213,8 @@ public class ResolverImpl implements Resolver
         void addPermutation(PermutationType type, Candidates permutation) {
             if (permutation != null)
             {
+                m_createdPermutations++;
+                m_permutationsRetainedSize += permutation.getRetainedSize();
                 List<Candidates> typeToAddTo = null;
                 try {
                     switch (type) {
@@ -231,6 +276,12 @@ public class ResolverImpl implements Resolver
             m_substPermutations.clear();
             m_multipleCardCandidates = null;
             m_processedDeltas.clear();
+            m_createdPermutations = 0;
+            m_permutationsRetainedSize = 0;
+            // A learned conflict may only be fatal because of an optional
+            // resource that is no longer part of the resolve.
+            m_learnedConflicts.clear();
+            m_prunedPermutations = 0;
             m_currentError = null;
         }
 
@@ -260,6 +311,34 @@ public class ResolverImpl implements Resolver
             return (candidates != null) && !candidates.isEmpty();
         }
 
+        void debug(Logger logger, String message) {
+            logger.debug(message);
+        }
+
+        int getCreatedPermutationCount() {
+            return m_createdPermutations;
+        }
+
+        int getProcessedPermutationCount() {
+            return m_processedDeltas.size();
+        }
+
+        long getPermutationsRetainedSize() {
+            return m_permutationsRetainedSize;
+        }
+
+        List<LearnedConflict> getLearnedConflicts() {
+            return m_learnedConflicts;
+        }
+
+        int getPrunedPermutationCount() {
+            return m_prunedPermutations;
+        }
+
+        void permutationPruned() {
+            m_prunedPermutations++;
+        }
+
         long getPermutationCount() {
             return m_usesPermutations.size() + m_importPermutations.size() + m_substPermutations.size(); 
         }
@@ -348,6 +427,99 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    // Either a permutation to add or, if there is a requirement, the
+    // candidates to permutate for the requirement if needed.
+    static final class RecordedPermutation
+    {
+        final PermutationType m_type;
+        final Requirement m_req;
+        final Candidates m_candidates;
+
+        RecordedPermutation(PermutationType type, Requirement req, Candidates candidates)
+        {
+            m_type = type;
+            m_req = req;
+            m_candidates = candidates;
+        }
+    }
+
+    // A session for checking the package space of a single resource ahead
+    // of time, which records what the check does to the session so that it
+    // can be done to the resolve session once the resource is checked there.
+    // Only use in the context of a single thread.
+    static class SpeculativeSession extends ResolveSession
+    {
+        private final ResolveSession m_parent;
+        private final List<RecordedPermutation> m_permutations = new ArrayList<RecordedPermutation>();
+        private final List<String> m_messages = new ArrayList<String>();
+        private boolean m_checkedMultiple = false;
+        volatile private boolean m_isAbandoned = false;
+
+        SpeculativeSession(ResolveSession parent)
+        {
+            super(parent.getContext(), parent.getExecutor(), parent.getDynamicHost(),
+                parent.getDynamicRequirement(), parent.getDynamicCandidates());
+            m_parent = parent;
+        }
+
+        @Override
+        void addPermutation(PermutationType type, Candidates permutation) {
+            m_permutations.add(new RecordedPermutation(type, null, permutation));
+        }
+
+        @Override
+        void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
+            m_permutations.add(new RecordedPermutation(type, req, permutation));
+        }
+
+        @Override
+        boolean checkMultiple(UsedBlames usedBlames, Blame usedBlame, Candidates permutation) {
+            // The outcome depends on the candidates removed by the resources
+            // checked before, so the check has to be repeated in order.
+            m_checkedMultiple = true;
+            return false;
+        }
+
+        @Override
+        void debug(Logger logger, String message) {
+            m_messages.add(message);
+        }
+
+        boolean hasCheckedMultiple() {
+            return m_checkedMultiple;
+        }
+
+        /**
+         * Does what the check did to this session to the given session.
+         */
+        void replay(ResolveSession session, Logger logger) {
+            for (RecordedPermutation permutation : m_permutations)
+            {
+                if (permutation.m_req == null)
+                {
+                    session.addPermutation(permutation.m_type, permutation.m_candidates);
+                }
+                else
+                {
+                    session.permutateIfNeeded(permutation.m_type, permutation.m_req, permutation.m_candidates);
+                }
+            }
+            for (String message : m_messages)
+            {
+                session.debug(logger, message);
+            }
+        }
+
+        void abandon() {
+            m_isAbandoned = true;
+        }
+
+        @Override
+        boolean isCancelled() {
+            return m_isAbandoned || m_parent.isCancelled();
+        }
+    }
+
     public ResolverImpl(Logger logger)
     {
         this(logger, Runtime.getRuntime().availableProcessors());
@@ -358,13 +530,89 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_resolvedPackages = null;
+        this.m_learnConflicts = false;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, false);
+    }
+
+    /**
+     * Creates a resolver using the given executor. If the resolver is
+     * incremental, it retains the package spaces it computes for resolved
+     * resources and reuses them in later resolves as long as the wiring of
+     * the resource is unchanged, so that only the package spaces of the
+     * resolving resources and of resources whose wiring changed are
+     * recomputed.
+     *
+     * @param logger the logger.
+     * @param executor the executor used to compute package spaces.
+     * @param incremental whether package spaces of resolved resources are
+     * retained between resolves.
+     */
+    public ResolverImpl(Logger logger, Executor executor, boolean incremental)
+    {
+        this(logger, executor, incremental, false);
+    }
+
+    /**
+     * Creates a resolver using the given executor. If the resolver learns
+     * conflicts, each uses constraint violation is recorded together with
+     * the candidates selected for the resources involved in it, and later
+     * permutations selecting the same candidates fail immediately instead
+     * of having their package spaces computed.
+     *
+     * @param logger the logger.
+     * @param executor the executor used to compute package spaces.
+     * @param incremental whether package spaces of resolved resources are
+     * retained between resolves.
+     * @param learnConflicts whether uses constraint violations are learned
+     * to prune permutations.
+     */
+    public ResolverImpl(Logger logger, Executor executor, boolean incremental, boolean learnConflicts)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_resolvedPackages = incremental
+            ? new ConcurrentHashMap<Resource, ResolvedPackages>() : null;
+        this.m_learnConflicts = learnConflicts;
+    }
+
+    /**
+     * Returns the number of package spaces of resolved resources that were
+     * retained by a previous resolve and reused instead of computed, over
+     * all resolves of this resolver.
+     *
+     * @return the number of reused package spaces.
+     */
+    public long getReusedPackageSpaceCount()
+    {
+        return m_reusedPackageSpaceCount.get();
+    }
+
+    /**
+     * Returns the number of uses constraint conflicts learned over all
+     * resolves of this resolver.
+     *
+     * @return the number of learned conflicts.
+     */
+    public long getLearnedConflictCount()
+    {
+        return m_learnedConflictCount.get();
+    }
+
+    /**
+     * Returns the number of permutations pruned with learned conflicts over
+     * all resolves of this resolver.
+     *
+     * @return the number of pruned permutations.
+     */
+    public long getPrunedPermutationCount()
+    {
+        return m_prunedPermutationCount.get();
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -422,6 +670,7 @@ public class ResolverImpl implements Resolver
 
     private Map<Resource, List<Wire>> doResolve(ResolveSession session) throws ResolutionException {
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        pruneResolvedPackages(session.getContext());
         boolean retry;
         do
         {
@@ -436,6 +685,26 @@ public class ResolverImpl implements Resolver
                 Map<Resource, ResolutionError> faultyResources = new HashMap<Resource, ResolutionError>();
                 Candidates allCandidates = findValidCandidates(session, faultyResources);
                 session.checkForCancel();
+                if (m_learnConflicts)
+                {
+                    m_learnedConflictCount.addAndGet(session.getLearnedConflicts().size());
+                    m_prunedPermutationCount.addAndGet(session.getPrunedPermutationCount());
+                }
+                if (m_logger.isDebugEnabled())
+                {
+                    m_logger.debug("Resolver created " + session.getCreatedPermutationCount()
+                        + " candidate permutations and checked "
+                        + session.getProcessedPermutationCount()
+                        + "; they retained about "
+                        + session.getPermutationsRetainedSize() + " bytes");
+                    if (m_learnConflicts)
+                    {
+                        m_logger.debug("Resolver learned "
+                            + session.getLearnedConflicts().size()
+                            + " conflicts and pruned "
+                            + session.getPrunedPermutationCount() + " permutations with them");
+                    }
+                }
 
                 // If there is a resolve exception, then determine if an
                 // optionally resolved resource is to blame (typically a fragment).
@@ -608,6 +877,14 @@ public class ResolverImpl implements Resolver
         {
             return rethrow;
         }
+        if (m_learnConflicts)
+        {
+            rethrow = checkLearnedConflicts(session, allCandidates);
+            if (rethrow != null)
+            {
+                return rethrow;
+            }
+        }
         Map<Resource, Resource> allhosts = allCandidates.getRootHosts();
         // Calculate package spaces
         Map<Resource, Packages> resourcePkgMap =
@@ -616,35 +893,260 @@ public class ResolverImpl implements Resolver
         // Check package consistency
         Map<Resource, Object> resultCache =
                 new OpenHashMap<Resource, Object>(resourcePkgMap.size());
-        for (Entry<Resource, Resource> entry : allhosts.entrySet())
+        List<ResourceCheck> resourceChecks = Collections.emptyList();
+        if ((session.getExecutor() instanceof ForkJoinPool) && !session.isDynamic())
         {
-            rethrow = checkPackageSpaceConsistency(
-                    session, entry.getValue(),
-                    allCandidates, session.isDynamic(), resourcePkgMap, resultCache);
-            if (session.isCancelled()) {
-                return null;
-            }
-            if (rethrow != null)
+            resourceChecks = checkResourcesAhead(session, (ForkJoinPool) session.getExecutor(),
+                allCandidates, resourcePkgMap, resultCache);
+        }
+        try
+        {
+            for (Entry<Resource, Resource> entry : allhosts.entrySet())
             {
-                Resource faultyResource = entry.getKey();
-                // check that the faulty requirement is not from a fragment
-                for (Requirement faultyReq : rethrow.getUnresolvedRequirements())
+                rethrow = checkPackageSpaceConsistency(
+                        session, entry.getValue(),
+                        allCandidates, session.isDynamic(), resourcePkgMap, resultCache);
+                if (session.isCancelled()) {
+                    return null;
+                }
+                if (rethrow != null)
                 {
-                    if (faultyReq instanceof WrappedRequirement)
+                    Resource faultyResource = entry.getKey();
+                    // check that the faulty requirement is not from a fragment
+                    for (Requirement faultyReq : rethrow.getUnresolvedRequirements())
                     {
-                        faultyResource =
-                                ((WrappedRequirement) faultyReq)
-                                        .getDeclaredRequirement().getResource();
-                        break;
+                        if (faultyReq instanceof WrappedRequirement)
+                        {
+                            faultyResource =
+                                    ((WrappedRequirement) faultyReq)
+                                            .getDeclaredRequirement().getResource();
+                            break;
+                        }
+                    }
+                    currentFaultyResources.put(faultyResource, rethrow);
+                    error = rethrow;
+                    if (m_learnConflicts && !session.isDynamic())
+                    {
+                        learnConflict(session, allCandidates, resourcePkgMap,
+                            entry.getValue(), rethrow);
                     }
                 }
-                currentFaultyResources.put(faultyResource, rethrow);
-                error = rethrow;
+            }
+        }
+        finally
+        {
+            // The resources that were not reached need not be checked.
+            List<ResourceCheck> running = new ArrayList<ResourceCheck>();
+            for (ResourceCheck check : resourceChecks)
+            {
+                if (check.abandon())
+                {
+                    running.add(check);
+                }
+            }
+            for (ResourceCheck check : running)
+            {
+                check.quietlyJoin();
             }
         }
         return error;
     }
 
+    /**
+     * Starts checking the package spaces of the unresolved resources of a
+     * permutation on the given pool and adds the checks to the result cache,
+     * where checking the consistency of the permutation picks them up.
+     */
+    private List<ResourceCheck> checkResourcesAhead(
+        ResolveSession session, ForkJoinPool pool, Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap, Map<Resource, Object> resultCache)
+    {
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        List<ResourceCheck> checks = new ArrayList<ResourceCheck>();
+        // The checks and this thread copy the candidates concurrently to
+        // create permutations, which must not modify the candidates.
+        allCandidates.freeze();
+        for (Resource resource : resourcePkgMap.keySet())
+        {
+            if (!wirings.containsKey(resource))
+            {
+                ResourceCheck check = new ResourceCheck(
+                    session, resource, allCandidates, resourcePkgMap);
+                try
+                {
+                    pool.execute(check);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // The resource is checked when it is reached
+                    continue;
+                }
+                resultCache.put(resource, check);
+                checks.add(check);
+            }
+        }
+        return checks;
+    }
+
+    /**
+     * Records a uses constraint violation as the candidates selected for the
+     * unresolved requirements of all resources that determine the
+     * conflicting package spaces, together with the candidates selected
+     * along the path from the root resource to the violating resource. Any
+     * permutation selecting the same candidates reaches the violating
+     * resource while checking the root and fails with the same violation.
+     */
+    private void learnConflict(
+        ResolveSession session, Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap, Resource root,
+        ResolutionError error)
+    {
+        if (!(error instanceof UseConstraintError)
+            || session.getLearnedConflicts().size() >= MAX_LEARNED_CONFLICTS)
+        {
+            return;
+        }
+        UseConstraintError useError = (UseConstraintError) error;
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        Map<Requirement, Object> selections = new HashMap<Requirement, Object>();
+        if (!getPath(allCandidates, wirings, root, useError.m_resource, selections))
+        {
+            return;
+        }
+        List<Requirement> blameReqs = new ArrayList<Requirement>();
+        Set<Resource> resources = new LinkedHashSet<Resource>();
+        resources.add(useError.m_resource);
+        for (Blame blame : Arrays.asList(useError.m_blame1, useError.m_blame2))
+        {
+            if (blame == null)
+            {
+                continue;
+            }
+            if (blame.m_reqs != null)
+            {
+                for (Requirement req : blame.m_reqs)
+                {
+                    blameReqs.add(req);
+                    resources.add(req.getResource());
+                }
+            }
+            resources.add(blame.m_cap.getResource());
+            for (Capability source : getPackageSources(blame.m_cap, resourcePkgMap))
+            {
+                resources.add(source.getResource());
+            }
+        }
+
+        List<Resource> toProcess = new ArrayList<Resource>(resources);
+        for (int i = 0; i < toProcess.size(); i++)
+        {
+            Resource resource = toProcess.get(i);
+            if (wirings.containsKey(resource))
+            {
+                continue;
+            }
+            for (Requirement req : resource.getRequirements(null))
+            {
+                if (Util.isDynamic(req))
+                {
+                    continue;
+                }
+                Object selection = getSelection(allCandidates, req);
+                selections.put(req, selection);
+                // Package sources also depend on the exports of required bundles.
+                if (selection instanceof Capability
+                    && req.getNamespace().equals(BundleNamespace.BUNDLE_NAMESPACE)
+                    && resources.add(((Capability) selection).getResource()))
+                {
+                    toProcess.add(((Capability) selection).getResource());
+                }
+            }
+        }
+        session.getLearnedConflicts().add(
+            new LearnedConflict(selections, blameReqs, error));
+    }
+
+    /**
+     * Fails the given permutation with a learned conflict if it selects the
+     * same candidates, in which case permutations for the requirements
+     * blamed for the conflict are created. Since the other root resources
+     * are not checked, no faulty resources are reported for the permutation.
+     */
+    private ResolutionError checkLearnedConflicts(
+        ResolveSession session, Candidates allCandidates)
+    {
+        for (LearnedConflict conflict : session.getLearnedConflicts())
+        {
+            if (conflict.matches(allCandidates))
+            {
+                for (Requirement req : conflict.m_blameReqs)
+                {
+                    session.addPermutation(PermutationType.USES, allCandidates.permutate(req));
+                }
+                session.permutationPruned();
+                if (m_logger.isDebugEnabled())
+                {
+                    m_logger.debug("Candidate permutation failed due to a learned conflict; "
+                        + "will try another if possible. (" + conflict.m_error.getMessage() + ")");
+                }
+                return conflict.m_error;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the requirements through which checking the consistency of the
+     * root resource reaches the target resource and adds their selected
+     * candidates to the given selections.
+     */
+    private static boolean getPath(
+        Candidates allCandidates, Map<Resource, Wiring> wirings,
+        Resource root, Resource target, Map<Requirement, Object> selections)
+    {
+        // Maps each reached resource to the requirement it was reached by
+        Map<Resource, Requirement> reachedBy = new HashMap<Resource, Requirement>();
+        reachedBy.put(root, null);
+        LinkedList<Resource> queue = new LinkedList<Resource>();
+        queue.add(root);
+        while (!queue.isEmpty() && !reachedBy.containsKey(target))
+        {
+            Resource resource = queue.removeFirst();
+            if (wirings.containsKey(resource))
+            {
+                continue;
+            }
+            for (Requirement req : resource.getRequirements(null))
+            {
+                Capability cap = allCandidates.getFirstCandidate(req);
+                if (cap != null && !reachedBy.containsKey(cap.getResource()))
+                {
+                    reachedBy.put(cap.getResource(), req);
+                    queue.add(cap.getResource());
+                }
+            }
+        }
+        if (!reachedBy.containsKey(target))
+        {
+            return false;
+        }
+        for (Requirement req = reachedBy.get(target); req != null; req = reachedBy.get(req.getResource()))
+        {
+            selections.put(req, getSelection(allCandidates, req));
+        }
+        return true;
+    }
+
+    private static Object getSelection(Candidates allCandidates, Requirement req)
+    {
+        if (Util.isMultiple(req))
+        {
+            List<Capability> candidates = allCandidates.getCandidates(req);
+            return (candidates != null) ? new ArrayList<Capability>(candidates) : null;
+        }
+        return allCandidates.getFirstCandidate(req);
+    }
+
     public Map<Resource,List<Wire>> resolveDynamic(ResolveContext context,
             Wiring hostWiring, Requirement dynamicRequirement)
             throws ResolutionException
@@ -800,8 +1302,8 @@ public class ResolverImpl implements Resolver
                 resourcePkgs,
                 wire.requirement,
                 wire.capability,
-                new HashSet<Capability>(),
-                new HashSet<Resource>());
+                new BitSet(),
+                new BitSet());
         }
 
         return resourcePkgs;
@@ -825,7 +1327,7 @@ public class ResolverImpl implements Resolver
         // we need to calculate its uses constraints again to make sure the new
         // import is consistent with the existing package space.
         Wiring wiring = session.getContext().getWirings().get(resource);
-        Set<Capability> usesCycleMap = new HashSet<Capability>();
+        BitSet usesCycleMap = new BitSet();
 
         int size = wireCandidates.size();
         boolean isDynamicImporting = size > 0
@@ -905,10 +1407,10 @@ public class ResolverImpl implements Resolver
             Packages packages,
             Requirement currentReq,
             Capability candCap,
-            Set<Capability> capabilityCycles,
-            Set<Resource> visitedRequiredBundles)
+            BitSet capabilityCycles,
+            BitSet visitedRequiredBundles)
     {
-        if (!capabilityCycles.add(candCap))
+        if (!session.getCapabilityIds().add(capabilityCycles, candCap))
         {
             return;
         }
@@ -923,7 +1425,7 @@ public class ResolverImpl implements Resolver
         {
             // Get the candidate's package space to determine which packages
             // will be visible to the current resource.
-            if (visitedRequiredBundles.add(candCap.getResource()))
+            if (session.getResourceIds().add(visitedRequiredBundles, candCap.getResource()))
             {
                 // We have to merge all exported packages from the candidate,
                 // since the current resource requires it.
@@ -1020,7 +1522,7 @@ public class ResolverImpl implements Resolver
         ResolveSession session, Resource current, Packages currentPkgs,
         Capability mergeCap, List<Requirement> blameReqs, Capability matchingCap,
         Map<Resource, Packages> resourcePkgMap,
-        Set<Capability> cycleMap)
+        BitSet cycleMap)
     {
         // If there are no uses, then just return.
         // If the candidate resource is the same as the current resource,
@@ -1032,7 +1534,7 @@ public class ResolverImpl implements Resolver
         }
 
         // Check for cycles.
-        if (!cycleMap.add(mergeCap))
+        if (!session.getCapabilityIds().add(cycleMap, mergeCap))
         {
             return;
         }
@@ -1142,7 +1644,10 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    ResolvedPackages resolved = getResolvedPackages(session, resource);
+                    List<WireCandidate> wireCandidates = (resolved != null)
+                        ? resolved.m_wireCandidates
+                        : getWireCandidates(session, allCandidates, resource);
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1167,8 +1672,17 @@ public class ResolverImpl implements Resolver
 
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
+        // The package spaces retained from previous resolves are complete
+        final Set<Resource> resolvedResources = new HashSet<Resource>();
         for (final Resource resource : allWireCandidates.keySet())
         {
+            ResolvedPackages resolved = session.getValidResolvedPackages().get(resource);
+            if (resolved != null)
+            {
+                allPackages.put(resource, resolved.m_packages);
+                resolvedResources.add(resource);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1185,6 +1699,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (resolvedResources.contains(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1203,7 +1721,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !resolvedResources.contains(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1214,7 +1732,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !resolvedResources.contains(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1240,9 +1758,99 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        retainResolvedPackages(session, allWireCandidates, allPackages, resolvedResources);
+
         return allPackages;
     }
 
+    /**
+     * Returns the package space of a resolved resource retained from a
+     * previous resolve if the resource still has the same wiring.
+     */
+    private ResolvedPackages getResolvedPackages(ResolveSession session, Resource resource)
+    {
+        if (m_resolvedPackages == null || resource.equals(session.getDynamicHost()))
+        {
+            return null;
+        }
+        ResolvedPackages resolved = session.getValidResolvedPackages().get(resource);
+        if (resolved == null)
+        {
+            resolved = m_resolvedPackages.get(resource);
+            if (resolved != null)
+            {
+                if (resolved.isValid(session.getContext().getWirings().get(resource)))
+                {
+                    if (session.getValidResolvedPackages().putIfAbsent(resource, resolved) == null)
+                    {
+                        m_reusedPackageSpaceCount.incrementAndGet();
+                    }
+                }
+                else
+                {
+                    m_resolvedPackages.remove(resource, resolved);
+                    resolved = null;
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private void retainResolvedPackages(
+        ResolveSession session,
+        Map<Resource, List<WireCandidate>> allWireCandidates,
+        Map<Resource, Packages> allPackages,
+        Set<Resource> resolvedResources)
+    {
+        if (m_resolvedPackages == null)
+        {
+            return;
+        }
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            Wiring wiring = wirings.get(resource);
+            // The package space of a dynamically importing resource
+            // includes the import being resolved.
+            if (wiring != null && !resolvedResources.contains(resource)
+                && !resource.equals(session.getDynamicHost()))
+            {
+                ResolvedPackages resolved = new ResolvedPackages(
+                    wiring, entry.getValue(), allPackages.get(resource));
+                m_resolvedPackages.put(resource, resolved);
+                session.getValidResolvedPackages().put(resource, resolved);
+            }
+        }
+        if (m_logger.isDebugEnabled() && !allPackages.isEmpty())
+        {
+            m_logger.debug("Reused the package spaces of " + resolvedResources.size()
+                + " of " + allPackages.size() + " resources");
+        }
+    }
+
+    /**
+     * Removes the retained package spaces of resources that are no longer
+     * resolved or whose wiring changed.
+     */
+    private void pruneResolvedPackages(ResolveContext rc)
+    {
+        if (m_resolvedPackages == null || m_resolvedPackages.isEmpty())
+        {
+            return;
+        }
+        Map<Resource, Wiring> wirings = rc.getWirings();
+        for (Iterator<Map.Entry<Resource, ResolvedPackages>> it =
+            m_resolvedPackages.entrySet().iterator(); it.hasNext();)
+        {
+            Map.Entry<Resource, ResolvedPackages> entry = it.next();
+            if (wirings.get(entry.getKey()) != entry.getValue().m_wiring)
+            {
+                it.remove();
+            }
+        }
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -1327,11 +1935,74 @@ public class ResolverImpl implements Resolver
             return null;
         }
         Object cache = resultCache.get(resource);
-        if (cache != null)
+        ResolutionError rethrow;
+        if (cache instanceof ResourceCheck)
+        {
+            rethrow = ((ResourceCheck) cache).replay(session);
+        }
+        else if (cache != null)
         {
             return cache instanceof ResolutionError ? (ResolutionError) cache : null;
         }
+        else
+        {
+            rethrow = checkResourceConsistency(session, resource, allCandidates, resourcePkgMap);
+        }
+        if (rethrow != null)
+        {
+            return rethrow;
+        }
+
+        resultCache.put(resource, Boolean.TRUE);
+
+        // Now check the consistency of all resources on which the
+        // current resource depends. Keep track of the current number
+        // of permutations so we know if the lower level check was
+        // able to create a permutation or not in the case of failure.
+        long permCount = session.getPermutationCount();
+        for (Requirement req : resource.getRequirements(null))
+        {
+            Capability cap = allCandidates.getFirstCandidate(req);
+            if (cap != null)
+            {
+                if (!resource.equals(cap.getResource()))
+                {
+                    rethrow = checkPackageSpaceConsistency(
+                            session, cap.getResource(),
+                            allCandidates, false, resourcePkgMap, resultCache);
+                    if (session.isCancelled()) {
+                        return null;
+                    }
+                    if (rethrow != null)
+                    {
+                        // If the lower level check didn't create any permutations,
+                        // then we should create an import permutation for the
+                        // requirement with the dependency on the failing resource
+                        // to backtrack on our current candidate selection.
+                        if (permCount == session.getPermutationCount())
+                        {
+                            session.addPermutation(PermutationType.IMPORT, allCandidates.permutate(req));
+                        }
+                        return rethrow;
+                    }
+                }
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Checks the package space of a single resource for conflicts, without
+     * checking the resources it depends on. The result only depends on the
+     * given candidates and package spaces, except for the candidates of
+     * multiple cardinality requirements the session removes.
+     */
+    private ResolutionError checkResourceConsistency(
+        ResolveSession session,
+        Resource resource,
+        Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap)
+    {
         Packages pkgs = resourcePkgMap.get(resource);
 
         ResolutionError rethrow = null;
@@ -1366,7 +2037,7 @@ public class ResolverImpl implements Resolver
                                 sourceBlame, blame);
                         if (m_logger.isDebugEnabled())
                         {
-                            m_logger.debug(
+                            session.debug(m_logger,
                                     "Candidate permutation failed due to a conflict with a "
                                             + "fragment import; will try another if possible."
                                             + " (" + rethrow.getMessage() + ")");
@@ -1418,7 +2089,7 @@ public class ResolverImpl implements Resolver
                 }
                 if (m_logger.isDebugEnabled())
                 {
-                    m_logger.debug("Candidate permutation failed due to a conflict between "
+                    session.debug(m_logger, "Candidate permutation failed due to a conflict between "
                             + "an export and import; will try another if possible."
                             + " (" + rethrow.getMessage() + ")");
                 }
@@ -1497,7 +2168,7 @@ public class ResolverImpl implements Resolver
 
                     if (m_logger.isDebugEnabled())
                     {
-                        m_logger.debug("Candidate permutation failed due to a conflict between "
+                        session.debug(m_logger, "Candidate permutation failed due to a conflict between "
                                         + "imports; will try another if possible."
                                         + " (" + rethrow.getMessage() + ")"
                         );
@@ -1506,42 +2177,6 @@ public class ResolverImpl implements Resolver
                 }
             }
         }
-
-        resultCache.put(resource, Boolean.TRUE);
-
-        // Now check the consistency of all resources on which the
-        // current resource depends. Keep track of the current number
-        // of permutations so we know if the lower level check was
-        // able to create a permutation or not in the case of failure.
-        long permCount = session.getPermutationCount();
-        for (Requirement req : resource.getRequirements(null))
-        {
-            Capability cap = allCandidates.getFirstCandidate(req);
-            if (cap != null)
-            {
-                if (!resource.equals(cap.getResource()))
-                {
-                    rethrow = checkPackageSpaceConsistency(
-                            session, cap.getResource(),
-                            allCandidates, false, resourcePkgMap, resultCache);
-                    if (session.isCancelled()) {
-                        return null;
-                    }
-                    if (rethrow != null)
-                    {
-                        // If the lower level check didn't create any permutations,
-                        // then we should create an import permutation for the
-                        // requirement with the dependency on the failing resource
-                        // to backtrack on our current candidate selection.
-                        if (permCount == session.getPermutationCount())
-                        {
-                            session.addPermutation(PermutationType.IMPORT, allCandidates.permutate(req));
-                        }
-                        return rethrow;
-                    }
-                }
-            }
-        }
         return null;
     }
     
@@ -2101,6 +2736,141 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * A uses constraint violation and the candidates that were selected for
+     * the requirements involved in it.
+     */
+    private static final class LearnedConflict
+    {
+        final Map<Requirement, Object> m_selections;
+        final List<Requirement> m_blameReqs;
+        final ResolutionError m_error;
+
+        LearnedConflict(Map<Requirement, Object> selections, List<Requirement> blameReqs,
+            ResolutionError error)
+        {
+            m_selections = selections;
+            m_blameReqs = blameReqs;
+            m_error = error;
+        }
+
+        boolean matches(Candidates allCandidates)
+        {
+            for (Map.Entry<Requirement, Object> entry : m_selections.entrySet())
+            {
+                Requirement req = entry.getKey();
+                Object selection = Util.isMultiple(req)
+                    ? allCandidates.getCandidates(req)
+                    : allCandidates.getFirstCandidate(req);
+                if (selection == null ? entry.getValue() != null : !selection.equals(entry.getValue()))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Checks the package space of a resource on a fork/join pool before the
+     * resource is reached while checking the consistency of a permutation.
+     * Whichever of a worker of the pool and the resolving thread gets to the
+     * check first runs it; the resolving thread runs it with the resolve
+     * session, workers with a speculative session that is replayed.
+     */
+    private final class ResourceCheck extends RecursiveAction
+    {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int CLAIMED = 2;
+
+        private final Resource m_resource;
+        private final Candidates m_allCandidates;
+        private final Map<Resource, Packages> m_resourcePkgMap;
+        private final SpeculativeSession m_session;
+        private final AtomicInteger m_state = new AtomicInteger(NEW);
+        private ResolutionError m_error;
+
+        ResourceCheck(ResolveSession session, Resource resource,
+            Candidates allCandidates, Map<Resource, Packages> resourcePkgMap)
+        {
+            m_resource = resource;
+            m_allCandidates = allCandidates;
+            m_resourcePkgMap = resourcePkgMap;
+            m_session = new SpeculativeSession(session);
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (m_state.compareAndSet(NEW, RUNNING))
+            {
+                m_error = checkResourceConsistency(
+                    m_session, m_resource, m_allCandidates, m_resourcePkgMap);
+            }
+        }
+
+        ResolutionError replay(ResolveSession session)
+        {
+            if (m_state.compareAndSet(NEW, CLAIMED) || (m_state.get() == CLAIMED))
+            {
+                return checkResourceConsistency(
+                    session, m_resource, m_allCandidates, m_resourcePkgMap);
+            }
+            join();
+            if (m_session.hasCheckedMultiple())
+            {
+                return checkResourceConsistency(
+                    session, m_resource, m_allCandidates, m_resourcePkgMap);
+            }
+            m_session.replay(session, m_logger);
+            return m_error;
+        }
+
+        /**
+         * Abandons the check, returning whether it is running and must be
+         * joined before the consistency check completes.
+         */
+        boolean abandon()
+        {
+            if (m_state.compareAndSet(NEW, CLAIMED))
+            {
+                return false;
+            }
+            m_session.abandon();
+            return !isDone();
+        }
+    }
+
+    /**
+     * The package space of a resolved resource, which only depends on its
+     * wiring and the wirings of its providers. Since a provider can only be
+     * refreshed together with the resources wired to it, the package space
+     * stays valid as long as the resource has the same wiring and that
+     * wiring gained no dynamic imports.
+     */
+    private static final class ResolvedPackages
+    {
+        final Wiring m_wiring;
+        final int m_wireCount;
+        final List<WireCandidate> m_wireCandidates;
+        final Packages m_packages;
+
+        ResolvedPackages(Wiring wiring, List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_wiring = wiring;
+            m_wireCount = wiring.getRequiredResourceWires(null).size();
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+
+        boolean isValid(Wiring wiring)
+        {
+            return wiring == m_wiring
+                && wiring.getRequiredResourceWires(null).size() == m_wireCount;
+        }
+    }
+
     private static final class WireCandidate
     {
         public final Requirement requirement;
@@ -2468,6 +3238,8 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    // On a fork/join pool tasks are forked, so that workers waiting for
+    // them help executing them instead of blocking.
     private static class EnhancedExecutor
     {
         private final Executor executor;
@@ -2481,7 +3253,7 @@ public class ResolverImpl implements Resolver
 
         public void execute(final Runnable runnable)
         {
-            FutureTask<Void> task = new FutureTask<Void>(new Runnable()
+            Runnable wrapped = new Runnable()
             {
                 public void run()
                 {
@@ -2494,12 +3266,22 @@ public class ResolverImpl implements Resolver
                         throwable.compareAndSet(null, t);
                     }
                 }
-            }, (Void) null);
+            };
+            Future<Void> task = (executor instanceof ForkJoinPool)
+                ? ForkJoinTask.adapt(wrapped, (Void) null)
+                : new FutureTask<Void>(wrapped, (Void) null);
             // must have a happens-first to add the task to awaiting
             awaiting.add(task);
             try
             {
-                executor.execute(task);
+                if (ForkJoinTask.getPool() == executor)
+                {
+                    ((ForkJoinTask<Void>) task).fork();
+                }
+                else
+                {
+                    executor.execute((Runnable) task);
+                }
             }
             catch (Throwable t)
             {
@@ -2515,7 +3297,11 @@ public class ResolverImpl implements Resolver
             Future<Void> awaitTask;
             while (throwable.get() == null && (awaitTask = awaiting.poll()) != null)
             {
-                if (!awaitTask.isDone() && !awaitTask.isCancelled())
+                if (awaitTask instanceof ForkJoinTask)
+                {
+                    ((ForkJoinTask<Void>) awaitTask).quietlyJoin();
+                }
+                else if (!awaitTask.isDone() && !awaitTask.isCancelled())
                 {
                     try
                     {
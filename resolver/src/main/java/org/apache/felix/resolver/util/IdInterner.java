@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns dense int ids to objects, starting from zero, so that sets of
+ * them can be kept in a {@link BitSet} instead of a hash set. Objects are
+ * identified by their equals and hashCode methods, the same way a hash set
+ * identifies them, and keep their id for the lifetime of the interner.
+ * <p>
+ * Null is not supported. The interner is thread safe; looking up the id of
+ * an object that already has one does not lock.
+ */
+public class IdInterner<T> {
+
+    private final ConcurrentMap<T, Integer> m_ids;
+    private int m_size;
+
+    public IdInterner() {
+        m_ids = new ConcurrentHashMap<T, Integer>();
+    }
+
+    public IdInterner(int initialCapacity) {
+        m_ids = new ConcurrentHashMap<T, Integer>(initialCapacity);
+    }
+
+    /**
+     * Returns the id of the given object, assigning the next free id if the
+     * object has none yet.
+     */
+    public int getId(T o) {
+        Integer id = m_ids.get(o);
+        if (id == null) {
+            synchronized (this) {
+                id = m_ids.get(o);
+                if (id == null) {
+                    id = m_size++;
+                    m_ids.put(o, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Adds the id of the given object to the given set.
+     *
+     * @return true if the set did not already contain the object.
+     */
+    public boolean add(BitSet set, T o) {
+        int id = getId(o);
+        if (set.get(id)) {
+            return false;
+        }
+        set.set(id);
+        return true;
+    }
+
+    /**
+     * Returns the number of ids assigned so far.
+     */
+    public synchronized int size() {
+        return m_size;
+    }
+
+}
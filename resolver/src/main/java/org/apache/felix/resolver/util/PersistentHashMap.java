@@ -0,0 +1,396 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash array mapped trie whose copies share structure with the map they
+ * were copied from. {@link #copy()} is constant time; afterwards neither map
+ * modifies the shared nodes anymore, so each update copies only the path
+ * from the root to the changed entry. Nodes created by a map since its last
+ * copy are owned by it and are updated in place, which keeps populating a
+ * fresh map as cheap as with a mutable hash map.
+ * <p>
+ * Null keys and values are not supported and the map is not thread safe.
+ * A {@link #freeze() frozen} map owns no nodes, so reading and copying it
+ * does not modify it and may happen concurrently, as long as it is not
+ * modified meanwhile.
+ */
+public class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object[] EMPTY = new Object[0];
+
+    // Rough sizes of the allocated objects on a 64-bit VM with compressed
+    // references; only used to report the memory retained by a copy.
+    private static final int NODE_SIZE = 24;
+    private static final int ARRAY_SIZE = 16;
+    private static final int REF_SIZE = 4;
+    private static final int LEAF_SIZE = 24;
+
+    private Node m_root;
+    private int m_size;
+    // The owner of the nodes this map may update in place, or null if the
+    // map is frozen and owns no nodes.
+    private Object m_owner = new Object();
+    private long m_retained;
+
+    public PersistentHashMap() {
+        m_root = new Node(m_owner, 0, EMPTY);
+    }
+
+    private PersistentHashMap(PersistentHashMap<K, V> map) {
+        m_root = map.m_root;
+        m_size = map.m_size;
+    }
+
+    /**
+     * Returns a copy of this map in constant time. Both maps stop updating
+     * the nodes they share in place. Copying a frozen map does not modify it.
+     *
+     * @return a copy of this map.
+     */
+    public PersistentHashMap<K, V> copy() {
+        freeze();
+        return new PersistentHashMap<K, V>(this);
+    }
+
+    /**
+     * Stops this map from updating its nodes in place, so that it can be
+     * copied by several threads. The map owns new nodes again once it is
+     * modified.
+     */
+    public void freeze() {
+        if (m_owner != null) {
+            m_owner = null;
+            m_retained = 0;
+        }
+    }
+
+    private Object owner() {
+        if (m_owner == null) {
+            m_owner = new Object();
+        }
+        return m_owner;
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes allocated by this map since
+     * it was created or last copied, i.e., of the memory it does not share
+     * with other maps.
+     *
+     * @return the estimated number of retained bytes.
+     */
+    public long getRetainedSize() {
+        return m_retained;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int hash = hash(key);
+        Node node = m_root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+            } else {
+                for (Leaf leaf = (Leaf) slot; leaf != null; leaf = leaf.next) {
+                    if (leaf.hash == hash && leaf.key.equals(key)) {
+                        return (V) leaf.value;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        owner();
+        Object[] previous = new Object[1];
+        m_root = put(m_root, 0, new Leaf(hash(key), key, value, null), previous);
+        m_retained += LEAF_SIZE;
+        if (previous[0] == null) {
+            m_size++;
+        }
+        @SuppressWarnings("unchecked")
+        V result = (V) previous[0];
+        return result;
+    }
+
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        owner();
+        Object[] previous = new Object[1];
+        Node root = remove(m_root, 0, hash(key), key, previous);
+        if (previous[0] == null) {
+            return null;
+        }
+        m_root = (root != null) ? root : new Node(m_owner, 0, EMPTY);
+        m_size--;
+        @SuppressWarnings("unchecked")
+        V result = (V) previous[0];
+        return result;
+    }
+
+    /**
+     * Returns the entries of this map. The entries are shared with other
+     * copies of the map and do not support {@link Map.Entry#setValue}, and
+     * the map must not be modified while iterating.
+     *
+     * @return the entries of this map.
+     */
+    public Iterable<Map.Entry<K, V>> fast() {
+        return new Iterable<Map.Entry<K, V>>() {
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    private Node editable(Node node) {
+        if (node.owner == m_owner) {
+            return node;
+        }
+        m_retained += NODE_SIZE + ARRAY_SIZE + REF_SIZE * node.slots.length;
+        return new Node(m_owner, node.bitmap, node.slots.clone());
+    }
+
+    private Node put(Node node, int shift, Leaf leaf, Object[] previous) {
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int idx = Integer.bitCount(node.bitmap & (bit - 1));
+        node = editable(node);
+        if ((node.bitmap & bit) == 0) {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, idx);
+            slots[idx] = leaf;
+            System.arraycopy(node.slots, idx, slots, idx + 1, node.slots.length - idx);
+            m_retained += REF_SIZE * slots.length;
+            node.slots = slots;
+            node.bitmap |= bit;
+            return node;
+        }
+        Object slot = node.slots[idx];
+        if (slot instanceof Node) {
+            node.slots[idx] = put((Node) slot, shift + BITS, leaf, previous);
+        } else {
+            Leaf other = (Leaf) slot;
+            if (other.hash == leaf.hash) {
+                node.slots[idx] = putCollision(other, leaf, previous);
+            } else {
+                // Push the existing leaf one level down, which ends at the
+                // latest when the remaining bits of both hashes differ.
+                Node child = new Node(m_owner, 0, EMPTY);
+                m_retained += NODE_SIZE;
+                child = put(child, shift + BITS, other, previous);
+                node.slots[idx] = put(child, shift + BITS, leaf, previous);
+            }
+        }
+        return node;
+    }
+
+    private Leaf putCollision(Leaf chain, Leaf leaf, Object[] previous) {
+        if (chain == null) {
+            return leaf;
+        }
+        if (chain.key.equals(leaf.key)) {
+            previous[0] = chain.value;
+            return new Leaf(leaf.hash, leaf.key, leaf.value, chain.next);
+        }
+        Leaf next = putCollision(chain.next, leaf, previous);
+        m_retained += LEAF_SIZE;
+        return new Leaf(chain.hash, chain.key, chain.value, next);
+    }
+
+    private Node remove(Node node, int shift, int hash, Object key, Object[] previous) {
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int idx = Integer.bitCount(node.bitmap & (bit - 1));
+        Object slot = node.slots[idx];
+        Object replacement;
+        if (slot instanceof Node) {
+            replacement = remove((Node) slot, shift + BITS, hash, key, previous);
+        } else {
+            replacement = removeCollision((Leaf) slot, hash, key, previous);
+        }
+        if (previous[0] == null) {
+            return node;
+        }
+        node = editable(node);
+        if (replacement != null) {
+            node.slots[idx] = replacement;
+            return node;
+        }
+        if (node.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, idx);
+        System.arraycopy(node.slots, idx + 1, slots, idx, slots.length - idx);
+        m_retained += REF_SIZE * slots.length;
+        node.slots = slots;
+        node.bitmap &= ~bit;
+        return node;
+    }
+
+    private Leaf removeCollision(Leaf chain, int hash, Object key, Object[] previous) {
+        if (chain == null) {
+            return null;
+        }
+        if (chain.hash == hash && chain.key.equals(key)) {
+            previous[0] = chain.value;
+            return chain.next;
+        }
+        Leaf next = removeCollision(chain.next, hash, key, previous);
+        if (previous[0] == null) {
+            return chain;
+        }
+        m_retained += LEAF_SIZE;
+        return new Leaf(chain.hash, chain.key, chain.value, next);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * -1640531527;
+        return h ^ h >>> 16;
+    }
+
+    private static final class Node {
+        final Object owner;
+        int bitmap;
+        Object[] slots;
+
+        Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+    }
+
+    private static final class Leaf implements Map.Entry<Object, Object> {
+        final int hash;
+        final Object key;
+        final Object value;
+        // Leaves with the same hash are chained.
+        final Leaf next;
+
+        Leaf(int hash, Object key, Object value, Leaf next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        // The depth of the trie is bounded by the number of hash bits.
+        private final Node[] nodes = new Node[(32 + BITS - 1) / BITS + 1];
+        private final int[] indexes = new int[nodes.length];
+        private int depth = 0;
+        private Leaf next;
+
+        EntryIterator() {
+            nodes[0] = m_root;
+            advance();
+        }
+
+        private void advance() {
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (indexes[depth] >= node.slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slots[indexes[depth]++];
+                if (slot instanceof Node) {
+                    depth++;
+                    nodes[depth] = (Node) slot;
+                    indexes[depth] = 0;
+                } else {
+                    next = (Leaf) slot;
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf current = next;
+            if (current.next != null) {
+                next = current.next;
+            } else {
+                advance();
+            }
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) current;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.resolver.util.IdInterner;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IdInternerTest
+{
+    @Test
+    public void testEqualObjectsShareAnId() throws Exception
+    {
+        IdInterner<String> ids = new IdInterner<String>();
+        assertEquals(0, ids.getId("a"));
+        assertEquals(1, ids.getId("b"));
+        assertEquals(0, ids.getId(new String("a")));
+        assertEquals(2, ids.size());
+
+        BitSet set = new BitSet();
+        assertTrue(ids.add(set, "b"));
+        assertFalse(ids.add(set, new String("b")));
+        assertTrue(ids.add(set, "c"));
+        assertEquals(2, set.cardinality());
+        assertEquals(3, ids.size());
+    }
+
+    @Test
+    public void testConcurrentIdsAreDense() throws Exception
+    {
+        final IdInterner<Integer> ids = new IdInterner<Integer>();
+        final int count = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++)
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        ids.getId(i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(count, ids.size());
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            int id = ids.getId(i);
+            assertTrue(id >= 0 && id < count);
+            assertTrue(seen.add(id));
+        }
+    }
+}
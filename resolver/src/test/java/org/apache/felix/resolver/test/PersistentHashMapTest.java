@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.felix.resolver.util.PersistentHashMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashMapTest
+{
+    @Test
+    public void testCopiesAreIndependent() throws Exception
+    {
+        // Keys with few distinct hash codes exercise the collision chains
+        // as well as the trie nodes.
+        Random random = new Random(42);
+        List<PersistentHashMap<Key, Integer>> maps = new ArrayList<PersistentHashMap<Key, Integer>>();
+        List<Map<Key, Integer>> expected = new ArrayList<Map<Key, Integer>>();
+        maps.add(new PersistentHashMap<Key, Integer>());
+        expected.add(new HashMap<Key, Integer>());
+        for (int i = 0; i < 20000; i++)
+        {
+            int idx = random.nextInt(maps.size());
+            PersistentHashMap<Key, Integer> map = maps.get(idx);
+            Map<Key, Integer> reference = expected.get(idx);
+            Key key = new Key(random.nextInt(500), random.nextInt(4) == 0);
+            int op = random.nextInt(10);
+            if (op < 5)
+            {
+                assertEquals(reference.put(key, i), map.put(key, i));
+            }
+            else if (op < 8)
+            {
+                assertEquals(reference.remove(key), map.remove(key));
+            }
+            else if (maps.size() < 50)
+            {
+                maps.add(map.copy());
+                expected.add(new HashMap<Key, Integer>(reference));
+            }
+        }
+        for (int i = 0; i < maps.size(); i++)
+        {
+            PersistentHashMap<Key, Integer> map = maps.get(i);
+            Map<Key, Integer> reference = expected.get(i);
+            assertEquals(reference.size(), map.size());
+            Map<Key, Integer> entries = new HashMap<Key, Integer>();
+            for (Map.Entry<Key, Integer> entry : map.fast())
+            {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+            assertEquals(reference, entries);
+            for (Map.Entry<Key, Integer> entry : reference.entrySet())
+            {
+                assertEquals(entry.getValue(), map.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testCopyRetainsOnlyChanges() throws Exception
+    {
+        PersistentHashMap<Key, Integer> map = new PersistentHashMap<Key, Integer>();
+        for (int i = 0; i < 10000; i++)
+        {
+            map.put(new Key(i, false), i);
+        }
+        PersistentHashMap<Key, Integer> copy = map.copy();
+        assertEquals(0, copy.getRetainedSize());
+        copy.put(new Key(1, false), -1);
+        assertTrue(copy.getRetainedSize() < 1000);
+        assertEquals(Integer.valueOf(1), map.get(new Key(1, false)));
+        assertEquals(Integer.valueOf(-1), copy.get(new Key(1, false)));
+    }
+
+    @Test
+    public void testFrozenMapIsCopiedConcurrently() throws Exception
+    {
+        final PersistentHashMap<Key, Integer> map = new PersistentHashMap<Key, Integer>();
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put(new Key(i, i % 3 == 0), i);
+        }
+        map.freeze();
+
+        // Each thread keeps changing its own copies of the shared map.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++)
+            {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        for (int i = 0; i < 200; i++)
+                        {
+                            PersistentHashMap<Key, Integer> copy = map.copy();
+                            for (int j = 0; j < 1000; j += 7)
+                            {
+                                copy.put(new Key(j, j % 3 == 0), -thread);
+                            }
+                            if (copy.get(new Key(7, false)) != -thread)
+                            {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results)
+            {
+                assertTrue(result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++)
+        {
+            assertEquals(Integer.valueOf(i), map.get(new Key(i, i % 3 == 0)));
+        }
+
+        // A frozen map owns new nodes again once it is changed.
+        map.put(new Key(1, false), -1);
+        assertTrue(map.getRetainedSize() > 0);
+        assertEquals(Integer.valueOf(-1), map.get(new Key(1, false)));
+    }
+
+    private static class Key
+    {
+        private final int m_id;
+        private final boolean m_collide;
+
+        Key(int id, boolean collide)
+        {
+            m_id = id;
+            m_collide = collide;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_collide ? m_id % 7 : m_id;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof Key)
+                && ((Key) o).m_id == m_id && ((Key) o).m_collide == m_collide;
+        }
+    }
+}
@@ -32,6 +32,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolverImpl;
@@ -1209,6 +1211,188 @@ public class ResolverTest
         return null;
     }
 
+    @Test
+    public void testIncrementalResolve() throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_ERROR), new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        }, true);
+
+        // A is resolved and exports p, which uses q wired to Q1.
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_pkgCap = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_pkgCap = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl a = new ResourceImpl("A");
+        Capability a_pkgCap = addCap(a, PackageNamespace.PACKAGE_NAMESPACE, "p", "q");
+        Requirement a_pkgReq = addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "q");
+
+        // B imports p and q and prefers q from Q2.
+        ResourceImpl b = new ResourceImpl("B");
+        Requirement b_pkgReq1 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "p");
+        Requirement b_pkgReq2 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "q");
+
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        candMap.put(b_pkgReq1, Collections.singletonList(a_pkgCap));
+        candMap.put(b_pkgReq2, Arrays.asList(q2_pkgCap, q1_pkgCap));
+
+        Map<Resource, List<Wire>> wires = new HashMap<Resource, List<Wire>>();
+        wires.put(a, Arrays.<Wire>asList(new SimpleWire(a_pkgReq, q1_pkgCap)));
+        wires.put(q1, new ArrayList<Wire>());
+        Map<Resource, List<Wire>> invertedWires = new HashMap<Resource, List<Wire>>();
+        invertedWires.put(a, new ArrayList<Wire>());
+        invertedWires.put(q1, Arrays.<Wire>asList(new SimpleWire(a_pkgReq, q1_pkgCap)));
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        wirings.put(a, new SimpleWiring(a, Arrays.asList(a_pkgCap), wires, invertedWires));
+        wirings.put(q1, new SimpleWiring(q1, Arrays.asList(q1_pkgCap), wires, invertedWires));
+
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource>singletonList(b), Collections.<Resource>emptyList());
+
+        for (int i = 0; i < 2; i++)
+        {
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            List<Wire> wiresB = wireMap.get(b);
+            assertEquals(2, wiresB.size());
+            // The uses constraint of p forces B to import q from Q1.
+            for (Wire wire : wiresB)
+            {
+                if (wire.getRequirement().equals(b_pkgReq2))
+                {
+                    assertEquals(q1, wire.getProvider());
+                }
+            }
+            // The second resolve reused the package spaces of A and Q1.
+            assertEquals(2 * i, resolver.getReusedPackageSpaceCount());
+        }
+    }
+
+    @Test
+    public void testConflictLearning() throws Exception
+    {
+        // A exports p, which uses q from Q3. B imports p and prefers q from
+        // Q1 and then from Q2, both of which conflict with A. Q2 exports q
+        // using r from C, which imports q from Q3 or Q2. Trying another
+        // candidate for C does not resolve the conflict of B.
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        ResourceImpl q1 = new ResourceImpl("Q1");
+        Capability q1_pkgCap = addCap(q1, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl q2 = new ResourceImpl("Q2");
+        Capability q2_pkgCap = addCap(q2, PackageNamespace.PACKAGE_NAMESPACE, "q", "r");
+        Requirement q2_pkgReq = addReq(q2, PackageNamespace.PACKAGE_NAMESPACE, "r");
+        ResourceImpl q3 = new ResourceImpl("Q3");
+        Capability q3_pkgCap = addCap(q3, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        ResourceImpl c = new ResourceImpl("C");
+        Capability c_pkgCap = addCap(c, PackageNamespace.PACKAGE_NAMESPACE, "r", "q");
+        Requirement c_pkgReq = addReq(c, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        candMap.put(q2_pkgReq, Collections.singletonList(c_pkgCap));
+        candMap.put(c_pkgReq, Arrays.asList(q3_pkgCap, q2_pkgCap));
+        ResourceImpl a = new ResourceImpl("A");
+        Capability a_pkgCap = addCap(a, PackageNamespace.PACKAGE_NAMESPACE, "p", "q");
+        Requirement a_pkgReq = addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        candMap.put(a_pkgReq, Collections.singletonList(q3_pkgCap));
+        ResourceImpl b = new ResourceImpl("B");
+        Requirement b_pkgReq1 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "p");
+        Requirement b_pkgReq2 = addReq(b, PackageNamespace.PACKAGE_NAMESPACE, "q");
+        candMap.put(b_pkgReq1, Collections.singletonList(a_pkgCap));
+        candMap.put(b_pkgReq2, Arrays.asList(q1_pkgCap, q2_pkgCap, q3_pkgCap));
+
+        Logger logger = new Logger(Logger.LOG_ERROR);
+        Executor executor = new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        for (boolean learnConflicts : new boolean[] {false, true})
+        {
+            ResolverImpl resolver = new ResolverImpl(logger, executor, false, learnConflicts);
+            ResolveContextImpl rci = new ResolveContextImpl(new HashMap<Resource, Wiring>(), candMap,
+                Collections.<Resource>singletonList(b), Collections.<Resource>emptyList());
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            List<Wire> wiresB = wireMap.get(b);
+            assertEquals(2, wiresB.size());
+            for (Wire wire : wiresB)
+            {
+                assertEquals(wire.getRequirement().equals(b_pkgReq1) ? a : q3, wire.getProvider());
+            }
+            // The permutation for C recreated the conflict between Q2 and A
+            // and was pruned without calculating its package spaces.
+            assertEquals(learnConflicts ? 2 : 0, resolver.getLearnedConflictCount());
+            assertEquals(learnConflicts ? 1 : 0, resolver.getPrunedPermutationCount());
+        }
+    }
+
+    @Test
+    public void testForkJoinResolve() throws Exception
+    {
+        // Checking the package spaces of resources ahead of time on a
+        // fork/join pool must leave the permutations and their order as
+        // they are when checking in sequence.
+        Executor sequential = new Executor()
+        {
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            for (int scenario = 1; scenario <= 8; scenario++)
+            {
+                List<String> expected = resolveScenario(scenario, sequential);
+                assertEquals("Scenario " + scenario, expected, resolveScenario(scenario, pool));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Resolves a scenario with the given executor, returning the debug
+     * messages logged and the resulting wires or the resolution error.
+     */
+    private List<String> resolveScenario(int scenario, Executor executor) throws Exception
+    {
+        final List<String> messages = new ArrayList<String>();
+        Logger logger = new Logger(Logger.LOG_DEBUG)
+        {
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable)
+            {
+                // The retained sizes depend on the identity hash codes of requirements
+                messages.add(msg.replaceFirst("retained about \\d+ bytes", "retained"));
+            }
+        };
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        Method populate = ResolverTest.class.getDeclaredMethod("populateScenario" + scenario, Map.class, Map.class);
+        @SuppressWarnings("unchecked")
+        List<Resource> mandatory = (List<Resource>) populate.invoke(null, wirings, candMap);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+        try
+        {
+            Map<Resource, List<Wire>> wireMap = new ResolverImpl(logger, executor, false, true).resolve(rci);
+            for (Resource resource : mandatory)
+            {
+                messages.add(resource + ": " + wireMap.get(resource));
+            }
+        }
+        catch (ResolutionException e)
+        {
+            messages.add(e.getMessage());
+        }
+        return messages;
+    }
+
     private static List<Resource> populateScenario1(Map<Resource, Wiring> wirings, Map<Requirement, List<Capability>> candMap)
     {
         ResourceImpl exporter = new ResourceImpl("A");
@@ -18,24 +18,11 @@
  */
 package org.apache.felix.scr.impl;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -47,8 +34,6 @@ import org.apache.felix.scr.impl.logger.ScrLoggerFactory;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
-import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
-import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
 import org.apache.felix.scr.impl.runtime.ServiceComponentRuntimeImpl;
 import org.osgi.framework.Bundle;
@@ -99,11 +84,14 @@ public class Activator extends AbstractExtender
     //  thread acting upon configurations
     private ComponentActorExecutor m_componentActor;
 
+    // threads enabling components in parallel, created on demand
+    private ComponentActivationExecutor m_componentActivation;
+
     private ServiceRegistration<ServiceComponentRuntime> m_runtime_reg;
 
     private ComponentCommands m_componentCommands;
 
-    private ConcurrentMap<Long, List<ComponentMetadata>> m_componentMetadataStore;
+    private ComponentMetadataStore m_componentMetadataStore;
 
     public Activator()
     {
@@ -158,7 +146,7 @@ public class Activator extends AbstractExtender
 
     public void restart(boolean globalExtender, boolean initialStart)
     {
-        m_componentMetadataStore = load(m_context, logger,
+        m_componentMetadataStore = ComponentMetadataStore.load(m_context, logger,
             m_configuration.cacheMetadata());
         BundleContext context = m_globalContext;
         if ( globalExtender )
@@ -239,7 +227,7 @@ public class Activator extends AbstractExtender
     {
         super.stop( context );
         m_configuration.stop();
-        store(m_componentMetadataStore, context, logger, m_configuration.cacheMetadata());
+        m_componentMetadataStore.store();
         logger.close();
     }
 
@@ -278,130 +266,6 @@ public class Activator extends AbstractExtender
         }
     }
 
-    private static ConcurrentMap<Long, List<ComponentMetadata>> load(
-        BundleContext context,
-        ScrLogger logger, boolean loadFromCache)
-    {
-        try
-        {
-            ConcurrentMap<Long, List<ComponentMetadata>> result = new ConcurrentHashMap<>();
-            if (!loadFromCache)
-            {
-                return result;
-            }
-            BundleContext systemContext = context.getBundle(
-                Constants.SYSTEM_BUNDLE_LOCATION).getBundleContext();
-
-            File store = context.getDataFile("componentMetadataStore");
-            if (store.isFile())
-            {
-                try (DataInputStream in = new DataInputStream(
-                    new BufferedInputStream(new FileInputStream(store))))
-                {
-                    MetaDataReader metaDataReader = new MetaDataReader();
-                    if (!metaDataReader.isVersionSupported(in))
-                    {
-                        // the stored version is not compatible
-                        return result;
-                    }
-                    int numStrings = in.readInt();
-                    for (int i = 0; i < numStrings; i++)
-                    {
-                        metaDataReader.readIndexedString(in);
-                    }
-                    int numBundles = in.readInt();
-                    for (int i = 0; i < numBundles; i++)
-                    {
-                        // Read all the components for the ID even if the bundle does not exist;
-                        long bundleId = in.readLong();
-                        int numComponents = in.readInt();
-                        long lastModified = in.readLong();
-                        List<ComponentMetadata> components = new ArrayList<>(
-                            numComponents);
-                        for (int j = 0; j < numComponents; j++)
-                        {
-                            components.add(ComponentMetadata.load(in, metaDataReader));
-                        }
-                        // Check with system context by ID to avoid hooks hiding;
-                        Bundle b = systemContext.getBundle(bundleId);
-                        if (b != null)
-                        {
-                            if (lastModified == b.getLastModified())
-                            {
-                                result.put(bundleId, components);
-                            }
-                        }
-                    }
-                }
-                catch (IOException e)
-                {
-                    logger.log(Level.WARN,
-                        "Error loading component metadata cache.", e);
-                }
-            }
-            return result;
-        }
-        catch (RuntimeException re)
-        {
-            // avoid failing all of SCR start on cache load bug
-            logger.log(Level.ERROR,
-                "Error loading component metadata cache.", re);
-            return new ConcurrentHashMap<>();
-        }
-
-    }
-
-    private static void store(Map<Long, List<ComponentMetadata>> componentsMap,
-        BundleContext context, ScrLogger logger, boolean storeCache)
-    {
-        if (!storeCache)
-        {
-            return;
-        }
-        BundleContext systemContext = context.getBundle(
-            Constants.SYSTEM_BUNDLE_LOCATION).getBundleContext();
-        File store = context.getDataFile("componentMetadataStore");
-        try (DataOutputStream out = new DataOutputStream(
-            new BufferedOutputStream(new FileOutputStream(store))))
-        {
-            MetaDataWriter metaDataWriter = new MetaDataWriter();
-            metaDataWriter.writeVersion(out);
-
-            Set<String> allStrings = new HashSet<>();
-            for (List<ComponentMetadata> components : componentsMap.values())
-            {
-                for (ComponentMetadata component : components)
-                {
-                    component.collectStrings(allStrings);
-                }
-            }
-            // remove possible null
-            allStrings.remove(null);
-            out.writeInt(allStrings.size());
-            for (String s : allStrings)
-            {
-                metaDataWriter.writeIndexedString(s, out);
-            }
-            out.writeInt(componentsMap.size());
-            for (Entry<Long, List<ComponentMetadata>> entry : componentsMap.entrySet())
-            {
-                out.writeLong(entry.getKey());
-                out.writeInt(entry.getValue().size());
-                Bundle b = systemContext.getBundle(entry.getKey());
-                out.writeLong(b == null ? -1 : b.getLastModified());
-                for (ComponentMetadata component : entry.getValue())
-                {
-                    component.store(out, metaDataWriter);
-                }
-            }
-        }
-        catch (IOException e)
-        {
-            logger.log(Level.WARN, "Error storing component metadata cache.",
-                e);
-        }
-    }
-
     /**
      * Unregisters this instance as a bundle listener and unloads all components
      * which have been registered during the active life time of the SCR
@@ -434,6 +298,16 @@ public class Activator extends AbstractExtender
             m_componentActor.shutdownNow();
             m_componentActor = null;
         }
+
+        // terminate the activation threads
+        synchronized ( this )
+        {
+            if ( m_componentActivation != null )
+            {
+                m_componentActivation.shutdownNow();
+                m_componentActivation = null;
+            }
+        }
         ClassUtils.setFrameworkWiring(null);
     }
 
@@ -528,7 +402,7 @@ public class Activator extends AbstractExtender
     private void loadComponents(Bundle bundle)
     {
         final Long bundleId = bundle.getBundleId();
-        List<ComponentMetadata> cached = m_componentMetadataStore.get(bundleId);
+        List<ComponentMetadata> cached = m_componentMetadataStore.get(bundle);
         if (cached != null && cached.isEmpty())
         {
             // Cached that there are no components for this bundle.
@@ -607,12 +481,13 @@ public class Activator extends AbstractExtender
         {
             BundleComponentActivator ga = new BundleComponentActivator( this.logger, m_componentRegistry, m_componentActor,
                 context, m_configuration, cached, getTrueCondition());
-            ga.initialEnable();
-            if (cached == null)
+            ga.initialEnable( getActivationExecutor() );
+            // only collect the metadata to cache, since this loads deferred components
+            if (cached == null && m_configuration.cacheMetadata())
             {
                 List<ComponentHolder<?>> components = ga.getSelectedComponents(null);
                 List<ComponentMetadata> metadatas = new ArrayList<>(components.size());
-                for (ComponentHolder<?> holder : ga.getSelectedComponents(null))
+                for (ComponentHolder<?> holder : components)
                 {
                     metadatas.add(holder.getComponentMetadata());
                 }
@@ -648,6 +523,30 @@ public class Activator extends AbstractExtender
         }
     }
 
+    /**
+     * Returns the executor to enable components on in parallel, or
+     * <code>null</code> if components are to be enabled sequentially.
+     * The executor is shared by all bundles and follows changes of the
+     * configured parallelism.
+     */
+    private synchronized ComponentActivationExecutor getActivationExecutor()
+    {
+        final int parallelism = m_configuration.activationParallelism();
+        if ( parallelism <= 1 )
+        {
+            return null;
+        }
+        if ( m_componentActivation == null )
+        {
+            m_componentActivation = new ComponentActivationExecutor( parallelism );
+        }
+        else
+        {
+            m_componentActivation.setParallelism( parallelism );
+        }
+        return m_componentActivation;
+    }
+
     /**
      * Unloads components of the given bundle. If no components have been loaded
      * for the bundle, this method has no effect.
@@ -22,14 +22,19 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -51,6 +56,7 @@ import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
 import org.apache.felix.scr.impl.manager.RegionConfigurationSupport;
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.xml.DeferredComponent;
 import org.apache.felix.scr.impl.xml.XmlHandler;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -69,6 +75,9 @@ import org.osgi.service.component.ComponentException;
 public class BundleComponentActivator implements ComponentActivator
 {
 
+    // the number of slowest components reported after a parallel activation
+    private static final int CRITICAL_PATH_LENGTH = 5;
+
     // global component registration
     private final ComponentRegistry m_componentRegistry;
 
@@ -79,7 +88,16 @@ public class BundleComponentActivator implements ComponentActivator
     private final BundleContext m_context;
 
     // This is a list of component holders that belong to a particular bundle
-    private final List<ComponentHolder<?>> m_holders = new ArrayList<>();
+    private final List<ComponentHolder<?>> m_holders = new CopyOnWriteArrayList<>();
+
+    // the components disabled by default whose metadata is not read yet, by name
+    private final Map<String, DeferredEntry> m_deferredComponents = new HashMap<>();
+
+    // the parser factory for the descriptors of the bundle, created on demand
+    private SAXParserFactory m_parserFactory;
+
+    // the configuration support of the region, if any, to configure deferred components
+    private volatile RegionConfigurationSupport m_regionConfigurationSupport;
 
     // thread acting upon configurations
     private final ScheduledExecutorService m_componentActor;
@@ -95,10 +113,30 @@ public class BundleComponentActivator implements ComponentActivator
 
     private final Map<String, ListenerInfo> listenerMap = new HashMap<>();
 
+    // dispatches the service events to the listeners if they share a single service listener
+    private final ServiceEventDispatcher m_serviceEventDispatcher;
+
     private final BundleLogger logger;
 
     private final ServiceReference<?> m_trueCondition;
 
+    private static class DeferredEntry
+    {
+        final URL descriptor;
+        final String descriptorLocation;
+        final DeferredComponent component;
+        final ComponentRegistryKey key;
+
+        DeferredEntry(URL descriptor, DeferredComponent component, ComponentRegistryKey key)
+        {
+            this.descriptor = descriptor;
+            // compare the locations rather than the URLs to not resolve host names
+            this.descriptorLocation = descriptor.toExternalForm();
+            this.component = component;
+            this.key = key;
+        }
+    }
+
     private static class ListenerInfo implements ServiceListener
     {
         List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = new ArrayList<>();
@@ -154,7 +192,14 @@ public class BundleComponentActivator implements ComponentActivator
                 listenerMap.put( serviceFilterString, listenerInfo );
                 try
                 {
-                    m_context.addServiceListener( listenerInfo, serviceFilterString );
+                    if ( m_serviceEventDispatcher != null )
+                    {
+                        m_serviceEventDispatcher.addServiceListener( listenerInfo, serviceFilterString );
+                    }
+                    else
+                    {
+                        m_context.addServiceListener( listenerInfo, serviceFilterString );
+                    }
                 }
                 catch ( InvalidSyntaxException e )
                 {
@@ -177,7 +222,14 @@ public class BundleComponentActivator implements ComponentActivator
             {
                 if (listenerInfo.remove(listener)) {
                     listenerMap.remove(serviceFilterString);
-                    m_context.removeServiceListener(listenerInfo);
+                    if ( m_serviceEventDispatcher != null )
+                    {
+                        m_serviceEventDispatcher.removeServiceListener( listenerInfo );
+                    }
+                    else
+                    {
+                        m_context.removeServiceListener( listenerInfo );
+                    }
                 }
             }
         }
@@ -214,6 +266,8 @@ public class BundleComponentActivator implements ComponentActivator
 
         m_configuration = configuration;
         m_trueCondition = trueConditiion;
+        m_serviceEventDispatcher = configuration.sharedServiceListener()
+            ? new ServiceEventDispatcher( context, logger ) : null;
 
         logger.log(Level.DEBUG, "BundleComponentActivator : Bundle active", null);
 
@@ -227,6 +281,20 @@ public class BundleComponentActivator implements ComponentActivator
                 break;
             }
         }
+        if ( tracker == null )
+        {
+            synchronized ( m_deferredComponents )
+            {
+                for ( DeferredEntry entry : m_deferredComponents.values() )
+                {
+                    if ( !entry.component.isConfigurationIgnored() )
+                    {
+                        tracker = new ConfigAdminTracker( this );
+                        break;
+                    }
+                }
+            }
+        }
         configAdminTracker = tracker;
     }
 
@@ -319,54 +387,157 @@ public class BundleComponentActivator implements ComponentActivator
     }
 
     /**
-     * Called outside the constructor so that the m_managers field is completely initialized.
-     * A component might possibly start a thread to enable other components, which could access m_managers
+     * Enables the enabled components of the bundle, which activates the
+     * immediate ones whose references are satisfied. If an executor is
+     * given, the component holders are enabled on it concurrently and this
+     * method waits for all of them; the per manager locks serialize each
+     * component as usual. If this bundle is extended on a thread of the
+     * executor, as the result of activating a component of another bundle,
+     * its holders are enabled on that thread. Once done, the time taken
+     * along with the slowest components, which make up the critical path of
+     * the bundle, is logged.
+     *
+     * @param activationExecutor The executor to enable the components on or
+     *      <code>null</code> to enable them one after the other on the
+     *      calling thread.
      */
-    void initialEnable()
+    void initialEnable( final ComponentActivationExecutor activationExecutor )
     {
-        //enable all the enabled components
-        for ( ComponentHolder<?> componentHolder : m_holders )
+        if ( activationExecutor == null || m_holders.size() < 2 )
+        {
+            //enable all the enabled components
+            for ( ComponentHolder<?> componentHolder : m_holders )
+            {
+                enableHolder( componentHolder );
+            }
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final List<ComponentHolder<?>> holders = new ArrayList<>( m_holders );
+        final long[] durations = new long[holders.size()];
+        final List<Runnable> tasks = new ArrayList<>( holders.size() );
+        for ( int i = 0; i < holders.size(); i++ )
+        {
+            final int index = i;
+            tasks.add( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long begin = System.nanoTime();
+                    enableHolder( holders.get( index ) );
+                    durations[index] = System.nanoTime() - begin;
+                }
+
+                @Override
+                public String toString()
+                {
+                    return "Enable " + holders.get( index ).getComponentMetadata().getName();
+                }
+            } );
+        }
+
+        try
+        {
+            activationExecutor.runAll( tasks );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARN,
+                "BundleComponentActivator : Interrupted while waiting for the components to be enabled", null);
+            return;
+        }
+        catch ( ExecutionException ee )
+        {
+            // not expected, failures are handled while enabling
+            logger.log(Level.ERROR,
+                "BundleComponentActivator : Unexpected failure enabling components", ee.getCause());
+        }
+
+        if ( logger.isLogEnabled( Level.INFO ) )
+        {
+            logger.log(Level.INFO,
+                "BundleComponentActivator : Enabled {0} components in parallel in {1} ms, critical path: {2}",
+                null, holders.size(), TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ),
+                getCriticalPath( holders, durations ) );
+        }
+    }
+
+    /**
+     * Returns the slowest components with the time it took to enable each of
+     * them, including the activation of the components they depend on.
+     */
+    private static String getCriticalPath( final List<ComponentHolder<?>> holders, final long[] durations )
+    {
+        Integer[] indexes = new Integer[holders.size()];
+        for ( int i = 0; i < indexes.length; i++ )
+        {
+            indexes[i] = i;
+        }
+        Arrays.sort( indexes, new Comparator<Integer>()
+        {
+            @Override
+            public int compare( Integer i1, Integer i2 )
+            {
+                return Long.compare( durations[i2], durations[i1] );
+            }
+        } );
+        StringBuilder path = new StringBuilder();
+        for ( int i = 0; i < Math.min( indexes.length, CRITICAL_PATH_LENGTH ); i++ )
+        {
+            if ( i > 0 )
+            {
+                path.append( ", " );
+            }
+            path.append( holders.get( indexes[i] ).getComponentMetadata().getName() )
+                .append( " (" ).append( TimeUnit.NANOSECONDS.toMillis( durations[indexes[i]] ) ).append( " ms)" );
+        }
+        return path.toString();
+    }
+
+    private void enableHolder( final ComponentHolder<?> componentHolder )
+    {
+        logger.log(Level.DEBUG,
+            "BundleComponentActivator : May enable component holder {0}", null,
+            componentHolder.getComponentMetadata().getName() );
+
+        if ( componentHolder.getComponentMetadata().isEnabled() )
         {
             logger.log(Level.DEBUG,
-                "BundleComponentActivator : May enable component holder {0}", null,
+                "BundleComponentActivator :Enabling component holder {0}", null,
                 componentHolder.getComponentMetadata().getName() );
 
-            if ( componentHolder.getComponentMetadata().isEnabled() )
+            try
             {
-                logger.log(Level.DEBUG,
-                    "BundleComponentActivator :Enabling component holder {0}", null,
-                    componentHolder.getComponentMetadata().getName() );
+                componentHolder.enableComponents( false );
+            }
+            catch ( Throwable t )
+            {
+                // caught on unhandled RuntimeException or Error
+                // (e.g. ClassDefNotFoundError)
 
+                // make sure the component is properly disabled, just in case
                 try
                 {
-                    componentHolder.enableComponents( false );
+                    componentHolder.disableComponents( false );
                 }
-                catch ( Throwable t )
+                catch ( Throwable ignore )
                 {
-                    // caught on unhandled RuntimeException or Error
-                    // (e.g. ClassDefNotFoundError)
-
-                    // make sure the component is properly disabled, just in case
-                    try
-                    {
-                        componentHolder.disableComponents( false );
-                    }
-                    catch ( Throwable ignore )
-                    {
-                    }
-
-                    logger.log(Level.ERROR,
-                        "BundleComponentActivator : Unexpected failure enabling component holder {0}", t,
-                        componentHolder.getComponentMetadata().getName() );
                 }
-            }
-            else
-            {
-                logger.log(Level.DEBUG,
-                    "BundleComponentActivator : Will not enable component holder {0}", null,
+
+                logger.log(Level.ERROR,
+                    "BundleComponentActivator : Unexpected failure enabling component holder {0}", t,
                     componentHolder.getComponentMetadata().getName() );
             }
         }
+        else
+        {
+            logger.log(Level.DEBUG,
+                "BundleComponentActivator : Will not enable component holder {0}", null,
+                componentHolder.getComponentMetadata().getName() );
+        }
     }
 
     /**
@@ -424,13 +595,12 @@ public class BundleComponentActivator implements ComponentActivator
         {
             stream = descriptorURL.openStream();
 
+            // the metadata is cached from the components read here, so they are
+            // only deferred if the metadata is not cached
             XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
-                getConfiguration().keepInstances(), m_trueCondition);
-            final SAXParserFactory factory = SAXParserFactory.newInstance();
-            factory.setNamespaceAware(true);
-            final SAXParser parser = factory.newSAXParser();
-
-            parser.parse( stream, handler );
+                getConfiguration().keepInstances(), m_trueCondition,
+                getConfiguration().deferDisabledComponents() && !getConfiguration().cacheMetadata() );
+            newSAXParser().parse( stream, handler );
 
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
@@ -438,6 +608,10 @@ public class BundleComponentActivator implements ComponentActivator
             {
                 validateAndRegister(metadata);
             }
+            for ( DeferredComponent component : handler.getDeferredComponents() )
+            {
+                defer( descriptorURL, component );
+            }
         }
         catch ( IOException ex )
         {
@@ -467,17 +641,38 @@ public class BundleComponentActivator implements ComponentActivator
         }
     }
 
+    // the parser factory is not required to be thread safe
+    private synchronized SAXParser newSAXParser() throws Exception
+    {
+        if ( m_parserFactory == null )
+        {
+            m_parserFactory = SAXParserFactory.newInstance();
+            m_parserFactory.setNamespaceAware( true );
+        }
+        return m_parserFactory.newSAXParser();
+    }
+
     void validateAndRegister(ComponentMetadata metadata)
+    {
+        validateAndRegister( metadata, null );
+    }
+
+    // registers the component under the given reserved name or reserves
+    // the name if the key is null
+    private ComponentHolder<?> validateAndRegister(ComponentMetadata metadata, ComponentRegistryKey reservedKey)
     {
         final ComponentLogger componentLogger = logger.component(m_bundle, metadata.getImplementationClassName(), metadata.getName());
-        ComponentRegistryKey key = null;
+        ComponentRegistryKey key = reservedKey;
         try
         {
             // validate the component metadata
             metadata.validate();
 
             // check and reserve the component name (validate ensures it's never null)
-            key = m_componentRegistry.checkComponentName(m_bundle, metadata.getName());
+            if ( key == null )
+            {
+                key = m_componentRegistry.checkComponentName(m_bundle, metadata.getName());
+            }
 
             // Request creation of the component manager
             ComponentHolder<?> holder = m_componentRegistry.createComponentHolder(this,
@@ -490,6 +685,7 @@ public class BundleComponentActivator implements ComponentActivator
             componentLogger.log(Level.DEBUG,
                 "BundleComponentActivator : ComponentHolder created.", null);
 
+            return holder;
         }
         catch (Throwable t)
         {
@@ -502,6 +698,136 @@ public class BundleComponentActivator implements ComponentActivator
             {
                 m_componentRegistry.unregisterComponentHolder(key);
             }
+            return null;
+        }
+    }
+
+    // reserves the name of a component disabled by default whose metadata
+    // is read once the component is needed
+    private void defer(URL descriptorURL, DeferredComponent component)
+    {
+        final ComponentLogger componentLogger = logger.component(m_bundle, component.getImplementationClassName(), component.getName());
+        try
+        {
+            ComponentRegistryKey key = m_componentRegistry.checkComponentName( m_bundle, component.getName() );
+            synchronized ( m_deferredComponents )
+            {
+                m_deferredComponents.put( component.getName(), new DeferredEntry( descriptorURL, component, key ) );
+            }
+            m_componentRegistry.registerDeferredComponent( key, this );
+
+            componentLogger.log(Level.DEBUG,
+                "BundleComponentActivator : Deferred reading the metadata of the disabled component.", null);
+        }
+        catch (Throwable t)
+        {
+            componentLogger.log(Level.ERROR, "Cannot register component", t);
+        }
+    }
+
+    /**
+     * Reads the metadata of the deferred components and registers them.
+     * Along with the named component the other deferred components of its
+     * descriptor are loaded, since the descriptor is parsed anyway.
+     *
+     * @param name The name of the component to load or <code>null</code> to
+     *      load all deferred components of the bundle.
+     */
+    void loadDeferredComponents(String name)
+    {
+        // the lock is held until the components are registered, so the
+        // components are either registered or still deferred for others
+        synchronized ( m_deferredComponents )
+        {
+            if ( !m_active.get() || m_deferredComponents.isEmpty() )
+            {
+                return;
+            }
+
+            final DeferredEntry selected = ( name == null ) ? null : m_deferredComponents.get( name );
+            if ( name != null && selected == null )
+            {
+                return;
+            }
+
+            // group the entries to load by descriptor
+            final Map<String, List<DeferredEntry>> byDescriptor = new HashMap<>();
+            for ( Iterator<DeferredEntry> i = m_deferredComponents.values().iterator(); i.hasNext(); )
+            {
+                final DeferredEntry entry = i.next();
+                if ( selected == null || selected.descriptorLocation.equals( entry.descriptorLocation ) )
+                {
+                    List<DeferredEntry> entries = byDescriptor.get( entry.descriptorLocation );
+                    if ( entries == null )
+                    {
+                        entries = new ArrayList<>();
+                        byDescriptor.put( entry.descriptorLocation, entries );
+                    }
+                    entries.add( entry );
+                    i.remove();
+                }
+            }
+
+            for ( List<DeferredEntry> entries : byDescriptor.values() )
+            {
+                loadDeferredDescriptor( entries );
+            }
+        }
+    }
+
+    private void loadDeferredDescriptor(final List<DeferredEntry> entries)
+    {
+        final URL descriptorURL = entries.get( 0 ).descriptor;
+        List<ComponentMetadata> components = Collections.emptyList();
+
+        InputStream stream = null;
+        try
+        {
+            stream = descriptorURL.openStream();
+
+            XmlHandler handler = new XmlHandler( m_bundle, this.logger, getConfiguration().isFactoryEnabled(),
+                getConfiguration().keepInstances(), m_trueCondition);
+            newSAXParser().parse( stream, handler );
+            components = handler.getComponentMetadataList();
+        }
+        catch ( Exception ex )
+        {
+            logger.log(Level.ERROR, "General problem with descriptor entry ''{0}''",
+                ex, descriptorURL.getPath());
+        }
+        finally
+        {
+            if ( stream != null )
+            {
+                try
+                {
+                    stream.close();
+                }
+                catch ( IOException ignore )
+                {
+                }
+            }
+        }
+
+        final RegionConfigurationSupport rcs = m_regionConfigurationSupport;
+        for ( DeferredEntry entry : entries )
+        {
+            final int index = entry.component.getIndex();
+            final ComponentMetadata metadata = ( index < components.size() ) ? components.get( index ) : null;
+            if ( metadata == null || !entry.component.getName().equals( metadata.getName() ) )
+            {
+                // the descriptor changed or could not be read
+                logger.log(Level.ERROR, "Cannot read the metadata of component {0} from descriptor entry ''{1}''",
+                    null, entry.component.getName(), descriptorURL.getPath());
+                m_componentRegistry.unregisterComponentHolder( entry.key );
+                continue;
+            }
+
+            final ComponentHolder<?> holder = validateAndRegister( metadata, entry.key );
+            if ( holder != null && rcs != null )
+            {
+                rcs.configureComponentHolder( holder );
+            }
         }
     }
 
@@ -517,6 +843,17 @@ public class BundleComponentActivator implements ComponentActivator
                 "BundleComponentActivator : Will destroy {0} instances",
                 null, m_holders.size() );
 
+            // waits for deferred components being loaded, no more are loaded
+            // once the activator is not active anymore
+            synchronized ( m_deferredComponents )
+            {
+                for ( DeferredEntry entry : m_deferredComponents.values() )
+                {
+                    m_componentRegistry.unregisterComponentHolder( entry.key );
+                }
+                m_deferredComponents.clear();
+            }
+
             for ( ComponentHolder<?> holder : m_holders )
             {
                 try
@@ -672,9 +1009,11 @@ public class BundleComponentActivator implements ComponentActivator
         // if all components are selected
         if ( name == null )
         {
+            loadDeferredComponents( null );
             return m_holders;
         }
 
+        // the registry loads the component if it is deferred
         ComponentHolder<?> componentHolder = m_componentRegistry.getComponentHolder( m_bundle, name );
         if ( componentHolder != null )
         {
@@ -778,6 +1117,8 @@ public class BundleComponentActivator implements ComponentActivator
     {
         RegionConfigurationSupport rcs = m_componentRegistry.registerRegionConfigurationSupport( reference );
         if (rcs != null) {
+            // deferred components are configured once they are loaded
+            m_regionConfigurationSupport = rcs;
             for ( ComponentHolder<?> holder : m_holders )
             {
                 rcs.configureComponentHolder( holder );
@@ -790,6 +1131,10 @@ public class BundleComponentActivator implements ComponentActivator
     public void unsetRegionConfigurationSupport(RegionConfigurationSupport rcs)
     {
         m_componentRegistry.unregisterRegionConfigurationSupport( rcs );
+        if ( m_regionConfigurationSupport == rcs )
+        {
+            m_regionConfigurationSupport = null;
+        }
         // TODO anything needed?
     }
 
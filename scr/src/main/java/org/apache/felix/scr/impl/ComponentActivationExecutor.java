@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The <code>ComponentActivationExecutor</code> is the bounded pool of threads
+ * enabling the components of starting bundles if parallel activation is
+ * configured with the <code>ds.activation.parallelism</code> property. It is
+ * shared by all bundles, so the parallelism bounds the number of components
+ * being enabled and activated at the same time across bundles. Idle threads
+ * terminate after a while since the pool is mostly used while the framework
+ * starts.
+ * <p>
+ * Activating a component may start another bundle whose components are
+ * then enabled by the synchronous extender on the very same pool thread.
+ * Such nested work is run on the calling thread instead of being submitted
+ * to the pool, since waiting for the pool from one of its own threads
+ * deadlocks once all of them wait.
+ */
+class ComponentActivationExecutor extends ThreadPoolExecutor
+{
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "SCR Component Activation " + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    // set while a thread of this pool runs a task
+    private final ThreadLocal<Boolean> m_running = new ThreadLocal<>();
+
+    ComponentActivationExecutor( final int parallelism )
+    {
+        super( parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY );
+        allowCoreThreadTimeOut( true );
+    }
+
+    @Override
+    protected void beforeExecute( final Thread t, final Runnable r )
+    {
+        m_running.set( Boolean.TRUE );
+    }
+
+    @Override
+    protected void afterExecute( final Runnable r, final Throwable t )
+    {
+        m_running.remove();
+    }
+
+    /**
+     * Runs the given tasks and waits for all of them. The tasks are run on
+     * this pool concurrently, unless the calling thread is one of the
+     * threads of this pool or the pool has been shut down, in which case
+     * they are run on the calling thread one after the other.
+     *
+     * @throws InterruptedException If interrupted while waiting; the tasks
+     *      that are already submitted keep running.
+     * @throws ExecutionException If a task failed, once all tasks are done.
+     */
+    void runAll( final List<? extends Runnable> tasks ) throws InterruptedException, ExecutionException
+    {
+        int submitted = 0;
+        final List<Future<?>> futures = new ArrayList<>( tasks.size() );
+        if ( m_running.get() == null )
+        {
+            try
+            {
+                for ( Runnable task : tasks )
+                {
+                    futures.add( submit( task ) );
+                    submitted++;
+                }
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // shut down, run the remaining tasks here
+            }
+        }
+        for ( int i = submitted; i < tasks.size(); i++ )
+        {
+            tasks.get( i ).run();
+        }
+
+        ExecutionException failure = null;
+        for ( Future<?> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( ExecutionException ee )
+            {
+                if ( failure == null )
+                {
+                    failure = ee;
+                }
+            }
+        }
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Changes the number of threads of this pool to the given parallelism.
+     */
+    void setParallelism( final int parallelism )
+    {
+        if ( parallelism > getMaximumPoolSize() )
+        {
+            setMaximumPoolSize( parallelism );
+            setCorePoolSize( parallelism );
+        }
+        else if ( parallelism < getMaximumPoolSize() )
+        {
+            setCorePoolSize( parallelism );
+            setMaximumPoolSize( parallelism );
+        }
+    }
+}
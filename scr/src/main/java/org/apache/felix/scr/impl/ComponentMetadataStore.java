@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.scr.impl.logger.InternalLogger.Level;
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+
+/**
+ * The <code>ComponentMetadataStore</code> caches the component metadata of
+ * bundles in the data file of the SCR bundle if the <code>ds.cache.metadata</code>
+ * property is set, so that the component descriptors need not be parsed again
+ * when SCR is restarted.
+ * <p>
+ * The file starts with the store version and an index of the cached bundles,
+ * giving the id and last modified time of each bundle along with the
+ * position and length of its section. Each section holds the string table
+ * and the components of one bundle and can be read on its own. On start the
+ * file is read into memory and only its index is decoded; the section of a
+ * bundle is only decoded once the bundle is extended and its last modified
+ * time is still the one of the cached metadata.
+ * <p>
+ * The file is only written on stop if the cached metadata changed. The
+ * sections of bundles that did not change are copied over as they are, so
+ * only the metadata of bundles that have been parsed again is serialized.
+ * They are copied from the bytes read on start rather than from the file
+ * being replaced.
+ */
+class ComponentMetadataStore
+{
+
+    static final String STORE_FILE = "componentMetadataStore";
+
+    // bundle id, last modified, offset and length of a section
+    private static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8 + 4;
+
+    private final BundleContext m_context;
+
+    private final ScrLogger logger;
+
+    private final boolean m_enabled;
+
+    // sections of the loaded store not invalidated yet
+    private final ConcurrentMap<Long, Section> m_sections = new ConcurrentHashMap<>();
+
+    // metadata read from sections or put since the store was loaded
+    private final ConcurrentMap<Long, List<ComponentMetadata>> m_components = new ConcurrentHashMap<>();
+
+    private volatile boolean m_dirty;
+
+    private ComponentMetadataStore( final BundleContext context, final ScrLogger logger, final boolean enabled )
+    {
+        m_context = context;
+        this.logger = logger;
+        m_enabled = enabled;
+    }
+
+    /**
+     * Reads the store of the SCR bundle with the given context and decodes its
+     * index. If caching is disabled or the store cannot be read, an empty
+     * store is returned.
+     */
+    static ComponentMetadataStore load( final BundleContext context, final ScrLogger logger, final boolean enabled )
+    {
+        final ComponentMetadataStore store = new ComponentMetadataStore( context, logger, enabled );
+        if ( !enabled )
+        {
+            return store;
+        }
+        final File file = context.getDataFile( STORE_FILE );
+        if ( file == null || !file.isFile() )
+        {
+            store.m_dirty = true;
+            return store;
+        }
+        try
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) );
+            final MetaDataReader metaDataReader = new MetaDataReader();
+            if ( !metaDataReader.isVersionSupported( new DataInputStream( new ByteBufferInputStream( buffer.duplicate() ) ) ) )
+            {
+                // the stored version is not compatible
+                store.m_dirty = true;
+                return store;
+            }
+            final int numBundles = buffer.getInt( 4 );
+            for ( int i = 0; i < numBundles; i++ )
+            {
+                final int entry = 8 + i * INDEX_ENTRY_LENGTH;
+                final long bundleId = buffer.getLong( entry );
+                final long lastModified = buffer.getLong( entry + 8 );
+                final int offset = ( int ) buffer.getLong( entry + 16 );
+                final int length = buffer.getInt( entry + 24 );
+                final ByteBuffer section = buffer.duplicate();
+                section.position( offset ).limit( offset + length );
+                store.m_sections.put( bundleId, new Section( lastModified, section.slice() ) );
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // avoid failing all of SCR start on cache load bug
+            logger.log(Level.WARN, "Error loading component metadata cache.", e);
+            store.m_sections.clear();
+            store.m_dirty = true;
+        }
+        return store;
+    }
+
+    /**
+     * Returns the cached metadata of the given bundle, reading it from the
+     * store if necessary, or <code>null</code> if there is no metadata for
+     * the current revision of the bundle. An empty list means that the
+     * bundle has no components.
+     */
+    List<ComponentMetadata> get( final Bundle bundle )
+    {
+        final Long bundleId = bundle.getBundleId();
+        List<ComponentMetadata> components = m_components.get( bundleId );
+        if ( components != null )
+        {
+            return components;
+        }
+        final Section section = m_sections.get( bundleId );
+        if ( section == null )
+        {
+            return null;
+        }
+        if ( section.m_lastModified != bundle.getLastModified() )
+        {
+            remove( bundleId );
+            return null;
+        }
+        try
+        {
+            components = section.read();
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            logger.log(Level.WARN, "Error loading cached component metadata of {0}.", e, bundle);
+            remove( bundleId );
+            return null;
+        }
+        final List<ComponentMetadata> existing = m_components.putIfAbsent( bundleId, components );
+        return existing != null ? existing : components;
+    }
+
+    /**
+     * Caches the metadata of the bundle with the given id, which has just
+     * been read from its component descriptors.
+     */
+    void put( final Long bundleId, final List<ComponentMetadata> components )
+    {
+        if ( !m_enabled )
+        {
+            return;
+        }
+        m_sections.remove( bundleId );
+        m_components.put( bundleId, components );
+        m_dirty = true;
+    }
+
+    /**
+     * Drops the cached metadata of the bundle with the given id.
+     */
+    void remove( final Long bundleId )
+    {
+        final boolean removed = m_sections.remove( bundleId ) != null;
+        if ( m_components.remove( bundleId ) != null || removed )
+        {
+            m_dirty = true;
+        }
+    }
+
+    /**
+     * Writes the store if the cached metadata changed since it was loaded.
+     * The metadata of bundles that do not exist anymore is dropped. The
+     * store is written to a temporary file first, which then replaces the
+     * store, so the sections of the loaded store can be copied over.
+     */
+    void store()
+    {
+        if ( !m_enabled || !m_dirty )
+        {
+            return;
+        }
+        final BundleContext systemContext = m_context.getBundle(
+            Constants.SYSTEM_BUNDLE_LOCATION ).getBundleContext();
+        final Map<Long, ByteBuffer> sections = new HashMap<>();
+        final Map<Long, Long> lastModified = new HashMap<>();
+        try
+        {
+            final Set<Long> bundleIds = new HashSet<>( m_sections.keySet() );
+            bundleIds.addAll( m_components.keySet() );
+            for ( Long bundleId : bundleIds )
+            {
+                // Check with system context by ID to avoid hooks hiding;
+                final Bundle bundle = systemContext.getBundle( bundleId );
+                if ( bundle == null )
+                {
+                    continue;
+                }
+                final Section section = m_sections.get( bundleId );
+                if ( section != null )
+                {
+                    if ( section.m_lastModified == bundle.getLastModified() )
+                    {
+                        sections.put( bundleId, section.m_data.duplicate() );
+                        lastModified.put( bundleId, section.m_lastModified );
+                    }
+                }
+                else
+                {
+                    final List<ComponentMetadata> components = m_components.get( bundleId );
+                    if ( components != null )
+                    {
+                        sections.put( bundleId, ByteBuffer.wrap( write( components ) ) );
+                        lastModified.put( bundleId, bundle.getLastModified() );
+                    }
+                }
+            }
+
+            final ByteArrayOutputStream header = new ByteArrayOutputStream( 8 + sections.size() * INDEX_ENTRY_LENGTH );
+            final DataOutputStream out = new DataOutputStream( header );
+            new MetaDataWriter().writeVersion( out );
+            out.writeInt( sections.size() );
+            long offset = 8 + sections.size() * INDEX_ENTRY_LENGTH;
+            final List<ByteBuffer> data = new ArrayList<>( sections.size() + 1 );
+            for ( Map.Entry<Long, ByteBuffer> entry : sections.entrySet() )
+            {
+                out.writeLong( entry.getKey() );
+                out.writeLong( lastModified.get( entry.getKey() ) );
+                out.writeLong( offset );
+                out.writeInt( entry.getValue().remaining() );
+                offset += entry.getValue().remaining();
+                data.add( entry.getValue() );
+            }
+            out.flush();
+            data.add( 0, ByteBuffer.wrap( header.toByteArray() ) );
+
+            final File file = m_context.getDataFile( STORE_FILE );
+            final File tmp = m_context.getDataFile( STORE_FILE + ".tmp" );
+            try ( FileChannel channel = FileChannel.open( tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) )
+            {
+                for ( ByteBuffer buffer : data )
+                {
+                    while ( buffer.hasRemaining() )
+                    {
+                        channel.write( buffer );
+                    }
+                }
+            }
+            Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            m_dirty = false;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            logger.log(Level.WARN, "Error storing component metadata cache.", e);
+        }
+    }
+
+    private static byte[] write( final List<ComponentMetadata> components ) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream( bytes );
+        final MetaDataWriter metaDataWriter = new MetaDataWriter();
+        final Set<String> strings = new HashSet<>();
+        for ( ComponentMetadata component : components )
+        {
+            component.collectStrings( strings );
+        }
+        // remove possible null
+        strings.remove( null );
+        out.writeInt( strings.size() );
+        for ( String s : strings )
+        {
+            metaDataWriter.writeIndexedString( s, out );
+        }
+        out.writeInt( components.size() );
+        for ( ComponentMetadata component : components )
+        {
+            component.store( out, metaDataWriter );
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static class Section
+    {
+        final long m_lastModified;
+
+        final ByteBuffer m_data;
+
+        Section( final long lastModified, final ByteBuffer data )
+        {
+            m_lastModified = lastModified;
+            m_data = data;
+        }
+
+        List<ComponentMetadata> read() throws IOException
+        {
+            final DataInputStream in = new DataInputStream( new ByteBufferInputStream( m_data.duplicate() ) );
+            final MetaDataReader metaDataReader = new MetaDataReader();
+            final int numStrings = in.readInt();
+            for ( int i = 0; i < numStrings; i++ )
+            {
+                metaDataReader.readIndexedString( in );
+            }
+            final int numComponents = in.readInt();
+            final List<ComponentMetadata> components = new ArrayList<>( numComponents );
+            for ( int i = 0; i < numComponents; i++ )
+            {
+                components.add( ComponentMetadata.load( in, metaDataReader ) );
+            }
+            return components;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream( final ByteBuffer buffer )
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+        {
+            if ( len == 0 )
+            {
+                return 0;
+            }
+            if ( !m_buffer.hasRemaining() )
+            {
+                return -1;
+            }
+            final int n = Math.min( len, m_buffer.remaining() );
+            m_buffer.get( b, off, n );
+            return n;
+        }
+    }
+}
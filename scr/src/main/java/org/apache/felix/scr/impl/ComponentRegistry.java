@@ -88,6 +88,14 @@ public class ComponentRegistry
      */
     private final Map<ComponentRegistryKey, ComponentHolder<?>> m_componentHoldersByName;
 
+    /**
+     * The activators of the components whose name is reserved while their
+     * metadata is not read yet, since they are disabled by default. Looking
+     * up such a component has its activator load and register it.
+     * Guarded by {@link #m_componentHoldersByName}.
+     */
+    private final Map<ComponentRegistryKey, BundleComponentActivator> m_deferredComponents = new HashMap<>();
+
     /**
      * The map of known components indexed by component configuration pid. The values are
      * Sets of the {@link ComponentHolder} interface. Normally, the configuration pid
@@ -273,6 +281,7 @@ public class ComponentRegistry
             }
 
             m_componentHoldersByName.put( key, componentHolder );
+            m_deferredComponents.remove( key );
         }
 
         synchronized (m_componentHoldersByPid)
@@ -302,10 +311,73 @@ public class ComponentRegistry
      * if no component is registered yet.
      */
     public final ComponentHolder<?> getComponentHolder( final Bundle bundle, final String name )
+    {
+        final ComponentRegistryKey key = new ComponentRegistryKey( bundle, name );
+        final BundleComponentActivator activator;
+        synchronized ( m_componentHoldersByName )
+        {
+            activator = m_deferredComponents.get( key );
+        }
+
+        // load a deferred component outside of the lock
+        if ( activator != null )
+        {
+            activator.loadDeferredComponents( name );
+        }
+
+        synchronized ( m_componentHoldersByName )
+        {
+            return m_componentHoldersByName.get( key );
+        }
+    }
+
+    /**
+     * Marks the component whose name is reserved under the given key as
+     * deferred by the given activator until it is registered or the name
+     * is unreserved.
+     */
+    final void registerDeferredComponent( final ComponentRegistryKey key, final BundleComponentActivator activator )
     {
         synchronized ( m_componentHoldersByName )
         {
-            return m_componentHoldersByName.get( new ComponentRegistryKey( bundle, name ) );
+            // only defer the component as long as the name is reserved
+            if ( m_componentHoldersByName.containsKey( key ) && m_componentHoldersByName.get( key ) == null )
+            {
+                m_deferredComponents.put( key, activator );
+            }
+        }
+    }
+
+    /**
+     * Has the activators of the deferred components of the given bundles
+     * load them, or of all bundles if <code>bundles</code> is
+     * <code>null</code>.
+     */
+    private void loadDeferredComponents( final Bundle[] bundles )
+    {
+        final Set<BundleComponentActivator> activators = new HashSet<>();
+        synchronized ( m_componentHoldersByName )
+        {
+            for ( Map.Entry<ComponentRegistryKey, BundleComponentActivator> entry : m_deferredComponents.entrySet() )
+            {
+                if ( bundles == null )
+                {
+                    activators.add( entry.getValue() );
+                    continue;
+                }
+                for ( Bundle b : bundles )
+                {
+                    if ( b.getBundleId() == entry.getKey().getBundleId() )
+                    {
+                        activators.add( entry.getValue() );
+                    }
+                }
+            }
+        }
+
+        for ( BundleComponentActivator activator : activators )
+        {
+            activator.loadDeferredComponents( null );
         }
     }
 
@@ -345,6 +417,12 @@ public class ComponentRegistry
      * holders of components.
      */
     public final List<ComponentHolder<?>> getComponentHolders()
+    {
+        loadDeferredComponents( null );
+        return getRegisteredComponentHolders();
+    }
+
+    private List<ComponentHolder<?>> getRegisteredComponentHolders()
     {
     	List<ComponentHolder<?>> all = new ArrayList<>();
         synchronized ( m_componentHoldersByName )
@@ -363,7 +441,8 @@ public class ComponentRegistry
 
     public final List<ComponentHolder<?>> getComponentHolders(Bundle...bundles)
     {
-    	List<ComponentHolder<?>> all =getComponentHolders();
+        loadDeferredComponents( bundles );
+    	List<ComponentHolder<?>> all =getRegisteredComponentHolders();
         List<ComponentHolder<?>> holders = new ArrayList<>();
         for ( ComponentHolder<?> holder: all)
         {
@@ -415,6 +494,7 @@ public class ComponentRegistry
         synchronized ( m_componentHoldersByName )
         {
             component = m_componentHoldersByName.remove( key );
+            m_deferredComponents.remove( key );
         }
 
         if (component != null) {
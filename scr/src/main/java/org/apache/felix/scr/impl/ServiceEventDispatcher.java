@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.logger.BundleLogger;
+import org.apache.felix.scr.impl.logger.InternalLogger.Level;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * The <code>ServiceEventDispatcher</code> registers a single service listener
+ * with a bundle context on behalf of any number of filtered listeners and
+ * dispatches the service events to them. This is used instead of a framework
+ * listener per reference filter if the <code>ds.shared.service.listener</code>
+ * property is set, so the framework does not evaluate every reference filter
+ * on every service event.
+ * <p>
+ * The listeners are indexed by the service interface named in the
+ * <code>objectClass</code> clause their filter starts with, as created by the
+ * dependency managers. Only the listeners indexed under one of the interfaces
+ * of a service are considered for its events, and their filters are only
+ * matched if they contain more than the <code>objectClass</code> clause.
+ * Listeners with filters of a different form are considered for all events.
+ * <p>
+ * As the framework would, a listener is sent a
+ * {@link ServiceEvent#MODIFIED_ENDMATCH} event if a modified service does
+ * not match its filter anymore. Since the previous properties of the service
+ * are not known, this event is also sent if the service did not match the
+ * filter before, which the service trackers ignore.
+ */
+class ServiceEventDispatcher implements ServiceListener
+{
+
+    private static final String OBJECTCLASS_CLAUSE = "(" + Constants.OBJECTCLASS + "=";
+
+    private static final String AND_OBJECTCLASS_CLAUSE = "(&" + OBJECTCLASS_CLAUSE;
+
+    // the index key of listeners considered for all services
+    private static final String ANY_CLASS = "*";
+
+    private final BundleContext m_context;
+
+    private final BundleLogger logger;
+
+    // the listeners and their filters, guarded by this
+    private final Map<ServiceListener, Entry> m_entries = new HashMap<>();
+
+    // the listeners by interface, replaced on each change
+    private volatile Map<String, Entry[]> m_index = Collections.emptyMap();
+
+    ServiceEventDispatcher( final BundleContext context, final BundleLogger logger )
+    {
+        m_context = context;
+        this.logger = logger;
+    }
+
+    /**
+     * Adds the listener to be sent the events of the services matching the
+     * filter. The service listener of this dispatcher is registered with the
+     * bundle context when the first listener is added.
+     *
+     * @throws InvalidSyntaxException if the filter is not valid
+     */
+    synchronized void addServiceListener( final ServiceListener listener, final String filterString )
+        throws InvalidSyntaxException
+    {
+        final Entry entry = new Entry( listener, filterString );
+        if ( m_entries.containsKey( listener ) )
+        {
+            removeFromIndex( m_entries.get( listener ) );
+        }
+        final boolean first = m_entries.isEmpty();
+        m_entries.put( listener, entry );
+
+        final Map<String, Entry[]> index = new HashMap<>( m_index );
+        final Entry[] entries = index.get( entry.m_objectClass );
+        if ( entries == null )
+        {
+            index.put( entry.m_objectClass, new Entry[] { entry } );
+        }
+        else
+        {
+            final Entry[] newEntries = Arrays.copyOf( entries, entries.length + 1 );
+            newEntries[entries.length] = entry;
+            index.put( entry.m_objectClass, newEntries );
+        }
+        m_index = index;
+
+        if ( first )
+        {
+            m_context.addServiceListener( this );
+        }
+    }
+
+    /**
+     * Removes the listener. The service listener of this dispatcher is
+     * unregistered from the bundle context when the last listener is removed.
+     */
+    synchronized void removeServiceListener( final ServiceListener listener )
+    {
+        final Entry entry = m_entries.remove( listener );
+        if ( entry != null )
+        {
+            removeFromIndex( entry );
+            if ( m_entries.isEmpty() )
+            {
+                m_context.removeServiceListener( this );
+            }
+        }
+    }
+
+    private void removeFromIndex( final Entry entry )
+    {
+        final Map<String, Entry[]> index = new HashMap<>( m_index );
+        final Entry[] entries = index.get( entry.m_objectClass );
+        if ( entries.length == 1 )
+        {
+            index.remove( entry.m_objectClass );
+        }
+        else
+        {
+            final Entry[] newEntries = new Entry[entries.length - 1];
+            int i = 0;
+            for ( Entry e : entries )
+            {
+                if ( e != entry )
+                {
+                    newEntries[i++] = e;
+                }
+            }
+            index.put( entry.m_objectClass, newEntries );
+        }
+        m_index = index;
+    }
+
+    @Override
+    public void serviceChanged( final ServiceEvent event )
+    {
+        final Map<String, Entry[]> index = m_index;
+        final Object objectClasses = event.getServiceReference().getProperty( Constants.OBJECTCLASS );
+        if ( objectClasses instanceof String[] )
+        {
+            for ( String objectClass : ( String[] ) objectClasses )
+            {
+                dispatch( index.get( objectClass ), event );
+            }
+        }
+        dispatch( index.get( ANY_CLASS ), event );
+    }
+
+    private void dispatch( final Entry[] entries, final ServiceEvent event )
+    {
+        if ( entries == null )
+        {
+            return;
+        }
+        final ServiceReference<?> reference = event.getServiceReference();
+        for ( Entry entry : entries )
+        {
+            try
+            {
+                if ( entry.m_filter == null || entry.m_filter.match( reference ) )
+                {
+                    entry.m_listener.serviceChanged( event );
+                }
+                else if ( event.getType() == ServiceEvent.MODIFIED )
+                {
+                    entry.m_listener.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED_ENDMATCH, reference ) );
+                }
+            }
+            catch ( RuntimeException re )
+            {
+                // as the framework would, do not let one listener keep the others from the event
+                logger.log(Level.ERROR, "Unexpected problem dispatching service event for {0}", re,
+                    reference );
+            }
+        }
+    }
+
+    /**
+     * Returns the interface named in the leading <code>objectClass</code>
+     * clause of the filter or <code>*</code> if there is no such clause or it
+     * is not a plain interface name.
+     */
+    static String getObjectClass( final String filterString )
+    {
+        final int start;
+        if ( filterString.startsWith( OBJECTCLASS_CLAUSE ) )
+        {
+            start = OBJECTCLASS_CLAUSE.length();
+        }
+        else if ( filterString.startsWith( AND_OBJECTCLASS_CLAUSE ) )
+        {
+            start = AND_OBJECTCLASS_CLAUSE.length();
+        }
+        else
+        {
+            return ANY_CLASS;
+        }
+        final int end = filterString.indexOf( ')', start );
+        if ( end <= start )
+        {
+            return ANY_CLASS;
+        }
+        final String objectClass = filterString.substring( start, end );
+        if ( objectClass.indexOf( '*' ) >= 0 || objectClass.indexOf( '\\' ) >= 0 )
+        {
+            return ANY_CLASS;
+        }
+        return objectClass;
+    }
+
+    private static class Entry
+    {
+        final ServiceListener m_listener;
+
+        final String m_objectClass;
+
+        // null if the objectClass clause is the whole filter
+        final Filter m_filter;
+
+        Entry( final ServiceListener listener, final String filterString ) throws InvalidSyntaxException
+        {
+            m_listener = listener;
+            m_objectClass = getObjectClass( filterString );
+            final Filter filter = FrameworkUtil.createFilter( filterString );
+            if ( filterString.equals( OBJECTCLASS_CLAUSE + m_objectClass + ")" ) )
+            {
+                m_filter = null;
+            }
+            else
+            {
+                m_filter = filter;
+            }
+        }
+    }
+}
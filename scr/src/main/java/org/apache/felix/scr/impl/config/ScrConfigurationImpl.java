@@ -95,6 +95,12 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private long serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
 
+    private int activationParallelism = DEFAULT_ACTIVATION_PARALLELISM;
+
+    private boolean sharedServiceListener;
+
+    private boolean deferDisabledComponents;
+
     private Boolean globalExtender;
 
     private volatile BundleContext bundleContext;
@@ -187,6 +193,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         isLogEnabled = true;
                         isLogExtensionEnabled = false;
                         commandsEnabled = true;
+                        activationParallelism = DEFAULT_ACTIVATION_PARALLELISM;
+                        sharedServiceListener = false;
+                        deferDisabledComponents = false;
                     }
                     else
                     {
@@ -202,6 +211,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         isLogEnabled = getDefaultLogEnabled();
                         isLogExtensionEnabled = getDefaultLogExtension();
                         commandsEnabled = getDefaultCommandsEnabled();
+                        activationParallelism = getDefaultActivationParallelism();
+                        sharedServiceListener = getDefaultSharedServiceListener();
+                        deferDisabledComponents = getDefaultDeferDisabledComponents();
                     }
                 }
                 else
@@ -226,6 +238,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 isLogExtensionEnabled = VALUE_TRUE.equalsIgnoreCase(String.valueOf(config.get(PROP_LOG_EXTENSION)));
                 Object cmdEnabled =  config.get( PROP_COMMANDS_ENABLED );
                 commandsEnabled=cmdEnabled == null ? true : VALUE_TRUE.equalsIgnoreCase(cmdEnabled.toString());
+                activationParallelism = getActivationParallelism( config.get( PROP_ACTIVATION_PARALLELISM ) );
+                sharedServiceListener = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_SHARED_SERVICE_LISTENER ) ) );
+                deferDisabledComponents = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_DEFER_DISABLED_COMPONENTS ) ) );
             }
             if ( scrCommand != null )
             {
@@ -302,6 +317,24 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return serviceChangecountTimeout;
     }
 
+    @Override
+    public int activationParallelism()
+    {
+        return activationParallelism;
+    }
+
+    @Override
+    public boolean sharedServiceListener()
+    {
+        return sharedServiceListener;
+    }
+
+    @Override
+    public boolean deferDisabledComponents()
+    {
+        return deferDisabledComponents;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -365,6 +398,39 @@ public class ScrConfigurationImpl implements ScrConfiguration
             bundleContext.getProperty(PROP_CACHE_METADATA));
     }
 
+    private boolean getDefaultSharedServiceListener()
+    {
+        return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_SHARED_SERVICE_LISTENER ) );
+    }
+
+    private boolean getDefaultDeferDisabledComponents()
+    {
+        return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_DEFER_DISABLED_COMPONENTS ) );
+    }
+
+    private int getDefaultActivationParallelism()
+    {
+        return getActivationParallelism( bundleContext.getProperty( PROP_ACTIVATION_PARALLELISM ) );
+    }
+
+    private int getActivationParallelism( final Object value )
+    {
+        if ( value == null )
+        {
+            return DEFAULT_ACTIVATION_PARALLELISM;
+        }
+        try
+        {
+            int parallelism = ( value instanceof Number ) ? ( ( Number ) value ).intValue()
+                : Integer.parseInt( value.toString().trim() );
+            return Math.max( parallelism, 1 );
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return DEFAULT_ACTIVATION_PARALLELISM;
+        }
+    }
+
     private Level getLogLevel(final Object levelObject)
     {
         if ( levelObject != null )
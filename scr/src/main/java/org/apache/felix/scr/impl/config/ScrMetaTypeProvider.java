@@ -129,6 +129,33 @@ class ScrMetaTypeProvider implements MetaTypeProvider
                 "Whether to enable the Felix SCR commands. If set to false, the commands will not be registered and thus not available.",
                 true ) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTIVATION_PARALLELISM,
+                "Activation Parallelism",
+                "How many threads enable the components of a starting bundle and activate its immediate components. "
+                    + "The default of 1 enables them one after the other on the thread starting the bundle. "
+                    + "This setting takes effect when the components of a bundle are next loaded.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.configuration.activationParallelism())},
+                0, null, null) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_SHARED_SERVICE_LISTENER,
+                "Shared Service Listener",
+                "Whether the references of the components of a bundle share a single service listener, which dispatches "
+                    + "the service events by service interface, instead of registering a service listener per target filter. "
+                    + "Listener hooks then only see the shared listener without a filter. "
+                    + "This setting takes effect when the components of a bundle are next loaded.",
+                false ) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_DEFER_DISABLED_COMPONENTS,
+                "Defer Disabled Components",
+                "Whether the metadata of named components which are disabled by default is only read from the component "
+                    + "descriptors once the components are enabled or looked up. This setting has no effect if the "
+                    + "component metadata is cached and takes effect when the components of a bundle are next loaded.",
+                false ) );
+
         return new ObjectClassDefinition()
         {
 
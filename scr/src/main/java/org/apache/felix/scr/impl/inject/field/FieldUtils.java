@@ -18,6 +18,7 @@
  */
 package org.apache.felix.scr.impl.inject.field;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -299,6 +300,35 @@ public class FieldUtils {
     		final Object value,
     		final ComponentLogger logger )
     {
+        setField( f, null, component, value, logger );
+    }
+
+    /**
+     * Set the field, using the given setter handle if not <code>null</code>
+     * @param f The field
+     * @param setter The handle to set the field, may be <code>null</code>
+     * @param component The component instance
+     * @param value The value to set
+     * @param logger The logger
+     */
+    public static void setField( final Field f,
+            final MethodHandle setter,
+            final Object component,
+            final Object value,
+            final ComponentLogger logger )
+    {
+        if ( setter != null )
+        {
+            try
+            {
+                setter.invokeExact( component, value );
+            }
+            catch ( final Throwable t )
+            {
+                logger.log(Level.ERROR, "Field {0} can't be set", t, f.getName());
+            }
+            return;
+        }
         try
         {
             f.set(component, value);
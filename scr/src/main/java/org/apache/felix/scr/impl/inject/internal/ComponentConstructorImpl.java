@@ -18,8 +18,10 @@
  */
 package org.apache.felix.scr.impl.inject.internal;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -46,9 +48,11 @@ import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
 public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
 {
     private final Field[] activationFields;
+    private final MethodHandle[] activationFieldSetters;
     private final ValueType[] activationFieldTypes;
 
     private final Constructor<S> constructor;
+    private final MethodHandle constructorHandle;
     private final ValueType[] constructorArgTypes;
     private final ReferenceMetadata[] constructorRefs;
 
@@ -173,6 +177,7 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
         }
 
         this.constructor = found;
+        this.constructorHandle = found == null ? null : MethodHandleUtils.getConstructorHandle(found);
         this.constructorArgTypes = foundTypes;
         this.constructorRefs = foundRefs;
 
@@ -181,6 +186,7 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
         {
             activationFieldTypes = new ValueType[componentMetadata.getActivationFields().size()];
             activationFields = new Field[activationFieldTypes.length];
+            activationFieldSetters = new MethodHandle[activationFieldTypes.length];
 
             int index = 0;
             for(final String fieldName : componentMetadata.getActivationFields() )
@@ -197,6 +203,7 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
                     {
                         activationFieldTypes[index] = ValueUtils.getValueType(result.field.getType());
                         activationFields[index] = result.field;
+                        activationFieldSetters[index] = MethodHandleUtils.getSetterHandle(result.field);
                     }
                     else
                     {
@@ -212,6 +219,7 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
         {
             activationFieldTypes = ValueUtils.EMPTY_VALUE_TYPES;
             activationFields = null;
+            activationFieldSetters = null;
         }
 
         if ( constructor == null )
@@ -323,7 +331,7 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
                 }
             }
         }
-        final S component = constructor.newInstance(args);
+        final S component = newInstance(args);
 
         // activation fields
         for(int i = 0; i<activationFieldTypes.length; i++)
@@ -336,13 +344,35 @@ public class ComponentConstructorImpl<S> implements ComponentConstructor<S>
                         componentContext,
                         null, // null is ok as activation fields are not references
                         null);
-                FieldUtils.setField(activationFields[i], component, value, componentContext.getLogger());
+                FieldUtils.setField(activationFields[i], activationFieldSetters[i],
+                        component, value, componentContext.getLogger());
             }
         }
 
         return component;
     }
 
+    /**
+     * Calls the constructor through its handle if there is one, otherwise
+     * through reflection.
+     */
+    @SuppressWarnings("unchecked")
+    private S newInstance(final Object[] args) throws Exception
+    {
+        if ( constructorHandle == null )
+        {
+            return constructor.newInstance(args);
+        }
+        try
+        {
+            return (S) (Object) constructorHandle.invokeExact(args);
+        }
+        catch ( final Throwable t )
+        {
+            throw new InvocationTargetException(t);
+        }
+    }
+
     private String getNames(final List<ReferenceMetadata> refs)
     {
         final StringBuilder sb = new StringBuilder();
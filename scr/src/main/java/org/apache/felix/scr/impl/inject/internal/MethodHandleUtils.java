@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+
+/**
+ * Utility methods to create method handles for the methods, constructors
+ * and fields used to create and inject component instances.
+ * <p>
+ * The handles are created once, when the member is resolved, and replace
+ * the reflective calls done for every activation, bind, unbind or update.
+ * This saves the access and argument checks that reflection repeats on
+ * every call. The members must have been made accessible before. If a
+ * handle cannot be created, <code>null</code> is returned and the caller
+ * falls back to reflection.
+ */
+public class MethodHandleUtils
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /** Type of method handles: (instance, arguments) -> result */
+    private static final MethodType METHOD_TYPE = MethodType.methodType( Object.class, Object.class, Object[].class );
+
+    /** Type of constructor handles: (arguments) -> instance */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType( Object.class, Object[].class );
+
+    /** Type of field getters: (instance) -> value */
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+    /** Type of field setters: (instance, value) -> void */
+    private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class, Object.class );
+
+    private static volatile boolean enabled = true;
+
+    /**
+     * Enables or disables the creation of handles. While disabled, no
+     * handles are created and the members are invoked through reflection.
+     * <b>Note: This method is intended for unit testing only</b>
+     */
+    public static void setEnabled( final boolean flag )
+    {
+        enabled = flag;
+    }
+
+    /**
+     * Returns a handle to invoke the method with <code>invokeExact(Object, Object[])</code>
+     * returning <code>Object</code>, which is <code>null</code> for void methods.
+     */
+    public static MethodHandle getMethodHandle( final Method method )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflect( method )
+                .asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( METHOD_TYPE );
+        }
+        catch ( final IllegalAccessException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle to invoke the constructor with <code>invokeExact(Object[])</code>
+     * returning <code>Object</code>.
+     */
+    public static MethodHandle getConstructorHandle( final Constructor<?> constructor )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflectConstructor( constructor )
+                .asSpreader( Object[].class, constructor.getParameterTypes().length )
+                .asType( CONSTRUCTOR_TYPE );
+        }
+        catch ( final IllegalAccessException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle to get the value of the field with <code>invokeExact(Object)</code>
+     * returning <code>Object</code>.
+     */
+    public static MethodHandle getGetterHandle( final Field field )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflectGetter( field ).asType( GETTER_TYPE );
+        }
+        catch ( final IllegalAccessException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle to set the value of the field with
+     * <code>invokeExact(Object, Object)</code>.
+     */
+    public static MethodHandle getSetterHandle( final Field field )
+    {
+        if ( !enabled )
+        {
+            return null;
+        }
+        try
+        {
+            return LOOKUP.unreflectSetter( field ).asType( SETTER_TYPE );
+        }
+        catch ( final IllegalAccessException | RuntimeException e )
+        {
+            return null;
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -30,6 +31,7 @@ import java.util.Map;
 import org.apache.felix.scr.impl.inject.BaseParameter;
 import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.internal.ClassUtils;
+import org.apache.felix.scr.impl.inject.internal.MethodHandleUtils;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.metadata.DSVersion;
@@ -49,6 +51,9 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    // handle of m_method, null if it cannot be invoked through a handle
+    private volatile MethodHandle m_handle;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -106,6 +111,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
     synchronized void setMethod(MethodInfo<T> methodInfo, ComponentLogger logger)
     {
         this.m_method = methodInfo == null ? null : methodInfo.getMethod();
+        this.m_handle = m_method == null ? null : MethodHandleUtils.getMethodHandle( m_method );
 
         if (m_method != null)
         {
@@ -254,7 +260,7 @@ public abstract class BaseMethod<P extends BaseParameter, T>
                             getMethodName(), Arrays.asList(getParametersForLogging(params)));
                 }
                 @SuppressWarnings("unchecked")
-                final Map<String, Object> result = (Map<String, Object>) m_method.invoke(
+                final Map<String, Object> result = (Map<String, Object>) invoke(
                     componentInstance, params);
                 logger.log(Level.DEBUG, "invoked {0}: {1}", null,
                         getMethodNamePrefix(), getMethodName() );
@@ -296,6 +302,29 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return MethodResult.VOID;
     }
 
+    /**
+     * Calls the method through its handle if there is one, otherwise
+     * through reflection. Exceptions thrown by the method are always
+     * wrapped in an <code>InvocationTargetException</code>.
+     */
+    private Object invoke( final Object componentInstance, final Object[] params )
+            throws IllegalAccessException, InvocationTargetException
+    {
+        final MethodHandle handle = m_handle;
+        if ( handle == null )
+        {
+            return m_method.invoke( componentInstance, params );
+        }
+        try
+        {
+            return handle.invokeExact( componentInstance, params );
+        }
+        catch ( final Throwable t )
+        {
+            throw new InvocationTargetException( t );
+        }
+    }
+
     protected boolean returnValue()
     {
         // allow returning Map if declared as DS 1.2-Felix or newer
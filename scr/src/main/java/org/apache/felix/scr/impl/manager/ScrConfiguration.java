@@ -70,6 +70,14 @@ public interface ScrConfiguration extends LogConfiguration
     String PROP_CACHE_METADATA = "ds.cache.metadata";
 
     String PROP_COMMANDS_ENABLED = "ds.commands.enabled";
+
+    String PROP_ACTIVATION_PARALLELISM = "ds.activation.parallelism";
+
+    int DEFAULT_ACTIVATION_PARALLELISM = 1;
+
+    String PROP_SHARED_SERVICE_LISTENER = "ds.shared.service.listener";
+
+    String PROP_DEFER_DISABLED_COMPONENTS = "ds.defer.disabled.components";
     
     boolean isFactoryEnabled();
 
@@ -97,4 +105,25 @@ public interface ScrConfiguration extends LogConfiguration
 
 	boolean isCommandsEnabled();
 
+    /**
+     * Returns the number of threads enabling the components of a bundle
+     * when it is started. The default of <code>1</code> enables them
+     * sequentially on the thread starting the bundle.
+     */
+    int activationParallelism();
+
+    /**
+     * Returns whether the references of the components of a bundle share a
+     * single service listener, which dispatches the service events by
+     * service interface, instead of registering a listener per target filter.
+     */
+    boolean sharedServiceListener();
+
+    /**
+     * Returns whether reading the metadata of the named components which
+     * are disabled by default is deferred until they are needed, for example
+     * when they are enabled. This has no effect if the metadata is cached.
+     */
+    boolean deferDisabledComponents();
+
 }
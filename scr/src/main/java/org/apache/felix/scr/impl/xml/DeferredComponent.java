@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.xml;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+
+/**
+ * The <code>DeferredComponent</code> indexes a component element whose
+ * metadata has not been read by the {@link XmlHandler}, since the component
+ * is disabled by default. The full metadata is read from the descriptor
+ * again once the component is needed, where the index of the component
+ * selects it from the components of the descriptor.
+ */
+public class DeferredComponent
+{
+    private final String m_name;
+
+    private final int m_index;
+
+    private final String m_configurationPolicy;
+
+    private String m_implementationClassName;
+
+
+    DeferredComponent( String name, int index, String configurationPolicy )
+    {
+        m_name = name;
+        m_index = index;
+        m_configurationPolicy = configurationPolicy;
+    }
+
+
+    /**
+     * Returns the name of the component.
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+
+    /**
+     * Returns the position of the component among the components of its
+     * descriptor, counting the deferred ones.
+     */
+    public int getIndex()
+    {
+        return m_index;
+    }
+
+
+    /**
+     * Returns the implementation class name of the component or
+     * <code>null</code> if the descriptor does not declare one.
+     */
+    public String getImplementationClassName()
+    {
+        return m_implementationClassName;
+    }
+
+
+    void setImplementationClassName( String implementationClassName )
+    {
+        m_implementationClassName = implementationClassName;
+    }
+
+
+    /**
+     * Returns <code>true</code> if the configuration policy of the component
+     * is <code>ignore</code>.
+     */
+    public boolean isConfigurationIgnored()
+    {
+        return ComponentMetadata.CONFIGURATION_POLICY_IGNORE.equals( m_configurationPolicy );
+    }
+}
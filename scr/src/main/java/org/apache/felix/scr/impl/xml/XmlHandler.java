@@ -57,6 +57,9 @@ public class XmlHandler extends DefaultHandler
 
     private final ServiceReference<?> m_trueCondition;
 
+    // whether components disabled by default are only indexed
+    private final boolean m_deferDisabledComponents;
+
     // A reference to the current component
     private ComponentMetadata m_currentComponent;
 
@@ -66,6 +69,12 @@ public class XmlHandler extends DefaultHandler
     // A list of component descriptors contained in the file
     private List<ComponentMetadata> m_components = new ArrayList<>();
 
+    // A list of the components contained in the file whose metadata is not read
+    private List<DeferredComponent> m_deferredComponents = new ArrayList<>();
+
+    // A reference to the current component if its metadata is not read
+    private DeferredComponent m_currentDeferredComponent;
+
     // PropertyMetaData whose value attribute is missing, hence has element data
     private PropertyMetadata m_pendingProperty;
 
@@ -86,12 +95,21 @@ public class XmlHandler extends DefaultHandler
     // creates an instance with the bundle owning the component descriptor
     // file parsed by this instance
     public XmlHandler(Bundle bundle, BundleLogger logger, boolean globalObsoleteFactoryComponentFactory, boolean globalDelayedKeepInstances, ServiceReference<?> trueCondition)
+    {
+        this( bundle, logger, globalObsoleteFactoryComponentFactory, globalDelayedKeepInstances, trueCondition, false );
+    }
+
+    // creates an instance which only indexes the named components disabled
+    // by default instead of reading their metadata, if deferDisabledComponents
+    // is true
+    public XmlHandler(Bundle bundle, BundleLogger logger, boolean globalObsoleteFactoryComponentFactory, boolean globalDelayedKeepInstances, ServiceReference<?> trueCondition, boolean deferDisabledComponents)
     {
         m_bundle = bundle;
         m_logger = logger;
         m_globalObsoleteFactoryComponentFactory = globalObsoleteFactoryComponentFactory;
         m_globalDelayedKeepInstances = globalDelayedKeepInstances;
         m_trueCondition = trueCondition;
+        m_deferDisabledComponents = deferDisabledComponents;
     }
 
 
@@ -106,6 +124,19 @@ public class XmlHandler extends DefaultHandler
     }
 
 
+    /**
+     * Called to retrieve the components whose metadata has not been read,
+     * since they are disabled by default. This list is always empty unless
+     * the handler has been created to defer disabled components.
+     *
+     * @return   A list of deferred components
+     */
+    public List<DeferredComponent> getDeferredComponents()
+    {
+        return m_deferredComponents;
+    }
+
+
     @Override
     public void startElement( String uri, String localName, String qName, Attributes attributes ) throws SAXException
     {
@@ -146,6 +177,21 @@ public class XmlHandler extends DefaultHandler
                 if ( localName.equals( XmlConstants.EL_COMPONENT ) )
                 {
                     this.isComponent = true;
+                    m_currentDeferredComponent = null;
+
+                    // only index named components disabled by default, the
+                    // metadata is read again when the component is needed
+                    String name = attributes.getValue( XmlConstants.NAMESPACE_URI_EMPTY, XmlConstants.ATTR_NAME );
+                    String enabled = attributes.getValue( XmlConstants.NAMESPACE_URI_EMPTY, "enabled" );
+                    if ( m_deferDisabledComponents && name != null && enabled != null && !enabled.equals( "true" ) )
+                    {
+                        m_currentComponent = null;
+                        m_currentDeferredComponent = new DeferredComponent( name,
+                            m_components.size() + m_deferredComponents.size(),
+                            attributes.getValue( XmlConstants.NAMESPACE_URI_EMPTY, "configuration-policy" ) );
+                        m_deferredComponents.add( m_currentDeferredComponent );
+                        return;
+                    }
 
                     // Create a new ComponentMetadata
                     m_currentComponent = new ComponentMetadata( namespaceCode );
@@ -247,6 +293,15 @@ public class XmlHandler extends DefaultHandler
                                     localName, m_bundle.getLocation() );
                 }
 
+                // inside a deferred component only the implementation is indexed
+                else if ( m_currentDeferredComponent != null )
+                {
+                    if ( localName.equals( XmlConstants.EL_IMPL ) )
+                    {
+                        m_currentDeferredComponent.setImplementationClassName( attributes.getValue( XmlConstants.NAMESPACE_URI_EMPTY, "class" ) );
+                    }
+                }
+
                 // 112.4.4 Implementation
                 else if ( localName.equals( XmlConstants.EL_IMPL ) )
                 {
@@ -464,6 +519,7 @@ public class XmlHandler extends DefaultHandler
             if ( localName.equals( XmlConstants.EL_COMPONENT ) )
             {
                 this.isComponent = false;
+                m_currentDeferredComponent = null;
             }
             else if ( localName.equals( XmlConstants.EL_PROPERTY ) && m_pendingProperty != null )
             {
@@ -489,7 +545,7 @@ public class XmlHandler extends DefaultHandler
         // When a true condition service is available from the framework, an implicit satisfying condition
         // reference is automatically added to all components unless they already explicitly declare one.
         // This allows components to be activated only when certain runtime conditions are met.
-        if (m_trueCondition != null && localName.equals(XmlConstants.EL_COMPONENT))
+        if (m_trueCondition != null && m_currentComponent != null && localName.equals(XmlConstants.EL_COMPONENT))
         {
             boolean missingSatisfyingConditionRef = true;
             for (ReferenceMetadata ref : m_currentComponent.getDependencies())
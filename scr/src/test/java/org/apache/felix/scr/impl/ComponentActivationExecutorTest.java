@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ComponentActivationExecutorTest extends TestCase
+{
+
+    private static final int PARALLELISM = 4;
+
+    private ComponentActivationExecutor executor;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        executor = new ComponentActivationExecutor( PARALLELISM );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the tasks run concurrently: each of them waits until all of
+     * them have started.
+     */
+    public void test_runAll_parallel() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( PARALLELISM );
+        final Set<Thread> threads = Collections.newSetFromMap( new ConcurrentHashMap<Thread, Boolean>() );
+        final List<Runnable> tasks = new ArrayList<>();
+        for ( int i = 0; i < PARALLELISM; i++ )
+        {
+            tasks.add( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    threads.add( Thread.currentThread() );
+                    started.countDown();
+                    try
+                    {
+                        started.await( 10, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+        }
+
+        executor.runAll( tasks );
+
+        assertEquals( 0, started.getCount() );
+        assertEquals( PARALLELISM, threads.size() );
+        assertFalse( threads.contains( Thread.currentThread() ) );
+    }
+
+    /**
+     * Test that tasks started from the tasks of the pool, like the extension
+     * of a bundle started while activating a component, run on the calling
+     * thread even if all threads of the pool are busy.
+     */
+    public void test_runAll_nested() throws Exception
+    {
+        final AtomicInteger nested = new AtomicInteger();
+        final List<Runnable> tasks = new ArrayList<>();
+        for ( int i = 0; i < PARALLELISM; i++ )
+        {
+            tasks.add( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final Thread outer = Thread.currentThread();
+                    final List<Runnable> nestedTasks = new ArrayList<>();
+                    for ( int j = 0; j < PARALLELISM; j++ )
+                    {
+                        nestedTasks.add( new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                if ( Thread.currentThread() == outer )
+                                {
+                                    nested.incrementAndGet();
+                                }
+                            }
+                        } );
+                    }
+                    try
+                    {
+                        executor.runAll( nestedTasks );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            } );
+        }
+
+        // run from another thread so that a deadlock fails the test
+        final ComponentActivationExecutor caller = new ComponentActivationExecutor( 1 );
+        try
+        {
+            Future<?> future = caller.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        executor.runAll( tasks );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new IllegalStateException( e );
+                    }
+                }
+            } );
+            future.get( 10, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            caller.shutdownNow();
+        }
+
+        assertEquals( PARALLELISM * PARALLELISM, nested.get() );
+    }
+
+    /**
+     * Test that the tasks run on the calling thread once the pool is shut down.
+     */
+    public void test_runAll_shutdown() throws Exception
+    {
+        executor.shutdown();
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        for ( int i = 0; i < PARALLELISM; i++ )
+        {
+            tasks.add( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    threads.add( Thread.currentThread() );
+                }
+            } );
+        }
+
+        executor.runAll( tasks );
+
+        assertEquals( Collections.nCopies( PARALLELISM, Thread.currentThread() ), threads );
+    }
+
+    /**
+     * Test that a failing task does not prevent the others from running.
+     */
+    public void test_runAll_failure() throws Exception
+    {
+        final AtomicInteger done = new AtomicInteger();
+        final List<Runnable> tasks = new ArrayList<>();
+        for ( int i = 0; i < PARALLELISM; i++ )
+        {
+            final boolean fail = i == 0;
+            tasks.add( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if ( fail )
+                    {
+                        throw new IllegalStateException( "failing" );
+                    }
+                    done.incrementAndGet();
+                }
+            } );
+        }
+
+        try
+        {
+            executor.runAll( tasks );
+            fail( "Expected ExecutionException" );
+        }
+        catch ( ExecutionException ee )
+        {
+            assertTrue( ee.getCause() instanceof IllegalStateException );
+        }
+        assertEquals( PARALLELISM - 1, done.get() );
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.logger.ScrLogger;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import junit.framework.TestCase;
+
+public class ComponentMetadataStoreTest extends TestCase
+{
+
+    private File dataDir;
+
+    private StoreContext context;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        dataDir = Files.createTempDirectory( "scr" ).toFile();
+        context = new StoreContext( dataDir );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for ( File f : dataDir.listFiles() )
+        {
+            f.delete();
+        }
+        dataDir.delete();
+    }
+
+    public void test_store_and_load_lazily()
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        final Bundle b2 = context.addBundle( 2, 200 );
+
+        ComponentMetadataStore store = load();
+        assertNull( store.get( b1 ) );
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ), createComponentMetadata( "c2" ) ) );
+        store.put( 2L, Collections.<ComponentMetadata> emptyList() );
+        store.store();
+        final File file = new File( dataDir, ComponentMetadataStore.STORE_FILE );
+        assertTrue( file.isFile() );
+
+        store = load();
+        final List<ComponentMetadata> components = store.get( b1 );
+        assertEquals( 2, components.size() );
+        assertEquals( "c1", components.get( 0 ).getName() );
+        assertEquals( "c2", components.get( 1 ).getName() );
+        assertEquals( "c1.implementation", components.get( 0 ).getImplementationClassName() );
+        assertSame( components, store.get( b1 ) );
+        assertTrue( store.get( b2 ).isEmpty() );
+
+        // nothing changed, the store is not written again
+        file.delete();
+        store.store();
+        assertFalse( file.exists() );
+    }
+
+    public void test_invalidated_by_last_modified()
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        ComponentMetadataStore store = load();
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ) ) );
+        store.store();
+
+        final Bundle updated = context.addBundle( 1, 101 );
+        store = load();
+        assertNull( store.get( updated ) );
+        store.store();
+        assertNull( load().get( b1 ) );
+    }
+
+    public void test_incremental_update()
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        final Bundle b2 = context.addBundle( 2, 200 );
+        context.addBundle( 3, 300 );
+        ComponentMetadataStore store = load();
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ) ) );
+        store.put( 2L, Arrays.asList( createComponentMetadata( "c2" ) ) );
+        store.put( 3L, Arrays.asList( createComponentMetadata( "c3" ) ) );
+        store.store();
+
+        // bundle 1 is parsed again, bundle 2 is left as is and bundle 3 is uninstalled
+        context.removeBundle( 3 );
+        store = load();
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ), createComponentMetadata( "c1b" ) ) );
+        store.store();
+
+        store = load();
+        assertEquals( 2, store.get( b1 ).size() );
+        assertEquals( "c1b", store.get( b1 ).get( 1 ).getName() );
+        assertEquals( "c2", store.get( b2 ).get( 0 ).getName() );
+        assertNull( store.get( context.addBundle( 3, 300 ) ) );
+    }
+
+    public void test_load_put_store_load() throws Exception
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        final Bundle b2 = context.addBundle( 2, 200 );
+        ComponentMetadataStore store = load();
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ) ) );
+        store.put( 2L, Arrays.asList( createComponentMetadata( "c2" ) ) );
+        store.store();
+
+        // bundle 1 is parsed again while the section of bundle 2 is still
+        // only held by the loaded store, which then replaces the file
+        final Bundle updated = context.addBundle( 1, 101 );
+        store = load();
+        assertNull( store.get( updated ) );
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1b" ) ) );
+        store.store();
+        assertFalse( new File( dataDir, ComponentMetadataStore.STORE_FILE + ".tmp" ).exists() );
+
+        store = load();
+        assertEquals( "c1b", store.get( updated ).get( 0 ).getName() );
+        assertNull( load().get( b1 ) );
+
+        // the loaded store does not depend on the file anymore
+        Files.write( new File( dataDir, ComponentMetadataStore.STORE_FILE ).toPath(), new byte[0] );
+        assertEquals( "c2", store.get( b2 ).get( 0 ).getName() );
+    }
+
+    public void test_disabled()
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        final ComponentMetadataStore store = ComponentMetadataStore.load( context, Mockito.mock( ScrLogger.class ), false );
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ) ) );
+        assertNull( store.get( b1 ) );
+        store.store();
+        assertFalse( new File( dataDir, ComponentMetadataStore.STORE_FILE ).exists() );
+    }
+
+    public void test_corrupt_store_is_ignored() throws Exception
+    {
+        final Bundle b1 = context.addBundle( 1, 100 );
+        Files.write( new File( dataDir, ComponentMetadataStore.STORE_FILE ).toPath(), new byte[] { 0, 0, 0, 2, 0, 0, 0, 1, 0 } );
+        final ComponentMetadataStore store = load();
+        assertNull( store.get( b1 ) );
+        store.put( 1L, Arrays.asList( createComponentMetadata( "c1" ) ) );
+        store.store();
+        assertEquals( "c1", load().get( b1 ).get( 0 ).getName() );
+    }
+
+    private ComponentMetadataStore load()
+    {
+        return ComponentMetadataStore.load( context, Mockito.mock( ScrLogger.class ), true );
+    }
+
+    private static ComponentMetadata createComponentMetadata( String name )
+    {
+        ComponentMetadata meta = new ComponentMetadata( DSVersion.DS13 );
+        meta.setName( name );
+        meta.setImplementationClassName( name + ".implementation" );
+        meta.validate();
+        return meta;
+    }
+
+    private static class StoreContext extends MockBundleContext
+    {
+        private final File dataDir;
+
+        private final Map<Long, Bundle> bundles = new HashMap<>();
+
+        StoreContext( File dataDir )
+        {
+            super( new MockBundle() );
+            this.dataDir = dataDir;
+        }
+
+        Bundle addBundle( long id, long lastModified )
+        {
+            Bundle bundle = Mockito.mock( Bundle.class );
+            Mockito.when( bundle.getBundleId() ).thenReturn( id );
+            Mockito.when( bundle.getLastModified() ).thenReturn( lastModified );
+            bundles.put( id, bundle );
+            return bundle;
+        }
+
+        void removeBundle( long id )
+        {
+            bundles.remove( id );
+        }
+
+        @Override
+        public File getDataFile( String filename )
+        {
+            return new File( dataDir, filename );
+        }
+
+        @Override
+        public Bundle getBundle( String location )
+        {
+            return new MockBundle()
+            {
+                @Override
+                public BundleContext getBundleContext()
+                {
+                    return StoreContext.this;
+                }
+            };
+        }
+
+        @Override
+        public Bundle getBundle( long id )
+        {
+            return bundles.get( id );
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.felix.scr.impl.logger.BundleLogger;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+import junit.framework.TestCase;
+
+public class ServiceEventDispatcherTest extends TestCase
+{
+
+    public void test_getObjectClass()
+    {
+        assertEquals( "foo.Bar", ServiceEventDispatcher.getObjectClass( "(objectClass=foo.Bar)" ) );
+        assertEquals( "foo.Bar", ServiceEventDispatcher.getObjectClass( "(&(objectClass=foo.Bar)(name=x))" ) );
+        assertEquals( "*", ServiceEventDispatcher.getObjectClass( "(objectClass=*)" ) );
+        assertEquals( "*", ServiceEventDispatcher.getObjectClass( "(objectClass=foo.*)" ) );
+        assertEquals( "*", ServiceEventDispatcher.getObjectClass( "(name=x)" ) );
+        assertEquals( "*", ServiceEventDispatcher.getObjectClass( "(|(objectClass=foo.Bar)(name=x))" ) );
+    }
+
+    public void test_registers_single_listener() throws Exception
+    {
+        final ListenerContext context = new ListenerContext();
+        final ServiceEventDispatcher dispatcher = new ServiceEventDispatcher( context, Mockito.mock( BundleLogger.class ) );
+        final RecordingListener first = new RecordingListener();
+        final RecordingListener second = new RecordingListener();
+
+        dispatcher.addServiceListener( first, "(objectClass=foo.Bar)" );
+        dispatcher.addServiceListener( second, "(&(objectClass=foo.Baz)(name=x))" );
+        assertEquals( 1, context.listeners.size() );
+
+        dispatcher.removeServiceListener( first );
+        assertEquals( 1, context.listeners.size() );
+        dispatcher.removeServiceListener( second );
+        assertEquals( 0, context.listeners.size() );
+    }
+
+    public void test_dispatch_by_objectClass_and_filter() throws Exception
+    {
+        final ListenerContext context = new ListenerContext();
+        final ServiceEventDispatcher dispatcher = new ServiceEventDispatcher( context, Mockito.mock( BundleLogger.class ) );
+        final RecordingListener bar = new RecordingListener();
+        final RecordingListener bazX = new RecordingListener();
+        final RecordingListener any = new RecordingListener();
+        dispatcher.addServiceListener( bar, "(objectClass=foo.Bar)" );
+        dispatcher.addServiceListener( bazX, "(&(objectClass=foo.Baz)(name=x))" );
+        dispatcher.addServiceListener( any, "(&(objectClass=*)(name=x))" );
+
+        final ServiceListener listener = context.listeners.get( 0 );
+        final Reference barRef = new Reference( "foo.Bar" );
+        final Reference bazRef = new Reference( "foo.Baz", "foo.Bar" );
+        bazRef.properties.put( "name", "x" );
+
+        listener.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, barRef ) );
+        listener.serviceChanged( new ServiceEvent( ServiceEvent.REGISTERED, bazRef ) );
+        assertEquals( 2, bar.events.size() );
+        assertEquals( 1, bazX.events.size() );
+        assertSame( bazRef, bazX.events.get( 0 ).getServiceReference() );
+        assertEquals( 1, any.events.size() );
+
+        // modified to not match the target anymore
+        bazRef.properties.put( "name", "y" );
+        listener.serviceChanged( new ServiceEvent( ServiceEvent.MODIFIED, bazRef ) );
+        assertEquals( ServiceEvent.MODIFIED, bar.events.get( 2 ).getType() );
+        assertEquals( ServiceEvent.MODIFIED_ENDMATCH, bazX.events.get( 1 ).getType() );
+        assertEquals( ServiceEvent.MODIFIED_ENDMATCH, any.events.get( 1 ).getType() );
+
+        // a listener not matching a service being unregistered is not told
+        listener.serviceChanged( new ServiceEvent( ServiceEvent.UNREGISTERING, bazRef ) );
+        assertEquals( ServiceEvent.UNREGISTERING, bar.events.get( 3 ).getType() );
+        assertEquals( 2, bazX.events.size() );
+        assertEquals( 2, any.events.size() );
+    }
+
+    private static class RecordingListener implements ServiceListener
+    {
+        final List<ServiceEvent> events = new ArrayList<>();
+
+        @Override
+        public void serviceChanged( ServiceEvent event )
+        {
+            events.add( event );
+        }
+    }
+
+    private static class ListenerContext extends MockBundleContext
+    {
+        final List<ServiceListener> listeners = new ArrayList<>();
+
+        ListenerContext()
+        {
+            super( new MockBundle() );
+        }
+
+        @Override
+        public void addServiceListener( ServiceListener listener )
+        {
+            listeners.add( listener );
+        }
+
+        @Override
+        public void removeServiceListener( ServiceListener listener )
+        {
+            listeners.remove( listener );
+        }
+    }
+
+    private static class Reference implements ServiceReference<Object>
+    {
+        final Dictionary<String, Object> properties = new Hashtable<>();
+
+        Reference( String... objectClass )
+        {
+            properties.put( Constants.OBJECTCLASS, objectClass );
+        }
+
+        @Override
+        public Object getProperty( String key )
+        {
+            // keys are case insensitive
+            for ( String k : getPropertyKeys() )
+            {
+                if ( k.equalsIgnoreCase( key ) )
+                {
+                    return properties.get( k );
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String[] getPropertyKeys()
+        {
+            final List<String> keys = new ArrayList<>();
+            for ( Enumeration<String> e = properties.keys(); e.hasMoreElements(); )
+            {
+                keys.add( e.nextElement() );
+            }
+            return keys.toArray( new String[keys.size()] );
+        }
+
+        @Override
+        public Bundle getBundle()
+        {
+            return null;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isAssignableTo( Bundle bundle, String className )
+        {
+            return true;
+        }
+
+        @Override
+        public int compareTo( Object reference )
+        {
+            return 0;
+        }
+
+        @Override
+        public Dictionary<String, Object> getProperties()
+        {
+            return new Hashtable<>( ( Hashtable<String, Object> ) properties );
+        }
+
+        @Override
+        public <A> A adapt( Class<A> type )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.field;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.felix.scr.impl.inject.InitReferenceMethod;
+import org.apache.felix.scr.impl.inject.internal.MethodHandleUtils;
+import org.apache.felix.scr.impl.logger.MockComponentLogger;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+
+import junit.framework.TestCase;
+
+
+public class FieldHandlerTest extends TestCase
+{
+
+    public static class Component
+    {
+        private List<Runnable> multiple;
+
+        private Runnable optional = new Thread();
+
+        private final List<Runnable> provided = new CopyOnWriteArrayList<>( Collections.<Runnable>singletonList( new Thread() ) );
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        MethodHandleUtils.setEnabled( true );
+        super.tearDown();
+    }
+
+
+    public void test_method_handle() throws Exception
+    {
+        checkInit();
+    }
+
+
+    public void test_reflection_fallback() throws Exception
+    {
+        MethodHandleUtils.setEnabled( false );
+        checkInit();
+    }
+
+
+    private void checkInit() throws Exception
+    {
+        Component component = new Component();
+
+        // multiple and update: the field is read and then set to a new list
+        assertTrue( init( component, "multiple", "0..n", "update" ) );
+        assertNotNull( component.multiple );
+        assertTrue( component.multiple.isEmpty() );
+
+        // optional and unary: the field is set to null
+        assertTrue( init( component, "optional", "0..1", "replace" ) );
+        assertNull( component.optional );
+
+        // multiple and update with a collection provided by the component:
+        // the field is read and kept
+        List<Runnable> provided = component.provided;
+        assertTrue( init( component, "provided", "0..n", "update" ) );
+        assertSame( provided, component.provided );
+        assertEquals( 1, component.provided.size() );
+    }
+
+
+    private boolean init( Component component, String field, String cardinality, String fieldOption )
+    {
+        ReferenceMetadata metadata = new ReferenceMetadata();
+        metadata.setName( field );
+        metadata.setInterface( Runnable.class.getName() );
+        metadata.setCardinality( cardinality );
+        // the update strategy is only allowed for dynamic references
+        metadata.setPolicy( "update".equals( fieldOption ) ? "dynamic" : "static" );
+        metadata.setField( field );
+        metadata.setFieldOption( fieldOption );
+
+        FieldHandler handler = new FieldHandler( metadata, Component.class );
+        MockComponentLogger logger = new MockComponentLogger();
+        assertTrue( handler.fieldExists( logger ) );
+        InitReferenceMethod init = handler.getInit();
+        assertNotNull( init );
+        return init.init( component, logger );
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.felix.scr.impl.logger.ComponentLogger;
+import org.apache.felix.scr.impl.logger.MockComponentLogger;
+import org.apache.felix.scr.impl.manager.ComponentActivator;
+import org.apache.felix.scr.impl.manager.ComponentContainer;
+import org.apache.felix.scr.impl.manager.ComponentContextImpl;
+import org.apache.felix.scr.impl.manager.SingleComponentManager;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.ComponentContext;
+
+import junit.framework.TestCase;
+
+public class ComponentConstructorImplTest extends TestCase
+{
+
+    public static class Component
+    {
+        private ComponentContext context;
+
+        final ComponentContext constructorContext;
+
+        final boolean reflective;
+
+        public Component( ComponentContext context )
+        {
+            this.constructorContext = context;
+            this.reflective = isReflectiveCall();
+        }
+
+        static boolean isReflectiveCall()
+        {
+            // look for a reflective call between ComponentConstructorImpl
+            // and the constructor
+            for ( StackTraceElement element : new Throwable().getStackTrace() )
+            {
+                if ( ComponentConstructorImpl.class.getName().equals( element.getClassName() ) )
+                {
+                    break;
+                }
+                if ( Constructor.class.getName().equals( element.getClassName() ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class FailingComponent
+    {
+        public FailingComponent()
+        {
+            throw new IllegalStateException( "failing" );
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        MethodHandleUtils.setEnabled( true );
+        super.tearDown();
+    }
+
+    public void test_method_handle() throws Exception
+    {
+        checkNewInstance( false );
+    }
+
+    public void test_reflection_fallback() throws Exception
+    {
+        MethodHandleUtils.setEnabled( false );
+        checkNewInstance( true );
+    }
+
+    public void test_exception_method_handle() throws Exception
+    {
+        checkException();
+    }
+
+    public void test_exception_reflection_fallback() throws Exception
+    {
+        MethodHandleUtils.setEnabled( false );
+        checkException();
+    }
+
+    private void checkNewInstance( boolean reflective ) throws Exception
+    {
+        ComponentContextImpl<Component> context = newContext();
+        ComponentConstructorImpl<Component> constructor = newConstructor();
+
+        Component component = constructor.newInstance( context, null );
+
+        assertSame( context, component.constructorContext );
+        assertSame( context, component.context );
+        assertEquals( reflective, component.reflective );
+    }
+
+    private void checkException() throws Exception
+    {
+        ComponentMetadata metadata = new ComponentMetadata( DSVersion.DS14 );
+        metadata.setName( "foo" );
+        metadata.setImplementationClassName( FailingComponent.class.getName() );
+        metadata.validate();
+        ComponentConstructorImpl<FailingComponent> constructor = new ComponentConstructorImpl<>(
+            metadata, FailingComponent.class, new MockComponentLogger() );
+
+        try
+        {
+            constructor.newInstance( newContext(), null );
+            fail( "Expected InvocationTargetException" );
+        }
+        catch ( InvocationTargetException ite )
+        {
+            assertTrue( ite.getTargetException() instanceof IllegalStateException );
+        }
+    }
+
+    private ComponentConstructorImpl<Component> newConstructor()
+    {
+        return new ComponentConstructorImpl<>( newMetadata(), Component.class, new MockComponentLogger() );
+    }
+
+    private ComponentMetadata newMetadata()
+    {
+        ComponentMetadata metadata = new ComponentMetadata( DSVersion.DS14 );
+        metadata.setName( "foo" );
+        metadata.setImplementationClassName( Component.class.getName() );
+        metadata.setInit( "1" );
+        metadata.setActivationFields( new String[] { "context" } );
+        metadata.validate();
+        return metadata;
+    }
+
+    private ComponentContextImpl<Component> newContext()
+    {
+        final ComponentMetadata metadata = newMetadata();
+        ComponentContainer<Component> container = new ComponentContainer<Component>()
+        {
+
+            @Override
+            public ComponentActivator getActivator()
+            {
+                final ComponentActivator ca = Mockito.mock( ComponentActivator.class );
+                Mockito.when( ca.getBundleContext() ).thenReturn( Mockito.mock( BundleContext.class ) );
+                return ca;
+            }
+
+            @Override
+            public ComponentMetadata getComponentMetadata()
+            {
+                return metadata;
+            }
+
+            @Override
+            public void disposed(SingleComponentManager<Component> component)
+            {
+            }
+
+            @Override
+            public ComponentLogger getLogger()
+            {
+                return new MockComponentLogger();
+            }
+        };
+        SingleComponentManager<Component> icm = new SingleComponentManager<>( container,
+            new ComponentMethodsImpl<Component>() );
+        return new ComponentContextImpl<>( icm, Mockito.mock( Bundle.class ), null );
+    }
+}
@@ -21,11 +21,14 @@ package org.apache.felix.scr.impl.inject.methods;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.felix.scr.impl.inject.ActivatorParameter;
+import org.apache.felix.scr.impl.inject.MethodResult;
 import org.apache.felix.scr.impl.inject.internal.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.inject.internal.MethodHandleUtils;
 import org.apache.felix.scr.impl.logger.ComponentLogger;
 import org.apache.felix.scr.impl.logger.MockComponentLogger;
 import org.apache.felix.scr.impl.manager.ComponentActivator;
@@ -72,6 +75,14 @@ public class ActivateMethodTest extends TestCase
     }
 
 
+    @Override
+    protected void tearDown() throws Exception
+    {
+        MethodHandleUtils.setEnabled( true );
+        super.tearDown();
+    }
+
+
     public void test_private_no_arg() throws Exception
     {
         checkMethod( base, "activate_no_arg" );
@@ -439,4 +450,89 @@ public class ActivateMethodTest extends TestCase
         checkMethod(base, "activate_13_2_annotations", "activate_13_2_annotations", DSVersion.DS13 );
     }
 
+    public static class HandleObject
+    {
+        ComponentContext context;
+
+        boolean reflective;
+
+        public void activate( ComponentContext context )
+        {
+            this.context = context;
+            // look for a reflective call between BaseMethod and this method
+            for ( StackTraceElement element : new Throwable().getStackTrace() )
+            {
+                if ( BaseMethod.class.getName().equals( element.getClassName() ) )
+                {
+                    break;
+                }
+                if ( Method.class.getName().equals( element.getClassName() ) )
+                {
+                    reflective = true;
+                }
+            }
+        }
+
+        public void activate_failing( ComponentContext context )
+        {
+            throw new IllegalStateException( "failing" );
+        }
+    }
+
+    public void test_method_handle() throws Exception
+    {
+        checkHandleObject( false );
+    }
+
+    public void test_reflection_fallback() throws Exception
+    {
+        MethodHandleUtils.setEnabled( false );
+        checkHandleObject( true );
+    }
+
+    public void test_exception_method_handle() throws Exception
+    {
+        checkHandleObjectException();
+    }
+
+    public void test_exception_reflection_fallback() throws Exception
+    {
+        MethodHandleUtils.setEnabled( false );
+        checkHandleObjectException();
+    }
+
+    private void checkHandleObject( boolean reflective )
+    {
+        HandleObject obj = new HandleObject();
+        ComponentContextImpl<Object> context = newContext();
+        ActivateMethod am = new ActivateMethod( "activate", true, HandleObject.class, DSVersion.DS11, false, false );
+
+        MethodResult result = am.invoke( obj, new ActivatorParameter( context, -1 ), null );
+
+        assertNotNull( result );
+        assertFalse( result.hasResult() );
+        assertSame( context, obj.context );
+        assertEquals( reflective, obj.reflective );
+    }
+
+    private void checkHandleObjectException()
+    {
+        HandleObject obj = new HandleObject();
+        ActivateMethod am = new ActivateMethod( "activate_failing", true, HandleObject.class, DSVersion.DS11, false, false );
+        MethodResult failure = new MethodResult( false, new HashMap<String, Object>() );
+
+        MethodResult result = am.invoke( obj, new ActivatorParameter( newContext(), -1 ), failure );
+
+        // the exception thrown by the method is reported unwrapped
+        assertSame( failure, result );
+        assertTrue( result.getResult().get( "exception" ) instanceof IllegalStateException );
+    }
+
+    private ComponentContextImpl<Object> newContext()
+    {
+        SingleComponentManager<Object> icm = new SingleComponentManager<>(newContainer(),
+            new ComponentMethodsImpl<>());
+        return new ComponentContextImpl<>(icm, m_bundle, null);
+    }
+
 }
@@ -20,6 +20,7 @@ package org.apache.felix.scr.impl.xml;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -111,8 +112,39 @@ public class XmlHandlerTest {
             trueDependency.getTarget());
     }
 
+    @Test
+    public void testDeferDisabledComponents() throws Exception
+    {
+        final URL url = getClass().getResource("/parsertest-deferred.xml");
+        final XmlHandler handler = parse(url, null, true);
+
+        // named components disabled by default are only indexed, so the
+        // missing properties entry is not read
+        final List<ComponentMetadata> components = handler.getComponentMetadataList();
+        assertEquals(2, components.size());
+        assertEquals("enabled", components.get(0).getName());
+        components.get(0).validate();
+        assertEquals(1, components.get(0).getProperties().size());
+        assertEquals("org.apache.felix.AnonymousComponent",
+            components.get(1).getImplementationClassName());
+
+        final List<DeferredComponent> deferred = handler.getDeferredComponents();
+        assertEquals(1, deferred.size());
+        assertEquals("disabled", deferred.get(0).getName());
+        assertEquals(1, deferred.get(0).getIndex());
+        assertEquals("org.apache.felix.DisabledComponent",
+            deferred.get(0).getImplementationClassName());
+        assertTrue(deferred.get(0).isConfigurationIgnored());
+    }
+
     private List<ComponentMetadata> parse(final URL descriptorURL,
         ServiceReference<?> trueCondition) throws Exception
+    {
+        return parse(descriptorURL, trueCondition, false).getComponentMetadataList();
+    }
+
+    private XmlHandler parse(final URL descriptorURL,
+        ServiceReference<?> trueCondition, boolean deferDisabledComponents) throws Exception
     {
         final Bundle bundle = Mockito.mock(Bundle.class);
         Mockito.when(bundle.getLocation()).thenReturn("bundle");
@@ -122,14 +154,14 @@ public class XmlHandlerTest {
             stream = descriptorURL.openStream();
 
             XmlHandler handler = new XmlHandler(bundle, new MockBundleLogger(), false,
-                false, trueCondition);
+                false, trueCondition, deferDisabledComponents);
             final SAXParserFactory factory = SAXParserFactory.newInstance();
             factory.setNamespaceAware(true);
             final SAXParser parser = factory.newSAXParser();
 
             parser.parse(stream, handler);
 
-            return handler.getComponentMetadataList();
+            return handler;
         } finally {
             if (stream != null) {
                 try {